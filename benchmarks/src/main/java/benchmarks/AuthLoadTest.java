@@ -0,0 +1,543 @@
+package benchmarks;
+
+import MFA.SecretShare;
+import MFA.ShareCodec;
+import controllers.AuthController;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.support.SimpleJpaRepository;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import org.springframework.transaction.support.TransactionTemplate;
+import pojo.AuthenticationResult;
+import pojo.LoginClass;
+import pojo.UserBase;
+import services.MailDispatcher;
+import services.MailService;
+import services.ShareSenderService;
+import services.password.PasswordHasher;
+import services.password.Pbkdf2PasswordHasher;
+import services.user.UserService;
+import services.user.UserStorage;
+
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Table;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Drives a whole {@link AuthController} with concurrent clients and reports throughput
+ * and latency percentiles per operation.
+ *
+ * <p>Not a JMH benchmark, and runs offline: users are saved to an in-memory H2 database
+ * through a {@link UserService} on a plain {@link SimpleJpaRepository}, and emails go through
+ * a {@link MailDispatcher} to an {@link InMemoryMailSender} that waits <b>mailDelayMillis</b>
+ * per SMTP session. Every operation runs in its own transaction.
+ *
+ * <p>Each of <b>clients</b> threads picks operations at random by the weights of <b>mix</b>
+ * and runs them back to back:
+ * <ul>
+ *     <li>{@code register}: {@link AuthController#register} of a new user;</li>
+ *     <li>{@code registerEmailShares}: {@link AuthController#registerEmailShares} of a new user;</li>
+ *     <li>{@code loginShares}: {@link AuthController#loginShares(LoginClass)} of a registered
+ *     user with 3 of its shares, counted as an error unless it's authorised;</li>
+ *     <li>{@code sendShare}: {@link AuthController#sendShare} to a user registered with email,
+ *     timed until the email is sent.</li>
+ * </ul>
+ * Clients have no think time, so this is a closed model: when the system slows down,
+ * fewer requests are made, and the percentiles are not corrected for coordinated omission.
+ * Latencies of the first <b>warmupSeconds</b> are dropped.
+ *
+ * <p>Passwords are hashed with PBKDF2 of <b>iterations</b>, far fewer than
+ * {@link Pbkdf2PasswordHasher#DEFAULT_ITERATIONS} by default, so the run isn't only
+ * password hashing; pass the default to see production numbers.
+ *
+ * <p>Usage: {@code AuthLoadTest [clients] [seconds] [mix] [users] [iterations] [mailDelayMillis]
+ * [warmupSeconds]}, by default
+ * {@code 16 30 register=10,registerEmailShares=10,loginShares=70,sendShare=10 500 10000 20 5}.
+ *
+ * @author Igor Sytnik
+ */
+public class AuthLoadTest {
+
+    private static final int NEEDED = 3;
+    private static final int AVAILABLE = 5;
+    /**
+     * A number of most recent users logins and emails are picked from.
+     */
+    private static final int POOL_SIZE = 100_000;
+
+    public static void main(String[] args) throws Exception {
+        final int clients = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        final int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        final Mix mix = Mix.parse(args.length > 2 ? args[2]
+                : "register=10,registerEmailShares=10,loginShares=70,sendShare=10");
+        final int users = args.length > 3 ? Integer.parseInt(args[3]) : 500;
+        final int iterations = args.length > 4 ? Integer.parseInt(args[4]) : 10_000;
+        final long mailDelayMillis = args.length > 5 ? Long.parseLong(args[5]) : 20;
+        final int warmupSeconds = args.length > 6 ? Integer.parseInt(args[6]) : 5;
+
+        final EntityManagerFactory factory = entityManagerFactory();
+        final InMemoryMailSender mailSender = new InMemoryMailSender();
+        mailSender.setSessionDelay(Duration.ofMillis(mailDelayMillis));
+        final MailDispatcher dispatcher = new MailDispatcher(mailSender, 10_000, 4, 20, 3, Duration.ofMillis(100));
+        try {
+            final LoadTest test = new LoadTest(factory, new Pbkdf2PasswordHasher(iterations),
+                    new LoadShareSenderService(new LoadMailService(mailSender, dispatcher)));
+            System.out.printf("registering %,d users%n", users);
+            test.seed(users, clients);
+
+            System.out.printf("%d clients, %d s (+%d s warmup), mix %s, PBKDF2 %,d iterations, mail %d ms%n",
+                    clients, seconds, warmupSeconds, mix, iterations, mailDelayMillis);
+            test.run(clients, mix, warmupSeconds, seconds);
+            test.report(seconds);
+            System.out.printf("mail: %,d sent, %,d failed, %,d retried, %,d rejected, %,d SMTP sessions%n",
+                    dispatcher.getSent(), dispatcher.getFailed(), dispatcher.getRetried(),
+                    dispatcher.getRejected(), mailSender.getSessions());
+        } finally {
+            dispatcher.close();
+            factory.close();
+        }
+    }
+
+    /**
+     * Operations a client can run.
+     */
+    enum Operation {
+        REGISTER("register"),
+        REGISTER_EMAIL_SHARES("registerEmailShares"),
+        LOGIN_SHARES("loginShares"),
+        SEND_SHARE("sendShare");
+
+        final String name;
+
+        Operation(String name) {
+            this.name = name;
+        }
+
+        static Operation of(String name) {
+            for (Operation operation : values()) {
+                if (operation.name.equals(name))
+                    return operation;
+            }
+            throw new IllegalArgumentException("Unknown operation " + name);
+        }
+    }
+
+    /**
+     * Weights of the operations, e.g. {@code register=10,loginShares=90}.
+     */
+    static final class Mix {
+        private final Map<Operation, Integer> weights;
+        private final Operation[] operations;
+        private final int[] cumulative;
+
+        private Mix(Map<Operation, Integer> weights) {
+            this.weights = weights;
+            this.operations = weights.keySet().toArray(new Operation[0]);
+            this.cumulative = new int[operations.length];
+            int total = 0;
+            for (int i = 0; i < operations.length; i++) {
+                total += weights.get(operations[i]);
+                cumulative[i] = total;
+            }
+            if (total <= 0)
+                throw new IllegalArgumentException("Mix has no operations");
+        }
+
+        static Mix parse(String mix) {
+            final Map<Operation, Integer> weights = new LinkedHashMap<>();
+            Stream.of(mix.split(",")).map(String::trim).filter(part -> !part.isEmpty()).forEach(part -> {
+                String[] pair = part.split("=");
+                int weight = pair.length > 1 ? Integer.parseInt(pair[1].trim()) : 1;
+                if (weight < 0)
+                    throw new IllegalArgumentException("Weight of " + pair[0] + " is negative");
+                weights.put(Operation.of(pair[0].trim()), weight);
+            });
+            return new Mix(weights);
+        }
+
+        Operation next(Random random) {
+            final int point = random.nextInt(cumulative[cumulative.length - 1]);
+            for (int i = 0; i < cumulative.length; i++) {
+                if (point < cumulative[i])
+                    return operations[i];
+            }
+            return operations[operations.length - 1];
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder();
+            weights.forEach((operation, weight) ->
+                    builder.append(builder.length() == 0 ? "" : ",").append(operation.name).append('=').append(weight));
+            return builder.toString();
+        }
+    }
+
+    /**
+     * Latencies and errors of one operation.
+     */
+    static final class Stats {
+        final Recorder latencies = new Recorder(3);
+        final LongAdder errors = new LongAdder();
+        final AtomicReference<Throwable> firstError = new AtomicReference<>();
+        Histogram measured;
+
+        void fail(Throwable e) {
+            errors.increment();
+            firstError.compareAndSet(null, e);
+        }
+    }
+
+    /**
+     * The controller, its users and the clients driving it.
+     */
+    static final class LoadTest {
+        private final Controller controller;
+        private final TransactionTemplate transactions;
+        private final Map<Operation, Stats> stats = new LinkedHashMap<>();
+        private final UserPool logins = new UserPool(POOL_SIZE);
+        private final UserPool emailed = new UserPool(POOL_SIZE);
+        private final AtomicLong usernames = new AtomicLong();
+
+        LoadTest(EntityManagerFactory factory, PasswordHasher hasher, ShareSenderService shareSender) {
+            final EntityManager entityManager = SharedEntityManagerCreator.createSharedEntityManager(factory);
+            this.controller = new Controller(new LoadUserService(entityManager, hasher), shareSender);
+            this.transactions = new TransactionTemplate(new JpaTransactionManager(factory));
+            for (Operation operation : Operation.values()) {
+                stats.put(operation, new Stats());
+            }
+        }
+
+        /**
+         * Registers <b>users</b> users on <b>clients</b> threads, half of them with email.
+         */
+        void seed(int users, int clients) throws InterruptedException {
+            final AtomicLong left = new AtomicLong(users);
+            final List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                Thread thread = new Thread(() -> {
+                    long n;
+                    while ((n = left.decrementAndGet()) >= 0) {
+                        try {
+                            execute(n % 2 == 0 ? Operation.REGISTER : Operation.REGISTER_EMAIL_SHARES);
+                        } catch (Exception e) {
+                            throw new IllegalStateException("Couldn't register a user", e);
+                        }
+                    }
+                }, "seed-" + i);
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+
+        /**
+         * Runs <b>clients</b> clients for <b>warmupSeconds</b>, drops what was recorded,
+         * and runs them for <b>seconds</b> more.
+         */
+        void run(int clients, Mix mix, int warmupSeconds, int seconds) throws InterruptedException {
+            final long deadline = System.nanoTime() + (warmupSeconds + seconds) * 1_000_000_000L;
+            final List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                Thread thread = new Thread(() -> {
+                    final ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (System.nanoTime() < deadline) {
+                        Operation operation = mix.next(random);
+                        Stats operationStats = stats.get(operation);
+                        long started = System.nanoTime();
+                        try {
+                            execute(operation);
+                            operationStats.latencies.recordValue(System.nanoTime() - started);
+                        } catch (Exception e) {
+                            operationStats.fail(e);
+                        }
+                    }
+                }, "client-" + i);
+                thread.start();
+                threads.add(thread);
+            }
+            Thread.sleep(warmupSeconds * 1_000L);
+            for (Stats operationStats : stats.values()) {
+                operationStats.latencies.getIntervalHistogram();
+                operationStats.errors.reset();
+                operationStats.firstError.set(null);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            for (Stats operationStats : stats.values()) {
+                operationStats.measured = operationStats.latencies.getIntervalHistogram();
+            }
+        }
+
+        /**
+         * Prints a line per operation, latencies in milliseconds.
+         */
+        void report(int seconds) {
+            System.out.printf("%-20s %9s %7s %9s %8s %8s %8s %8s %8s%n",
+                    "operation", "count", "errors", "ops/s", "p50", "p90", "p99", "p99.9", "max");
+            long total = 0;
+            for (Map.Entry<Operation, Stats> entry : stats.entrySet()) {
+                Histogram histogram = entry.getValue().measured;
+                long count = histogram.getTotalCount();
+                total += count;
+                System.out.printf("%-20s %,9d %,7d %,9.1f %8.2f %8.2f %8.2f %8.2f %8.2f%n",
+                        entry.getKey().name, count, entry.getValue().errors.sum(), count / (double) seconds,
+                        millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(90)),
+                        millis(histogram.getValueAtPercentile(99)), millis(histogram.getValueAtPercentile(99.9)),
+                        millis(histogram.getMaxValue()));
+            }
+            System.out.printf("%-20s %,9d %7s %,9.1f%n", "total", total, "", total / (double) seconds);
+            stats.forEach((operation, operationStats) -> {
+                Throwable error = operationStats.firstError.get();
+                if (error != null)
+                    System.out.printf("first %s error: %s%n", operation.name, error);
+            });
+        }
+
+        /**
+         * Runs <b>operation</b> in a transaction.
+         *
+         * @throws Exception whatever the controller throws, or {@link IllegalStateException}
+         * if a login is denied or there is no user to run the operation for yet.
+         */
+        void execute(Operation operation) throws Exception {
+            switch (operation) {
+                case REGISTER:
+                case REGISTER_EMAIL_SHARES: {
+                    final boolean email = operation == Operation.REGISTER_EMAIL_SHARES;
+                    final String username = "load" + usernames.incrementAndGet();
+                    final BigInteger password = new BigInteger(256, ThreadLocalRandom.current());
+                    final SecretShare[] shares = inTransaction(() -> email
+                            ? controller.registerEmailShares(username, password, NEEDED, AVAILABLE,
+                            username + "@example.test")
+                            : controller.register(username, password, NEEDED, AVAILABLE));
+                    int width = 1;
+                    for (SecretShare share : shares) {
+                        width = Math.max(width, (share.getShare().bitLength() + 7) / 8);
+                    }
+                    final List<String> fields = new ArrayList<>(NEEDED);
+                    for (int i = 0; i < NEEDED; i++) {
+                        fields.add(ShareCodec.encode(shares[shares.length - 1 - i], width));
+                    }
+                    final LoginClass login = new LoginClass();
+                    login.setUsername(username);
+                    login.setPasswordFields(fields);
+                    logins.add(login);
+                    if (email)
+                        emailed.add(login);
+                    break;
+                }
+                case LOGIN_SHARES: {
+                    final LoginClass login = logins.pick();
+                    final AuthenticationResult result = inTransaction(() -> controller.loginShares(login));
+                    if (!result.isAuthorised())
+                        throw new IllegalStateException("Login of " + login.getUsername() + " was denied");
+                    break;
+                }
+                case SEND_SHARE: {
+                    final User user = new User();
+                    user.setUsername(emailed.pick().getUsername());
+                    inTransaction(() -> controller.sendShare(user)).join();
+                    break;
+                }
+            }
+        }
+
+        private <T> T inTransaction(Callable<T> action) throws Exception {
+            try {
+                return transactions.execute(status -> {
+                    try {
+                        return action.call();
+                    } catch (RuntimeException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        throw new CheckedException(e);
+                    }
+                });
+            } catch (CheckedException e) {
+                throw (Exception) e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Carries a checked exception out of a {@link TransactionTemplate} callback.
+     */
+    private static final class CheckedException extends RuntimeException {
+        CheckedException(Exception cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * The last <b>capacity</b> logins, picked at random.
+     */
+    static final class UserPool {
+        private final AtomicReferenceArray<LoginClass> logins;
+        private final AtomicLong added = new AtomicLong();
+
+        UserPool(int capacity) {
+            this.logins = new AtomicReferenceArray<>(capacity);
+        }
+
+        void add(LoginClass login) {
+            logins.set((int) (added.getAndIncrement() % logins.length()), login);
+        }
+
+        LoginClass pick() {
+            final long size = Math.min(added.get(), logins.length());
+            if (size == 0)
+                throw new IllegalStateException("No users yet");
+            final LoginClass login = logins.get(ThreadLocalRandom.current().nextInt((int) size));
+            if (login == null)
+                throw new IllegalStateException("No users yet");
+            return login;
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static EntityManagerFactory entityManagerFactory() {
+        final Properties properties = new Properties();
+        properties.setProperty("hibernate.hbm2ddl.auto", "create-drop");
+        properties.setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+
+        final LocalContainerEntityManagerFactoryBean factoryBean = new LocalContainerEntityManagerFactoryBean();
+        factoryBean.setDataSource(new DriverManagerDataSource("jdbc:h2:mem:load;DB_CLOSE_DELAY=-1"));
+        factoryBean.setPackagesToScan(AuthLoadTest.class.getPackage().getName());
+        factoryBean.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+        factoryBean.setJpaProperties(properties);
+        factoryBean.afterPropertiesSet();
+        return factoryBean.getObject();
+    }
+
+    @Entity(name = "LoadUser")
+    @Table(name = "load_users")
+    public static class User extends UserBase<Long> {
+    }
+
+    /**
+     * Users in H2, through the transaction-bound <b>entityManager</b>.
+     */
+    static class LoadUserService extends UserService<User, Long> {
+        private final EntityManager entityManager;
+        private final JpaRepository<User, Long> repository;
+        private final PasswordHasher passwordHasher;
+
+        LoadUserService(EntityManager entityManager, PasswordHasher passwordHasher) {
+            this.entityManager = entityManager;
+            this.repository = new SimpleJpaRepository<>(User.class, entityManager);
+            this.passwordHasher = passwordHasher;
+        }
+
+        @Override
+        protected JpaRepository<User, Long> getRepository() {
+            return repository;
+        }
+
+        @Override
+        protected EntityManager getEntityManager() {
+            return entityManager;
+        }
+
+        @Override
+        protected PasswordHasher getPasswordHasher() {
+            return passwordHasher;
+        }
+
+        @Override
+        public User findByUsername(String username) {
+            List<User> found = entityManager
+                    .createQuery("select u from LoadUser u where u.username = :username", User.class)
+                    .setParameter("username", username)
+                    .getResultList();
+            return found.isEmpty() ? null : found.get(0);
+        }
+    }
+
+    static class LoadMailService extends MailService {
+        private final JavaMailSender mailSender;
+        private final MailDispatcher dispatcher;
+
+        LoadMailService(JavaMailSender mailSender, MailDispatcher dispatcher) {
+            this.mailSender = mailSender;
+            this.dispatcher = dispatcher;
+        }
+
+        @Override
+        public JavaMailSender getMailSender() {
+            return mailSender;
+        }
+
+        @Override
+        public MailDispatcher getMailDispatcher() {
+            return dispatcher;
+        }
+    }
+
+    static class LoadShareSenderService extends ShareSenderService {
+        private final MailService mailService;
+
+        LoadShareSenderService(MailService mailService) {
+            this.mailService = mailService;
+        }
+
+        @Override
+        public MailService getMailService() {
+            return mailService;
+        }
+
+        @Override
+        public CompletableFuture<Void> sendShareEmail(UserBase<?> user) throws Exception {
+            return mailService.sendEmailToUserAsync(user, "Your share: " + UserStorage.getShareForEmail(user), "Your share");
+        }
+    }
+
+    public static class Controller extends AuthController<User> {
+        private final UserService<User, Long> userService;
+        private final ShareSenderService shareSender;
+
+        Controller(UserService<User, Long> userService, ShareSenderService shareSender) {
+            this.userService = userService;
+            this.shareSender = shareSender;
+        }
+
+        @Override
+        protected UserService<User, Long> getUserService() {
+            return userService;
+        }
+
+        @Override
+        protected ShareSenderService getShareSenderService() {
+            return shareSender;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.results.format.ResultFormatType;
+
+/**
+ * Runs the benchmarks once per thread count with the gc profiler attached,
+ * so throughput, average latency and allocation rate are reported together.
+ *
+ * <p>Usage: {@code BenchmarkRunner [include-regex] [thread counts]},
+ * e.g. {@code BenchmarkRunner ShamirBenchmark 1,4,16}.
+ *
+ * @author Igor Sytnik
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : "benchmarks\\..*Benchmark";
+        String threadCounts = args.length > 1 ? args[1] : "1,2,4,8";
+
+        for (String threads : threadCounts.split(",")) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(include)
+                    .threads(Integer.parseInt(threads.trim()))
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(String.format("jmh-result-%st.json", threads.trim()));
+            new Runner(options.build()).run();
+        }
+    }
+}
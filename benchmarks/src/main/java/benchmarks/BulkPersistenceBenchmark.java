@@ -0,0 +1,185 @@
+package benchmarks;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.support.SimpleJpaRepository;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import pojo.UserBase;
+import services.user.Common;
+import services.user.UserService;
+
+import javax.persistence.AttributeOverride;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Table;
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Measures rows per second of the bulk paths of {@link Common} against an in-memory H2 database.
+ *
+ * <p>Not a JMH benchmark: every round inserts <b>rows</b> users and deletes them again,
+ * each in one transaction. The inserts are:
+ * <ul>
+ *     <li>{@code createMany}: one {@link Common#createMany} call without
+ *     {@code hibernate.jdbc.batch_size}, so one statement per row;</li>
+ *     <li>{@code createInChunks/N}: {@link Common#createInChunks} in JDBC batches of N rows.</li>
+ * </ul>
+ * and the deletes are:
+ * <ul>
+ *     <li>{@code repository.deleteAll}: the old {@link Common#deleteAll()}, which loads
+ *     every user and deletes them one by one;</li>
+ *     <li>{@code deleteAll}: one {@code delete} statement;</li>
+ *     <li>{@code deleteAllInChunks/N}: {@link Common#deleteAllInChunks} with chunks of N rows.</li>
+ * </ul>
+ *
+ * <p>Everything runs twice: with the default identity ids, which Hibernate doesn't
+ * batch inserts of, and with ids from the {@code user_seq} sequence of
+ * {@link UserBase#SEQUENCE_MAPPING}.
+ *
+ * <p>Usage: {@code BulkPersistenceBenchmark [rows] [batchSizes]},
+ * by default {@code 100000 1,50,500}.
+ *
+ * @author Igor Sytnik
+ */
+public class BulkPersistenceBenchmark {
+
+    private static final int ROUNDS = 3;
+    private static final int DELETE_CHUNK = 1_000;
+
+    public static void main(String[] args) {
+        final int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        final int[] batchSizes = Stream.of((args.length > 1 ? args[1] : "1,50,500").split(","))
+                .mapToInt(Integer::parseInt)
+                .toArray();
+        final BigInteger prime = BigInteger.probablePrime(257, new Random(42));
+
+        for (boolean sequence : new boolean[]{false, true}) {
+            run(sequence ? "sequence" : "identity", entityManagerFactory(sequence), rows, batchSizes, prime);
+        }
+    }
+
+    private static void run(String ids, EntityManagerFactory factory, int rows, int[] batchSizes,
+                            BigInteger prime) {
+        try {
+            final EntityManager entityManager = factory.createEntityManager();
+            final BulkUserService users = new BulkUserService(entityManager);
+            for (int round = 1; round <= ROUNDS; round++) {
+                System.out.printf("%s ids, round %d, %,d rows%n", ids, round, rows);
+                measure("createMany", rows, entityManager,
+                        () -> users.createMany(users(rows, prime).collect(Collectors.toList())));
+                measure("deleteAll", rows, entityManager, users::deleteAll);
+
+                for (int batchSize : batchSizes) {
+                    measure("createInChunks/" + batchSize, rows, entityManager,
+                            () -> users.createInChunks(users(rows, prime)::iterator, batchSize));
+                    measure("deleteAllInChunks/" + DELETE_CHUNK, rows, entityManager,
+                            () -> users.deleteAllInChunks(DELETE_CHUNK));
+                }
+
+                measure("createInChunks/" + UserBase.ID_ALLOCATION_SIZE, rows, entityManager,
+                        () -> users.createInChunks(users(rows, prime)::iterator, UserBase.ID_ALLOCATION_SIZE));
+                measure("repository.deleteAll", rows, entityManager, users.getRepository()::deleteAll);
+            }
+            entityManager.close();
+        } finally {
+            factory.close();
+        }
+    }
+
+    /**
+     * Runs <b>operation</b> in a transaction and prints its rows per second.
+     */
+    private static void measure(String name, int rows, EntityManager entityManager, Runnable operation) {
+        entityManager.getTransaction().begin();
+        final long started = System.nanoTime();
+        operation.run();
+        entityManager.getTransaction().commit();
+        final long elapsed = System.nanoTime() - started;
+        entityManager.clear();
+        System.out.printf("  %-24s %,12.0f rows/s, %,7d ms%n", name, rows * 1e9 / elapsed, elapsed / 1_000_000);
+    }
+
+    private static Stream<User> users(int count, BigInteger prime) {
+        return IntStream.range(0, count).mapToObj(i -> {
+            User user = new User();
+            user.setUsername("user" + i);
+            user.setPasswordDigest("pbkdf2$0$0$0");
+            user.setSharesNeeded(3);
+            user.setSharesAvailable(5);
+            user.setPrime(prime);
+            user.setEmailingEnabled(false);
+            return user;
+        });
+    }
+
+    /**
+     * @param sequence whether ids come from {@link UserBase#SEQUENCE_MAPPING}
+     *                 rather than an identity column.
+     */
+    private static EntityManagerFactory entityManagerFactory(boolean sequence) {
+        final Properties properties = new Properties();
+        properties.setProperty("hibernate.hbm2ddl.auto", "create-drop");
+        properties.setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+
+        final LocalContainerEntityManagerFactoryBean factoryBean = new LocalContainerEntityManagerFactoryBean();
+        factoryBean.setDataSource(new DriverManagerDataSource(
+                "jdbc:h2:mem:bulk-" + (sequence ? "sequence" : "identity") + ";DB_CLOSE_DELAY=-1"));
+        factoryBean.setPackagesToScan(BulkPersistenceBenchmark.class.getPackage().getName());
+        if (sequence)
+            factoryBean.setMappingResources(UserBase.SEQUENCE_MAPPING);
+        factoryBean.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+        factoryBean.setJpaProperties(properties);
+        factoryBean.afterPropertiesSet();
+        return factoryBean.getObject();
+    }
+
+    /**
+     * Hibernate would create {@code prime} as {@code decimal(19, 2)}, too narrow for a prime.
+     */
+    @Entity(name = "BulkUser")
+    @Table(name = "bulk_users")
+    @AttributeOverride(name = "prime", column = @Column(name = "prime", precision = 400, scale = 0))
+    public static class User extends UserBase<Long> {
+    }
+
+    /**
+     * Users in H2, written through a plain {@link SimpleJpaRepository}.
+     */
+    static class BulkUserService extends UserService<User, Long> {
+        private final EntityManager entityManager;
+        private final JpaRepository<User, Long> repository;
+
+        BulkUserService(EntityManager entityManager) {
+            this.entityManager = entityManager;
+            this.repository = new SimpleJpaRepository<>(User.class, entityManager);
+        }
+
+        @Override
+        protected JpaRepository<User, Long> getRepository() {
+            return repository;
+        }
+
+        @Override
+        protected EntityManager getEntityManager() {
+            return entityManager;
+        }
+
+        @Override
+        public User findByUsername(String username) {
+            List<User> found = entityManager
+                    .createQuery("select u from BulkUser u where u.username = :username", User.class)
+                    .setParameter("username", username)
+                    .getResultList();
+            return found.isEmpty() ? null : found.get(0);
+        }
+    }
+}
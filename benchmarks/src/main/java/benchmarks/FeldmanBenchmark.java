@@ -0,0 +1,111 @@
+package benchmarks;
+
+import MFA.FeldmanScheme;
+import MFA.FixedBaseTable;
+import MFA.SecretShare;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures checking login shares against {@link FeldmanScheme} commitments.
+ *
+ * <ul>
+ *     <li>{@code verify}: all shares at once, as on login;</li>
+ *     <li>{@code verifyEach}: every share against the first on its own, one fixed-base power per share;</li>
+ *     <li>{@code verifyModPow}: every share against the first with {@link BigInteger#modPow} only,
+ *     without the table;</li>
+ *     <li>{@code tablePow} and {@code modPow}: a single 2047-bit power of g.</li>
+ * </ul>
+ *
+ * @author Igor Sytnik
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FeldmanBenchmark {
+
+    @Param({"2/3", "3/5", "8/16"})
+    public String scheme;
+
+    @Param({"6", "8"})
+    public int window;
+
+    private BigInteger[] commitments;
+    private SecretShare[] neededShares;
+    private FixedBaseTable table;
+    private BigInteger exponent;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] parsed = SchemeParameters.parse(scheme);
+        int needed = parsed[0];
+        int available = parsed[1];
+        SecureRandom random = new SecureRandom();
+        FeldmanScheme.VerifiableShares split = FeldmanScheme.INSTANCE
+                .splitVerifiable(SchemeParameters.secret(256, random), needed, available, random);
+        commitments = split.getCommitments();
+        neededShares = Arrays.copyOfRange(split.getShares(), available - needed, available);
+        table = new FixedBaseTable(FeldmanScheme.G, FeldmanScheme.P, FeldmanScheme.Q.bitLength(), window);
+        exponent = neededShares[0].getShare();
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return FeldmanScheme.verify(neededShares, commitments);
+    }
+
+    @Benchmark
+    public boolean verifyEach() {
+        boolean valid = true;
+        for (int i = 1; i < neededShares.length; i++) {
+            valid &= FeldmanScheme.verify(new SecretShare[]{neededShares[0], neededShares[i]}, commitments);
+        }
+        return valid;
+    }
+
+    /**
+     * Checks g<sup>y</sup> * H(x<sub>0</sub>) = g<sup>y<sub>0</sub></sup> * H(x) for every share, where
+     * H(x) = prod C<sub>j</sub><sup>x<sup>j</sup></sup> over the commitments, which start at C<sub>1</sub>.
+     */
+    @Benchmark
+    public boolean verifyModPow() {
+        final SecretShare first = neededShares[0];
+        final BigInteger firstSide = FeldmanScheme.G.modPow(first.getShare(), FeldmanScheme.P);
+        final BigInteger firstProduct = committed(first.getNumber());
+        boolean valid = true;
+        for (int i = 1; i < neededShares.length; i++) {
+            SecretShare share = neededShares[i];
+            BigInteger left = FeldmanScheme.G.modPow(share.getShare(), FeldmanScheme.P)
+                    .multiply(firstProduct).mod(FeldmanScheme.P);
+            BigInteger right = firstSide.multiply(committed(share.getNumber())).mod(FeldmanScheme.P);
+            valid &= left.equals(right);
+        }
+        return valid;
+    }
+
+    private BigInteger committed(int number) {
+        final BigInteger x = BigInteger.valueOf(number);
+        BigInteger product = BigInteger.ONE;
+        for (int j = commitments.length - 1; j >= 0; j--) {
+            product = product.multiply(commitments[j]).mod(FeldmanScheme.P).modPow(x, FeldmanScheme.P);
+        }
+        return product;
+    }
+
+    @Benchmark
+    public BigInteger tablePow() {
+        return table.pow(exponent);
+    }
+
+    @Benchmark
+    public BigInteger modPow() {
+        return FeldmanScheme.G.modPow(exponent, FeldmanScheme.P);
+    }
+}
@@ -0,0 +1,62 @@
+package benchmarks;
+
+import MFA.GF256Scheme;
+import MFA.SecretShare;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link GF256Scheme}, to compare with {@link ShamirBenchmark}
+ * and {@link ManagerBenchmark}: there is no prime to generate.
+ *
+ * @author Igor Sytnik
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GF256Benchmark {
+
+    @Param({"64", "256", "1024", "2048", "4096"})
+    public int bits;
+
+    @Param({"2/3", "3/5", "8/16", "16/32", "16/64", "32/64", "32/128"})
+    public String scheme;
+
+    private int needed;
+    private int available;
+    private BigInteger secret;
+    private SecretShare[] neededShares;
+
+    @State(Scope.Thread)
+    public static class ThreadRandom {
+        final SecureRandom random = new SecureRandom();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] parsed = SchemeParameters.parse(scheme);
+        needed = parsed[0];
+        available = parsed[1];
+        SecureRandom random = new SecureRandom();
+        secret = SchemeParameters.secret(bits, random);
+        SecretShare[] shares = GF256Scheme.INSTANCE.split(secret, needed, available, random);
+        neededShares = Arrays.copyOfRange(shares, available - needed, available);
+    }
+
+    @Benchmark
+    public SecretShare[] split(ThreadRandom threadRandom) {
+        return GF256Scheme.INSTANCE.split(secret, needed, available, threadRandom.random);
+    }
+
+    @Benchmark
+    public BigInteger combine() {
+        return GF256Scheme.INSTANCE.combine(neededShares);
+    }
+}
@@ -0,0 +1,159 @@
+package benchmarks;
+
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailParseException;
+import org.springframework.mail.MailPreparationException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.MimeMessagePreparator;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link JavaMailSender} that keeps sent messages in memory instead of talking to an SMTP server.
+ *
+ * <p>A stand-in for {@link AuthLoadTest}: it can simulate the time an SMTP session takes
+ * and fail a number of sends to exercise retries.
+ *
+ * @author Igor Sytnik
+ */
+public class InMemoryMailSender implements JavaMailSender {
+
+    private final Session session = Session.getInstance(new Properties());
+    private final ConcurrentLinkedQueue<MimeMessage> mimeMessages = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<SimpleMailMessage> simpleMessages = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+    private final AtomicLong sessions = new AtomicLong();
+    private volatile Duration sessionDelay = Duration.ZERO;
+
+    /**
+     * @param sessionDelay time every send call takes, as an SMTP session would.
+     */
+    public void setSessionDelay(Duration sessionDelay) {
+        this.sessionDelay = sessionDelay;
+    }
+
+    /**
+     * Makes the next <b>failures</b> send calls throw {@link MailSendException}.
+     *
+     * @param failures a number of send calls to fail.
+     */
+    public void failNext(int failures) {
+        failuresLeft.set(failures);
+    }
+
+    /**
+     * @return MIME messages sent so far, in the order they were sent.
+     */
+    public List<MimeMessage> getSentMessages() {
+        return new ArrayList<>(mimeMessages);
+    }
+
+    /**
+     * @return simple messages sent so far, in the order they were sent.
+     */
+    public List<SimpleMailMessage> getSentSimpleMessages() {
+        return new ArrayList<>(simpleMessages);
+    }
+
+    /**
+     * @return a number of send calls, each of which would be one SMTP session.
+     */
+    public long getSessions() {
+        return sessions.get();
+    }
+
+    /**
+     * Forgets all sent messages.
+     */
+    public void clear() {
+        mimeMessages.clear();
+        simpleMessages.clear();
+    }
+
+    @Override
+    public MimeMessage createMimeMessage() {
+        return new MimeMessage(session);
+    }
+
+    @Override
+    public MimeMessage createMimeMessage(InputStream contentStream) throws MailException {
+        try {
+            return new MimeMessage(session, contentStream);
+        } catch (MessagingException e) {
+            throw new MailParseException("Could not parse raw MIME content", e);
+        }
+    }
+
+    @Override
+    public void send(MimeMessage mimeMessage) throws MailException {
+        send(new MimeMessage[]{mimeMessage});
+    }
+
+    @Override
+    public void send(MimeMessage... mimeMessages) throws MailException {
+        openSession();
+        this.mimeMessages.addAll(Arrays.asList(mimeMessages));
+    }
+
+    @Override
+    public void send(MimeMessagePreparator mimeMessagePreparator) throws MailException {
+        send(new MimeMessagePreparator[]{mimeMessagePreparator});
+    }
+
+    @Override
+    public void send(MimeMessagePreparator... mimeMessagePreparators) throws MailException {
+        MimeMessage[] messages = new MimeMessage[mimeMessagePreparators.length];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = createMimeMessage();
+            try {
+                mimeMessagePreparators[i].prepare(messages[i]);
+            } catch (Exception e) {
+                throw new MailPreparationException(e);
+            }
+        }
+        send(messages);
+    }
+
+    @Override
+    public void send(SimpleMailMessage simpleMessage) throws MailException {
+        send(new SimpleMailMessage[]{simpleMessage});
+    }
+
+    @Override
+    public void send(SimpleMailMessage... simpleMessages) throws MailException {
+        openSession();
+        this.simpleMessages.addAll(Arrays.asList(simpleMessages));
+    }
+
+    /**
+     * Simulates an SMTP session: waits for {@link InMemoryMailSender#sessionDelay}
+     * and fails if {@link InMemoryMailSender#failNext(int)} asked for it.
+     */
+    private void openSession() {
+        sessions.incrementAndGet();
+        long delay = sessionDelay.toMillis();
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MailSendException("Interrupted while sending", e);
+            }
+        }
+        if (failuresLeft.getAndUpdate(left -> Math.max(left - 1, 0)) > 0)
+            throw new MailSendException("Simulated failure");
+    }
+}
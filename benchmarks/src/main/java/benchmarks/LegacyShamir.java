@@ -0,0 +1,42 @@
+package benchmarks;
+
+import MFA.SecretShare;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * The original power-per-coefficient split, kept as a baseline
+ * for the Horner's rule evaluation in {@link MFA.Shamir#split}.
+ *
+ * @author Igor Sytnik
+ */
+final class LegacyShamir {
+
+    private LegacyShamir() {
+    }
+
+    static SecretShare[] split(BigInteger secret, int needed, int available, BigInteger prime, Random random) {
+        final BigInteger[] coeff = new BigInteger[needed];
+        coeff[0] = secret;
+        for (int i = 1; i < needed; i++) {
+            BigInteger r = new BigInteger(prime.bitLength(), random);
+            while (r.compareTo(BigInteger.ZERO) < 1 && r.compareTo(prime) > -1) {
+                r = new BigInteger(prime.bitLength(), random);
+            }
+            coeff[i] = r;
+        }
+
+        final SecretShare[] shares = new SecretShare[available];
+        for (int x = 1; x <= available; x++) {
+            BigInteger accum = secret;
+
+            for (int exp = 1; exp < needed; exp++) {
+                accum = accum.add(coeff[exp].multiply(BigInteger.valueOf(x).pow(exp).mod(prime))).mod(prime);
+            }
+            shares[x - 1] = new SecretShare(x, accum);
+        }
+
+        return shares;
+    }
+}
@@ -0,0 +1,46 @@
+package benchmarks;
+
+import MFA.Manager;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Manager#Manager(BigInteger, int, int)}, which includes
+ * probable prime generation on top of the split.
+ *
+ * @author Igor Sytnik
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ManagerBenchmark {
+
+    @Param({"64", "256", "1024", "2048", "4096"})
+    public int bits;
+
+    @Param({"2/3", "3/5", "8/16", "16/32", "32/64"})
+    public String scheme;
+
+    private int needed;
+    private int available;
+    private BigInteger secret;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] parsed = SchemeParameters.parse(scheme);
+        needed = parsed[0];
+        available = parsed[1];
+        secret = SchemeParameters.secret(bits, new SecureRandom());
+    }
+
+    @Benchmark
+    public Manager construct() {
+        return new Manager(secret, needed, available);
+    }
+}
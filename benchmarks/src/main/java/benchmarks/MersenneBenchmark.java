@@ -0,0 +1,79 @@
+package benchmarks;
+
+import MFA.MersenneScheme;
+import MFA.ParallelSplit;
+import MFA.SchemeType;
+import MFA.SecretShare;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link MersenneScheme}, to compare with {@link ShamirBenchmark}, {@link GF256Benchmark}
+ * and {@link ManagerBenchmark}: there is no prime to generate, and reductions are shifts and adds.
+ *
+ * <p>{@code parallelSplit} processes the blocks of a secret in parallel on the common pool.
+ *
+ * @author Igor Sytnik
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MersenneBenchmark {
+
+    @Param({"MERSENNE_127", "MERSENNE_521"})
+    public SchemeType type;
+
+    @Param({"64", "256", "1024", "2048", "4096"})
+    public int bits;
+
+    @Param({"2/3", "3/5", "8/16", "16/32", "32/64"})
+    public String scheme;
+
+    private int needed;
+    private int available;
+    private BigInteger secret;
+    private MersenneScheme sequential;
+    private MersenneScheme parallel;
+    private SecretShare[] neededShares;
+
+    @State(Scope.Thread)
+    public static class ThreadRandom {
+        final SecureRandom random = new SecureRandom();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] parsed = SchemeParameters.parse(scheme);
+        needed = parsed[0];
+        available = parsed[1];
+        SecureRandom random = new SecureRandom();
+        secret = SchemeParameters.secret(bits, random);
+        sequential = new MersenneScheme(type, null);
+        parallel = new MersenneScheme(type, new ParallelSplit(ForkJoinPool.commonPool(), 0));
+        SecretShare[] shares = sequential.split(secret, needed, available, random);
+        neededShares = Arrays.copyOfRange(shares, available - needed, available);
+    }
+
+    @Benchmark
+    public SecretShare[] split(ThreadRandom threadRandom) {
+        return sequential.split(secret, needed, available, threadRandom.random);
+    }
+
+    @Benchmark
+    public SecretShare[] parallelSplit(ThreadRandom threadRandom) {
+        return parallel.split(secret, needed, available, threadRandom.random);
+    }
+
+    @Benchmark
+    public BigInteger combine() {
+        return sequential.combine(neededShares);
+    }
+}
@@ -0,0 +1,68 @@
+package benchmarks;
+
+import MFA.ParallelSplit;
+import MFA.SecretShare;
+import MFA.Shamir;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the sequential {@link Shamir#split} with the parallel one over share counts,
+ * to find the {@link ParallelSplit} threshold where going parallel starts to pay off.
+ *
+ * <p>The parallel split uses a threshold of 0, so it is parallel for every scheme here.
+ * The crossover is the smallest {@code needed * available} at which {@code parallel}
+ * beats {@code sequential}.
+ *
+ * @author Igor Sytnik
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelSplitBenchmark {
+
+    @Param({"256", "2048", "4096"})
+    public int bits;
+
+    @Param({"3/5", "8/16", "16/32", "32/64", "64/128", "128/256"})
+    public String scheme;
+
+    private int needed;
+    private int available;
+    private BigInteger secret;
+    private BigInteger prime;
+    private ParallelSplit parallelSplit;
+
+    @State(Scope.Thread)
+    public static class ThreadRandom {
+        final SecureRandom random = new SecureRandom();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] parsed = SchemeParameters.parse(scheme);
+        needed = parsed[0];
+        available = parsed[1];
+        SecureRandom random = new SecureRandom();
+        secret = SchemeParameters.secret(bits, random);
+        prime = new BigInteger(secret.bitLength() + 1, 256, random);
+        parallelSplit = new ParallelSplit(ForkJoinPool.commonPool(), 0);
+    }
+
+    @Benchmark
+    public SecretShare[] sequential(ThreadRandom threadRandom) {
+        return Shamir.split(secret, needed, available, prime, threadRandom.random);
+    }
+
+    @Benchmark
+    public SecretShare[] parallel(ThreadRandom threadRandom) {
+        return Shamir.split(secret, needed, available, prime, threadRandom.random, parallelSplit);
+    }
+}
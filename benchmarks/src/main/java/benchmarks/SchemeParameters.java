@@ -0,0 +1,41 @@
+package benchmarks;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Helpers shared by the benchmarks for turning JMH parameters
+ * into scheme inputs.
+ *
+ * @author Igor Sytnik
+ */
+final class SchemeParameters {
+
+    private SchemeParameters() {
+    }
+
+    /**
+     * Parses a {@code "needed/available"} parameter.
+     *
+     * @param scheme a string like {@code "2/3"}.
+     * @return an array of two elements: <b>needed</b> and <b>available</b>.
+     */
+    static int[] parse(String scheme) {
+        int slash = scheme.indexOf('/');
+        return new int[]{
+                Integer.parseInt(scheme.substring(0, slash)),
+                Integer.parseInt(scheme.substring(slash + 1))
+        };
+    }
+
+    /**
+     * Generates a secret of exactly <b>bits</b> bits.
+     *
+     * @param bits bit length of the secret.
+     * @param random source of random bits.
+     * @return a positive {@link BigInteger} with its highest bit set.
+     */
+    static BigInteger secret(int bits, Random random) {
+        return new BigInteger(bits, random).setBit(bits - 1);
+    }
+}
@@ -0,0 +1,86 @@
+package benchmarks;
+
+import MFA.LagrangeCache;
+import MFA.SecretShare;
+import MFA.Shamir;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Shamir#split} and {@link Shamir#combine} over
+ * secret sizes and <b>needed</b>/<b>available</b> pairs.
+ *
+ * <p>The prime is generated once per trial, so only the scheme itself is measured.
+ *
+ * @author Igor Sytnik
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShamirBenchmark {
+
+    @Param({"64", "256", "1024", "2048", "4096"})
+    public int bits;
+
+    @Param({"2/3", "3/5", "8/16", "16/32", "16/64", "32/64", "32/128"})
+    public String scheme;
+
+    private int needed;
+    private int available;
+    private BigInteger secret;
+    private BigInteger prime;
+    private SecretShare[] neededShares;
+    private final LagrangeCache lagrangeCache = new LagrangeCache(16);
+
+    @State(Scope.Thread)
+    public static class ThreadRandom {
+        final SecureRandom random = new SecureRandom();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] parsed = SchemeParameters.parse(scheme);
+        needed = parsed[0];
+        available = parsed[1];
+        SecureRandom random = new SecureRandom();
+        secret = SchemeParameters.secret(bits, random);
+        prime = new BigInteger(secret.bitLength() + 1, 256, random);
+        SecretShare[] shares = Shamir.split(secret, needed, available, prime, random);
+        neededShares = Arrays.copyOfRange(shares, available - needed, available);
+    }
+
+    @Benchmark
+    public SecretShare[] split(ThreadRandom threadRandom) {
+        return Shamir.split(secret, needed, available, prime, threadRandom.random);
+    }
+
+    /**
+     * The split before Horner's rule, to compare {@link ShamirBenchmark#split} against.
+     */
+    @Benchmark
+    public SecretShare[] splitLegacy(ThreadRandom threadRandom) {
+        return LegacyShamir.split(secret, needed, available, prime, threadRandom.random);
+    }
+
+    @Benchmark
+    public BigInteger combine() {
+        return Shamir.combine(neededShares, prime);
+    }
+
+    @Benchmark
+    public BigInteger combineBatched() {
+        return Shamir.combineBatched(neededShares, prime);
+    }
+
+    @Benchmark
+    public BigInteger combineCached() {
+        return lagrangeCache.combine(neededShares, prime);
+    }
+}
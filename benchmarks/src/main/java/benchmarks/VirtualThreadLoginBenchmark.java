@@ -0,0 +1,248 @@
+package benchmarks;
+
+import MFA.Manager;
+import MFA.SecretShare;
+import MFA.ShareCodec;
+import controllers.AuthController;
+import org.springframework.data.jpa.repository.JpaRepository;
+import pojo.AuthenticationResult;
+import pojo.LoginClass;
+import pojo.UserBase;
+import services.ShareSenderService;
+import services.VirtualThreads;
+import services.password.PasswordHasher;
+import services.password.PasswordHashers;
+import services.user.UserService;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares throughput and memory of the blocking login flow on platform threads
+ * and on virtual threads, with many logins in flight at once.
+ *
+ * <p>Not a JMH benchmark: every round submits <b>logins</b> calls of
+ * {@link AuthController#loginSharesAsync(LoginClass, String)} at once and waits for all of them.
+ * Users live in memory, and every lookup sleeps for <b>lookupMillis</b> to stand in for
+ * the database. Digests are unsalted SHA-1, so the rounds measure the thread model
+ * rather than password hashing. The modes are:
+ * <ul>
+ *     <li>{@code platform-pool}: a fixed pool of <b>platformThreads</b>, as a servlet container has;</li>
+ *     <li>{@code platform-per-login}: a new platform thread for every login;</li>
+ *     <li>{@code virtual}: a virtual thread for every login, with shares combined
+ *     on a pool of platform threads, one per core. Needs Java 21 or later.</li>
+ * </ul>
+ *
+ * <p>Usage: {@code VirtualThreadLoginBenchmark [logins] [platformThreads] [lookupMillis]},
+ * by default {@code 10000 200 20}.
+ *
+ * @author Igor Sytnik
+ */
+public class VirtualThreadLoginBenchmark {
+
+    private static final int USERS = 1_000;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        final int logins = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        final int platformThreads = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        final long lookupMillis = args.length > 2 ? Long.parseLong(args[2]) : 20;
+
+        final InMemoryUserService users = new InMemoryUserService(lookupMillis);
+        final List<LoginClass> credentials = users.register(USERS, new Random(42));
+
+        run("platform-pool", users, credentials, logins,
+                Executors.newFixedThreadPool(platformThreads), null);
+        run("platform-per-login", users, credentials, logins,
+                Executors.newCachedThreadPool(), null);
+        if (VirtualThreads.isAvailable()) {
+            run("virtual", users, credentials, logins, VirtualThreads.newVirtualThreadPerTaskExecutor(),
+                    VirtualThreads.newCryptoPool(Runtime.getRuntime().availableProcessors()));
+        } else {
+            System.out.println("virtual: skipped, needs Java 21 or later");
+        }
+    }
+
+    private static void run(String mode, InMemoryUserService users, List<LoginClass> credentials, int logins,
+                            ExecutorService requestExecutor, ExecutorService cryptoExecutor) throws Exception {
+        final Controller controller = new Controller(users, requestExecutor, cryptoExecutor);
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        try {
+            round(controller, credentials, Math.min(logins, 1_000));
+            for (int i = 0; i < ROUNDS; i++) {
+                System.gc();
+                threads.resetPeakThreadCount();
+                final long heapBefore = memory.getHeapMemoryUsage().getUsed();
+                final HeapSampler sampler = new HeapSampler(memory);
+                sampler.start();
+
+                final long started = System.nanoTime();
+                final int authorised = round(controller, credentials, logins);
+                final long elapsed = System.nanoTime() - started;
+
+                sampler.interrupt();
+                sampler.join();
+                System.out.printf("%-18s round %d: %,9.0f logins/s, %,6d ms, authorised %d/%d, "
+                                + "peak threads %,6d, peak heap +%,d KiB%n",
+                        mode, i + 1, logins * 1e9 / elapsed, elapsed / 1_000_000, authorised, logins,
+                        threads.getPeakThreadCount(), Math.max(0, sampler.peak.get() - heapBefore) / 1024);
+            }
+        } finally {
+            requestExecutor.shutdown();
+            if (cryptoExecutor != null)
+                cryptoExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Submits <b>logins</b> logins at once and waits for all of them.
+     *
+     * @return a number of authorised logins.
+     */
+    private static int round(Controller controller, List<LoginClass> credentials, int logins) {
+        final List<CompletableFuture<AuthenticationResult>> results = new ArrayList<>(logins);
+        for (int i = 0; i < logins; i++) {
+            results.add(controller.loginSharesAsync(credentials.get(i % credentials.size()), null));
+        }
+        int authorised = 0;
+        for (CompletableFuture<AuthenticationResult> result : results) {
+            if (result.join().isAuthorised())
+                authorised++;
+        }
+        return authorised;
+    }
+
+    /**
+     * Samples used heap every few milliseconds until interrupted.
+     */
+    private static class HeapSampler extends Thread {
+        final MemoryMXBean memory;
+        final AtomicLong peak = new AtomicLong();
+
+        HeapSampler(MemoryMXBean memory) {
+            this.memory = memory;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                peak.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    public static class User extends UserBase<Long> {
+    }
+
+    /**
+     * Users in memory; the login flow never touches the repository.
+     */
+    static class InMemoryUserService extends UserService<User, Long> {
+        private final Map<String, User> users = new ConcurrentHashMap<>();
+        private final long lookupMillis;
+
+        InMemoryUserService(long lookupMillis) {
+            this.lookupMillis = lookupMillis;
+        }
+
+        List<LoginClass> register(int count, Random random) {
+            final List<LoginClass> credentials = new ArrayList<>(count);
+            for (long id = 0; id < count; id++) {
+                BigInteger password = SchemeParameters.secret(256, random);
+                Manager manager = new Manager(password, 3, 5);
+                User user = new User();
+                user.setId(id);
+                user.setUsername("user" + id);
+                user.setPasswordDigest(getPasswordHasher().hash(password.toString()));
+                user.setSharesNeeded(3);
+                user.setSharesAvailable(5);
+                user.setPrime(manager.getPrime());
+                user.setScheme(manager.getSchemeType());
+                user.setEmailingEnabled(false);
+                users.put(user.getUsername(), user);
+
+                List<String> fields = new ArrayList<>();
+                for (SecretShare share : manager.getShares()) {
+                    if (fields.size() < 3)
+                        fields.add(ShareCodec.encode(share, manager.getShareWidth()));
+                }
+                LoginClass login = new LoginClass();
+                login.setUsername(user.getUsername());
+                login.setPasswordFields(fields);
+                credentials.add(login);
+            }
+            return credentials;
+        }
+
+        @Override
+        protected JpaRepository<User, Long> getRepository() {
+            return null;
+        }
+
+        @Override
+        protected PasswordHasher getPasswordHasher() {
+            return PasswordHashers.SHA1;
+        }
+
+        @Override
+        public User findByUsername(String username) {
+            try {
+                Thread.sleep(lookupMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return users.get(username);
+        }
+    }
+
+    public static class Controller extends AuthController<User> {
+        private final UserService<User, Long> userService;
+        private final ExecutorService requestExecutor;
+        private final ExecutorService cryptoExecutor;
+
+        Controller(UserService<User, Long> userService, ExecutorService requestExecutor,
+                   ExecutorService cryptoExecutor) {
+            this.userService = userService;
+            this.requestExecutor = requestExecutor;
+            this.cryptoExecutor = cryptoExecutor;
+        }
+
+        @Override
+        protected UserService<User, Long> getUserService() {
+            return userService;
+        }
+
+        @Override
+        protected ShareSenderService getShareSenderService() {
+            return null;
+        }
+
+        @Override
+        protected ExecutorService getRequestExecutor() {
+            return requestExecutor;
+        }
+
+        @Override
+        protected ExecutorService getCryptoExecutor() {
+            return cryptoExecutor;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package MFA;
+
+import java.math.BigInteger;
+
+/**
+ * Ways {@link Manager} can combine shares.
+ *
+ * @author Igor Sytnik
+ */
+public enum CombineMode {
+    /**
+     * {@link Shamir#combine(SecretShare[], BigInteger)}, one modular inversion per share.
+     */
+    STANDARD,
+    /**
+     * {@link Shamir#combineBatched(SecretShare[], BigInteger)}, one modular inversion in total.
+     */
+    BATCH_INVERSION
+}
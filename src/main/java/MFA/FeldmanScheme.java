@@ -0,0 +1,315 @@
+package MFA;
+
+import io.micrometer.core.instrument.Timer;
+import metrics.AuthMetrics;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * {@link Shamir} secret share scheme with Feldman's verifiable shares.
+ *
+ * <p>Shares are split modulo the prime q = (p - 1) / 2, where p is the 2048-bit safe prime
+ * of RFC 3526 group 14, and g = 2 generates the subgroup of order q modulo p. There is no
+ * per-user prime. With a polynomial a<sub>0</sub> + a<sub>1</sub>x + ... the split also
+ * publishes commitments C<sub>j</sub> = g<sup>a<sub>j</sub></sup> mod p for j &ge; 1, which are
+ * stored with the user. Shares (x<sub>0</sub>, y<sub>0</sub>) and (x, y) are of the same
+ * polynomial if g<sup>y - y<sub>0</sub></sup> = prod C<sub>j</sub><sup>x<sup>j</sup> - x<sub>0</sub><sup>j</sup></sup>,
+ * so a mistyped or corrupted share is found before the shares are combined and the password
+ * is hashed, see {@link FeldmanScheme#verify(SecretShare[], BigInteger[])}.
+ *
+ * <p>There is no commitment to the free term a<sub>0</sub>, the secret itself: g<sup>secret</sup>
+ * would let anyone who reads it check guesses of a password with a single power, without the
+ * password hash. The price is that a share is only checked against the other shares of a login,
+ * and shares that are all off by the same amount are left to the password check.
+ *
+ * <p>The other commitments hide g<sup>secret</sup> only from those who hold no share: with any
+ * one share (x<sub>0</sub>, y<sub>0</sub>), g<sup>secret</sup> =
+ * g<sup>y<sub>0</sub></sup> prod C<sub>j</sub><sup>-x<sub>0</sub><sup>j</sup></sup>. So commitments
+ * must not be stored next to a share, e.g. the emailed share of a user, and a user's commitments
+ * together with one leaked share of that user are as good as the password digest for guessing.
+ *
+ * <p>g<sup>y</sup> is taken from a {@link FixedBaseTable} built on first use, and all shares of
+ * a login are checked together with random weights, so a login costs one fixed-base power
+ * and a few short ones whatever the number of shares.
+ *
+ * @author Igor Sytnik
+ */
+public class FeldmanScheme implements SharingScheme {
+
+    public static final FeldmanScheme INSTANCE = new FeldmanScheme();
+
+    /**
+     * The 2048-bit MODP prime of RFC 3526, 2<sup>2048</sup> - 2<sup>1984</sup> - 1 +
+     * 2<sup>64</sup> * (floor(2<sup>1918</sup> pi) + 124476).
+     */
+    public static final BigInteger P = new BigInteger(
+            "FFFFFFFFFFFFFFFFC90FDAA22168C234C4C6628B80DC1CD129024E088A67CC74020BBEA63B139B22"
+                    + "514A08798E3404DDEF9519B3CD3A431B302B0A6DF25F14374FE1356D6D51C245E485B576625E7EC6"
+                    + "F44C42E9A637ED6B0BFF5CB6F406B7EDEE386BFB5A899FA5AE9F24117C4B1FE649286651ECE45B3D"
+                    + "C2007CB8A163BF0598DA48361C55D39A69163FA8FD24CF5F83655D23DCA3AD961C62F356208552BB"
+                    + "9ED529077096966D670C354E4ABC9804F1746C08CA18217C32905E462E36CE3BE39E772C180E8603"
+                    + "9B2783A2EC07A28FB5C55DF06F4C52C9DE2BCBF6955817183995497CEA956AE515D2261898FA0510"
+                    + "15728E5A8AACAA68FFFFFFFFFFFFFFFF", 16);
+    /**
+     * The prime order of the subgroup generated by {@link FeldmanScheme#G}, which shares are split modulo.
+     */
+    public static final BigInteger Q = P.shiftRight(1);
+    public static final BigInteger G = BigInteger.TWO;
+    /**
+     * A number of bytes of a share value and of every commitment.
+     */
+    public static final int WIDTH = 256;
+    /**
+     * The largest number of shares needed, which bounds the stored commitments.
+     */
+    public static final int MAX_NEEDED = 32;
+    /**
+     * A window of the table of powers of {@link FeldmanScheme#G}: 6 bits take 5.5 MB
+     * and about 340 multiplications a power, 8 bits take 16 MB and 256 multiplications.
+     */
+    public static final int WINDOW = 6;
+
+    private static final SecureRandom WEIGHTS = new SecureRandom();
+
+    /**
+     * Holds the table, so it's built on the first split or check rather than on class load.
+     */
+    private static final class Powers {
+        static final FixedBaseTable OF_G = new FixedBaseTable(G, P, Q.bitLength(), WINDOW);
+    }
+
+    /**
+     * Shares and the commitments to their polynomial.
+     */
+    public static final class VerifiableShares {
+        private final SecretShare[] shares;
+        private final BigInteger[] commitments;
+
+        VerifiableShares(SecretShare[] shares, BigInteger[] commitments) {
+            this.shares = shares;
+            this.commitments = commitments;
+        }
+
+        public SecretShare[] getShares() {
+            return shares;
+        }
+
+        /**
+         * @return C<sub>j</sub> = g<sup>a<sub>j</sub></sup> mod p for j from 1 to needed - 1,
+         * empty if one share is needed.
+         */
+        public BigInteger[] getCommitments() {
+            return commitments;
+        }
+    }
+
+    @Override
+    public SchemeType getType() {
+        return SchemeType.FELDMAN_2048;
+    }
+
+    /**
+     * Splits <b>secret</b> and drops the commitments.
+     *
+     * @see FeldmanScheme#splitVerifiable(BigInteger, int, int, Random)
+     */
+    @Override
+    public SecretShare[] split(BigInteger secret, int needed, int available, Random random) {
+        return splitVerifiable(secret, needed, available, random).getShares();
+    }
+
+    /**
+     * Splits <b>secret</b> into <b>available</b> shares, <b>needed</b> number of which
+     * are needed for the <b>secret</b> reconstruction, and commits to the polynomial.
+     *
+     * <p>The commitments and any one of the shares reveal g<sup>secret</sup>,
+     * so don't keep them together.
+     *
+     * @param secret a secret in 0..q-1.
+     * @param needed a number of shares needed for restoring the <b>secret</b>, at most {@link FeldmanScheme#MAX_NEEDED}.
+     * @param available a number of resulting shares.
+     * @param random an instance of a random number generator.
+     * @return generated shares and commitments.
+     * @throws IllegalArgumentException if <b>secret</b> is out of range
+     * or <b>needed</b> and <b>available</b> are.
+     */
+    public VerifiableShares splitVerifiable(BigInteger secret, int needed, int available, Random random) {
+        final Timer.Sample sample = AuthMetrics.start();
+        String outcome = AuthMetrics.ERROR;
+        try {
+            VerifiableShares shares = splitAndCommit(secret, needed, available, random);
+            outcome = AuthMetrics.SUCCESS;
+            return shares;
+        } finally {
+            if (sample != null)
+                AuthMetrics.stop(sample, AuthMetrics.SHAMIR_SPLIT, outcome,
+                        "needed", AuthMetrics.shares(needed),
+                        "available", AuthMetrics.shares(available),
+                        "bits", AuthMetrics.bits(Q.bitLength()));
+        }
+    }
+
+    /**
+     * Combines <b>shares</b> without checking them; check them with
+     * {@link FeldmanScheme#verify(SecretShare[], BigInteger[])} first.
+     *
+     * @throws ArithmeticException if two shares have the same number.
+     */
+    @Override
+    public BigInteger combine(SecretShare[] shares) {
+        final Timer.Sample sample = AuthMetrics.start();
+        String outcome = AuthMetrics.ERROR;
+        try {
+            if (shares.length == 0)
+                throw new NoSuchElementException("No shares to combine");
+            BigInteger secret = Shamir.combine(shares, Q);
+            outcome = AuthMetrics.SUCCESS;
+            return secret;
+        } finally {
+            if (sample != null)
+                AuthMetrics.stop(sample, AuthMetrics.SHAMIR_COMBINE, outcome,
+                        "needed", AuthMetrics.shares(shares.length),
+                        "mode", SchemeType.FELDMAN_2048.name().toLowerCase(),
+                        "bits", AuthMetrics.bits(Q.bitLength()));
+        }
+    }
+
+    private VerifiableShares splitAndCommit(BigInteger secret, int needed, int available, Random random) {
+        if (secret.signum() < 0 || secret.compareTo(Q) >= 0)
+            throw new IllegalArgumentException("Secret must be in 0..q-1");
+        if (needed < 1 || needed > available || needed > MAX_NEEDED)
+            throw new IllegalArgumentException(
+                    String.format("Can't split into %d of %d shares", needed, available));
+        final BigInteger[] coefficients = new BigInteger[needed];
+        final BigInteger[] commitments = new BigInteger[needed - 1];
+        coefficients[0] = secret;
+        for (int i = 1; i < needed; i++) {
+            BigInteger coefficient;
+            do {
+                coefficient = new BigInteger(Q.bitLength(), random);
+            } while (coefficient.compareTo(Q) >= 0);
+            coefficients[i] = coefficient;
+        }
+        for (int i = 1; i < needed; i++) {
+            commitments[i - 1] = Powers.OF_G.pow(coefficients[i]);
+        }
+        final SecretShare[] shares = new SecretShare[available];
+        for (int x = 1; x <= available; x++) {
+            shares[x - 1] = new SecretShare(x, Shamir.evaluate(coefficients, x, Q));
+        }
+        return new VerifiableShares(shares, commitments);
+    }
+
+    /**
+     * Checks that all <b>shares</b> are points of one polynomial with the committed coefficients,
+     * whatever its free term.
+     *
+     * <p>With the first share as (x<sub>0</sub>, y<sub>0</sub>), random odd 64-bit weights
+     * r<sub>i</sub> for the others and R = sum r<sub>i</sub>, checks the single equation
+     * g<sup>sum r<sub>i</sub>y<sub>i</sub> - Ry<sub>0</sub></sup> =
+     * prod<sub>j</sub> C<sub>j</sub><sup>sum r<sub>i</sub>x<sub>i</sub><sup>j</sup> - Rx<sub>0</sub><sup>j</sup></sup>,
+     * which holds for a bad share with a chance of 2<sup>-63</sup>. The weights are
+     * drawn for every call, so shares can't be made to cancel each other out.
+     * A single share has nothing to be checked against and is valid.
+     *
+     * <p>Timed by {@link AuthMetrics} with the outcome {@code valid} or {@code invalid}.
+     *
+     * @param shares shares to check.
+     * @param commitments commitments of the split, see {@link VerifiableShares#getCommitments()}.
+     * @return {@code true} if every share is valid, {@code false} if any isn't
+     * or there are no shares.
+     */
+    public static boolean verify(SecretShare[] shares, BigInteger[] commitments) {
+        final Timer.Sample sample = AuthMetrics.start();
+        String outcome = AuthMetrics.ERROR;
+        try {
+            boolean valid = check(shares, commitments);
+            outcome = valid ? "valid" : "invalid";
+            return valid;
+        } finally {
+            if (sample != null)
+                AuthMetrics.stop(sample, AuthMetrics.SHARE_VERIFY, outcome,
+                        "shares", AuthMetrics.shares(shares.length),
+                        "needed", AuthMetrics.shares(commitments.length + 1));
+        }
+    }
+
+    private static boolean check(SecretShare[] shares, BigInteger[] commitments) {
+        if (shares.length == 0)
+            return false;
+        for (SecretShare share : shares) {
+            if (share.getNumber() < 1 || share.getShare().signum() < 0 || share.getShare().compareTo(Q) >= 0)
+                return false;
+        }
+        if (shares.length == 1)
+            return true;
+
+        final BigInteger[] weights = new BigInteger[shares.length];
+        BigInteger weightSum = BigInteger.ZERO;
+        BigInteger exponent = BigInteger.ZERO;
+        for (int i = 1; i < shares.length; i++) {
+            weights[i] = new BigInteger(64, WEIGHTS).setBit(0);
+            weightSum = weightSum.add(weights[i]);
+            exponent = exponent.add(weights[i].multiply(shares[i].getShare()));
+        }
+        weights[0] = weightSum.negate();
+        exponent = exponent.add(weights[0].multiply(shares[0].getShare()));
+        BigInteger left = Powers.OF_G.pow(exponent.mod(Q));
+
+        /*
+         * The exponent of C_j is sum r_i x_i^j, with r_0 = -R, kept short by not reducing it
+         * modulo q. A negative one is moved to the left side instead of inverting C_j.
+         */
+        BigInteger right = BigInteger.ONE;
+        final BigInteger[] powersOfX = weights.clone();
+        for (BigInteger commitment : commitments) {
+            BigInteger power = BigInteger.ZERO;
+            for (int i = 0; i < shares.length; i++) {
+                powersOfX[i] = powersOfX[i].multiply(BigInteger.valueOf(shares[i].getNumber()));
+                power = power.add(powersOfX[i]);
+            }
+            if (power.signum() >= 0)
+                right = right.multiply(commitment.modPow(power, P)).mod(P);
+            else
+                left = left.multiply(commitment.modPow(power.negate(), P)).mod(P);
+        }
+        return left.equals(right);
+    }
+
+    /**
+     * @param commitments commitments to store.
+     * @return the commitments as fixed-width big-endian fields of {@link FeldmanScheme#WIDTH} bytes.
+     * @throws IllegalArgumentException if a commitment isn't in 1..p-1.
+     */
+    public static byte[] encodeCommitments(BigInteger[] commitments) {
+        final byte[] bytes = new byte[commitments.length * WIDTH];
+        for (int j = 0; j < commitments.length; j++) {
+            if (commitments[j].signum() <= 0 || commitments[j].compareTo(P) >= 0)
+                throw new IllegalArgumentException("Commitment " + j + " is out of range");
+            byte[] value = commitments[j].toByteArray();
+            int length = Math.min(value.length, WIDTH);
+            System.arraycopy(value, value.length - length, bytes, (j + 1) * WIDTH - length, length);
+        }
+        return bytes;
+    }
+
+    /**
+     * @param bytes commitments written by {@link FeldmanScheme#encodeCommitments(BigInteger[])}.
+     * @return the commitments.
+     * @throws IllegalArgumentException if <b>bytes</b> are not whole fields.
+     */
+    public static BigInteger[] decodeCommitments(byte[] bytes) {
+        if (bytes.length == 0 || bytes.length % WIDTH != 0)
+            throw new IllegalArgumentException("Commitments must be " + WIDTH + "-byte fields");
+        final BigInteger[] commitments = new BigInteger[bytes.length / WIDTH];
+        for (int j = 0; j < commitments.length; j++) {
+            byte[] value = new byte[WIDTH];
+            System.arraycopy(bytes, j * WIDTH, value, 0, WIDTH);
+            commitments[j] = new BigInteger(1, value);
+        }
+        return commitments;
+    }
+}
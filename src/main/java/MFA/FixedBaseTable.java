@@ -0,0 +1,122 @@
+package MFA;
+
+import java.math.BigInteger;
+
+/**
+ * Powers of a fixed base modulo a fixed modulus, from a precomputed table.
+ *
+ * <p>An exponent is cut into windows of <b>window</b> bits, and for every window <i>i</i>
+ * and digit <i>d</i> the table holds base<sup>d * 2<sup>window * i</sup></sup>. A power is
+ * then the product of one entry per non-zero window: no squarings, and about
+ * {@code exponentBits / window} multiplications instead of {@code exponentBits} squarings
+ * and half as many multiplications of {@link BigInteger#modPow}. Products are reduced
+ * with Barrett's method, so no division is done either.
+ *
+ * <p>The table takes {@code exponentBits / window * (2^window - 1)} numbers of the size of
+ * the modulus, e.g. 5.5 MB for 2048-bit numbers and a window of 6, and is built once in the
+ * constructor. Instances are immutable and can be shared between threads.
+ *
+ * @author Igor Sytnik
+ * @see FeldmanScheme
+ */
+public final class FixedBaseTable {
+
+    private final BigInteger base;
+    private final BigInteger modulus;
+    private final int exponentBits;
+    private final int window;
+    /**
+     * {@code powers[i][d - 1]} = base<sup>d * 2<sup>window * i</sup></sup>.
+     */
+    private final BigInteger[][] powers;
+    /**
+     * floor(2<sup>2n</sup> / modulus) for Barrett reduction, n being the bit length of the modulus.
+     */
+    private final BigInteger mu;
+    private final int modulusBits;
+
+    /**
+     * @param base a base to raise to powers.
+     * @param modulus a modulus greater than 1.
+     * @param exponentBits a bit length of the longest exponent the table covers.
+     * @param window a number of exponent bits per table row, 1 to 16.
+     */
+    public FixedBaseTable(BigInteger base, BigInteger modulus, int exponentBits, int window) {
+        if (window < 1 || window > 16)
+            throw new IllegalArgumentException("Window must be 1 to 16 bits");
+        if (exponentBits < 1)
+            throw new IllegalArgumentException("Exponent bits must be positive");
+        if (modulus.compareTo(BigInteger.ONE) <= 0)
+            throw new IllegalArgumentException("Modulus must be greater than 1");
+        this.modulus = modulus;
+        this.base = base.mod(modulus);
+        this.exponentBits = exponentBits;
+        this.window = window;
+        this.modulusBits = modulus.bitLength();
+        this.mu = BigInteger.ONE.shiftLeft(2 * modulusBits).divide(modulus);
+
+        final int rows = (exponentBits + window - 1) / window;
+        final int digits = (1 << window) - 1;
+        this.powers = new BigInteger[rows][digits];
+        BigInteger rowBase = this.base;
+        for (int i = 0; i < rows; i++) {
+            powers[i][0] = rowBase;
+            for (int d = 1; d < digits; d++) {
+                powers[i][d] = reduce(powers[i][d - 1].multiply(rowBase));
+            }
+            rowBase = reduce(powers[i][digits - 1].multiply(rowBase));
+        }
+    }
+
+    public BigInteger getBase() {
+        return base;
+    }
+
+    public BigInteger getModulus() {
+        return modulus;
+    }
+
+    public int getExponentBits() {
+        return exponentBits;
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * @param exponent a non-negative exponent.
+     * @return base<sup>exponent</sup> mod modulus. Exponents longer than
+     * {@link FixedBaseTable#getExponentBits()} are passed to {@link BigInteger#modPow}.
+     */
+    public BigInteger pow(BigInteger exponent) {
+        if (exponent.signum() < 0 || exponent.bitLength() > exponentBits)
+            return base.modPow(exponent, modulus);
+        BigInteger result = null;
+        final int bits = exponent.bitLength();
+        for (int i = 0, offset = 0; offset < bits; i++, offset += window) {
+            int digit = 0;
+            for (int bit = Math.min(window, bits - offset) - 1; bit >= 0; bit--) {
+                digit = digit << 1 | (exponent.testBit(offset + bit) ? 1 : 0);
+            }
+            if (digit != 0)
+                result = result == null ? powers[i][digit - 1] : reduce(result.multiply(powers[i][digit - 1]));
+        }
+        return result == null ? BigInteger.ONE.mod(modulus) : result;
+    }
+
+    /**
+     * Barrett reduction of a product of two residues.
+     *
+     * @param x a number in 0..modulus<sup>2</sup>-1.
+     * @return <b>x</b> mod modulus.
+     */
+    private BigInteger reduce(BigInteger x) {
+        final BigInteger quotient = x.shiftRight(modulusBits - 1).multiply(mu).shiftRight(modulusBits + 1);
+        BigInteger remainder = x.subtract(quotient.multiply(modulus));
+        while (remainder.compareTo(modulus) >= 0) {
+            remainder = remainder.subtract(modulus);
+        }
+        return remainder;
+    }
+}
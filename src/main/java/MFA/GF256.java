@@ -0,0 +1,142 @@
+package MFA;
+
+import java.util.Random;
+
+/**
+ * Shamir secret share scheme over GF(2<sup>8</sup>), applied to every byte
+ * of the secret independently.
+ *
+ * <p>Works on plain {@code byte[]} with log/exp tables, so there is no prime
+ * and no arbitrary-precision arithmetic. Every share is as long as the secret.
+ * Share numbers must be in the range 1..255.
+ *
+ * @author Igor Sytnik
+ */
+public class GF256 {
+
+    /**
+     * The largest number of shares a secret can be split into.
+     */
+    public static final int MAX_SHARES = 255;
+
+    /**
+     * {@code EXP[i]} is 3<sup>i</sup>. Doubled in size so that a sum
+     * of two logarithms can be looked up without a reduction.
+     */
+    private static final int[] EXP = new int[510];
+    /**
+     * {@code LOG[EXP[i]]} is {@code i}. {@code LOG[0]} is unused.
+     */
+    private static final int[] LOG = new int[256];
+
+    static {
+        int value = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = value;
+            EXP[i + 255] = value;
+            LOG[value] = i;
+            /* value *= 3 in GF(2^8) with the AES polynomial x^8 + x^4 + x^3 + x + 1 */
+            value ^= (value << 1) ^ ((value & 0x80) != 0 ? 0x11B : 0);
+        }
+    }
+
+    private GF256() {
+    }
+
+    /**
+     * Splits <b>secret</b> into <b>available</b> shares,
+     * <b>needed</b> number of which are needed for the <b>secret</b> reconstruction.
+     *
+     * @param secret bytes to split.
+     * @param needed a number of shares needed for restoring the <b>secret</b>.
+     * @param available a number of resulting shares, at most {@link GF256#MAX_SHARES}.
+     * @param random an instance of a random number generator.
+     * @return shares, {@code shares[x - 1]} being the share number <i>x</i>.
+     * @throws IllegalArgumentException if <b>needed</b> or <b>available</b> are out of range.
+     */
+    public static byte[][] split(byte[] secret, int needed, int available, Random random) {
+        if (needed < 1 || needed > available || available > MAX_SHARES)
+            throw new IllegalArgumentException(
+                    String.format("Can't split into %d of %d shares", needed, available));
+
+        final int degree = needed - 1;
+        final byte[] coeff = new byte[degree * secret.length];
+        /* All coefficients are uniform, zero included, so needed - 1 shares tell nothing of the secret */
+        random.nextBytes(coeff);
+
+        final byte[][] shares = new byte[available][secret.length];
+        for (int x = 1; x <= available; x++) {
+            final byte[] share = shares[x - 1];
+            final int logX = LOG[x];
+            for (int b = 0; b < secret.length; b++) {
+                /* Horner's rule, coefficients of the byte b are coeff[b * degree ..] */
+                int accum = 0;
+                for (int exp = degree - 1; exp >= 0; exp--) {
+                    accum = mulLog(accum, logX) ^ (coeff[b * degree + exp] & 0xFF);
+                }
+                share[b] = (byte) (mulLog(accum, logX) ^ (secret[b] & 0xFF));
+            }
+        }
+        return shares;
+    }
+
+    /**
+     * Combines <b>shares</b> into a secret.
+     *
+     * @param numbers share numbers, in the order of <b>shares</b>.
+     * @param shares shares of the same length that the secret was split into.
+     * @return a secret from combining all the <b>shares</b>.
+     * @throws IllegalArgumentException if a share number is out of range or is repeated,
+     * or if shares differ in length.
+     */
+    public static byte[] combine(int[] numbers, byte[][] shares) {
+        final int length = shares.length == 0 ? 0 : shares[0].length;
+        /* Logarithms of the Lagrange basis at zero, the same for every byte */
+        final int[] logCoeff = new int[numbers.length];
+        for (int i = 0; i < numbers.length; i++) {
+            if (numbers[i] < 1 || numbers[i] > MAX_SHARES)
+                throw new IllegalArgumentException("Share number out of range: " + numbers[i]);
+            if (shares[i].length != length)
+                throw new IllegalArgumentException("Shares differ in length");
+            int log = 0;
+            for (int j = 0; j < numbers.length; j++) {
+                if (i == j)
+                    continue;
+                int difference = numbers[i] ^ numbers[j];
+                if (difference == 0)
+                    throw new IllegalArgumentException("Share number is repeated: " + numbers[i]);
+                /* log += log(x_j) - log(x_i - x_j) */
+                log += LOG[numbers[j]] - LOG[difference] + 255;
+            }
+            logCoeff[i] = log % 255;
+        }
+
+        final byte[] secret = new byte[length];
+        for (int i = 0; i < shares.length; i++) {
+            final byte[] share = shares[i];
+            final int log = logCoeff[i];
+            for (int b = 0; b < length; b++) {
+                secret[b] ^= mulLog(share[b] & 0xFF, log);
+            }
+        }
+        return secret;
+    }
+
+    /**
+     * Multiplies two field elements with the log/exp tables.
+     *
+     * @param a a byte value, 0..255.
+     * @param b a byte value, 0..255.
+     * @return <b>a</b> * <b>b</b> in GF(2<sup>8</sup>).
+     */
+    static int multiply(int a, int b) {
+        return b == 0 ? 0 : mulLog(a, LOG[b]);
+    }
+
+    /**
+     * Multiplies <b>a</b> by the field element with logarithm <b>logB</b>.
+     */
+    private static int mulLog(int a, int logB) {
+        return a == 0 ? 0 : EXP[LOG[a] + logB];
+    }
+}
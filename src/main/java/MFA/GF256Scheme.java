@@ -0,0 +1,68 @@
+package MFA;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * {@link GF256} secret share scheme.
+ *
+ * <p>The secret and the shares are kept as unsigned big-endian magnitudes in
+ * {@link SecretShare}, so their string form is the same as for {@link ShamirScheme}.
+ * {@link BigInteger} is only used to convert at the edges; the arithmetic
+ * itself is done on {@code byte[]}.
+ *
+ * @author Igor Sytnik
+ */
+public class GF256Scheme implements SharingScheme {
+
+    public static final GF256Scheme INSTANCE = new GF256Scheme();
+
+    @Override
+    public SchemeType getType() {
+        return SchemeType.GF256;
+    }
+
+    /**
+     * @throws IllegalArgumentException if <b>secret</b> is negative.
+     * @see GF256#split(byte[], int, int, Random)
+     */
+    @Override
+    public SecretShare[] split(BigInteger secret, int needed, int available, Random random) {
+        if (secret.signum() < 0)
+            throw new IllegalArgumentException("Secret must not be negative");
+        final byte[][] shares = GF256.split(Magnitudes.magnitude(secret), needed, available, random);
+        final SecretShare[] result = new SecretShare[available];
+        for (int x = 1; x <= available; x++) {
+            result[x - 1] = new SecretShare(x, new BigInteger(1, shares[x - 1]));
+        }
+        return result;
+    }
+
+    /**
+     * Leading zero bytes of a share are lost in its numeric form, so
+     * every share is padded back to the length of the longest one.
+     * Zero bytes that are leading in every share combine into zero,
+     * which doesn't change the secret's value.
+     *
+     * @see GF256#combine(int[], byte[][])
+     */
+    @Override
+    public BigInteger combine(SecretShare[] shares) {
+        final int[] numbers = new int[shares.length];
+        final byte[][] values = new byte[shares.length][];
+        int length = 0;
+        for (int i = 0; i < shares.length; i++) {
+            numbers[i] = shares[i].getNumber();
+            values[i] = Magnitudes.magnitude(shares[i].getShare());
+            length = Math.max(length, values[i].length);
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].length < length) {
+                byte[] padded = new byte[length];
+                System.arraycopy(values[i], 0, padded, length - values[i].length, values[i].length);
+                values[i] = padded;
+            }
+        }
+        return new BigInteger(1, GF256.combine(numbers, values));
+    }
+}
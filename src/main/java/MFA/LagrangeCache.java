@@ -0,0 +1,215 @@
+package MFA;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of Lagrange basis coefficients, keyed by the prime
+ * and the sorted set of share numbers.
+ *
+ * <p>Users usually log in with the same shares, so after the first login
+ * {@link LagrangeCache#combine(SecretShare[], BigInteger)} costs only
+ * a multiply-add per share. Once {@link LagrangeCache#getMaximumSize()} is reached,
+ * entries are evicted in the CLOCK order: the oldest entry that wasn't read since it was
+ * last passed over goes first, which approximates least recently used.
+ *
+ * <p>Hits take no lock; a miss takes a short one to add its entry after computing the
+ * coefficients. Instances are safe to share between threads.
+ *
+ * @author Igor Sytnik
+ * @see Shamir#lagrangeCoefficients(int[], BigInteger)
+ */
+public class LagrangeCache {
+
+    private final int maximumSize;
+    private final ConcurrentHashMap<Key, CachedEntry> entries = new ConcurrentHashMap<>();
+    /**
+     * Keys in the order they were added, for eviction. Every key of {@link LagrangeCache#entries}
+     * is in it, since both are only added to and cleared under {@link LagrangeCache#evictionLock}.
+     * May hold keys that are gone from the entries; those are dropped when eviction reaches them.
+     */
+    private final ConcurrentLinkedQueue<Key> order = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Object evictionLock = new Object();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maximumSize a maximum number of share number sets kept in the cache.
+     */
+    public LagrangeCache(int maximumSize) {
+        if (maximumSize < 1)
+            throw new IllegalArgumentException("Maximum size must be positive");
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * Combines <b>shares</b> into a secret, computing the coefficients
+     * only if this set of share numbers wasn't seen with <b>prime</b> before.
+     *
+     * @param shares shares that the secret was split into.
+     * @param prime a prime number that was used to split the secret.
+     * @return a secret from combining all the <b>shares</b>.
+     * @throws IllegalArgumentException if a share number is not positive or is repeated.
+     * @see Shamir#combine(SecretShare[], BigInteger)
+     */
+    public BigInteger combine(SecretShare[] shares, BigInteger prime) {
+        final SecretShare[] sorted = shares.clone();
+        Arrays.sort(sorted, Comparator.comparingInt(SecretShare::getNumber));
+        final int[] numbers = new int[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            numbers[i] = sorted[i].getNumber();
+            if (numbers[i] < 1)
+                throw new IllegalArgumentException("Share number must be positive: " + numbers[i]);
+            if (i > 0 && numbers[i] == numbers[i - 1])
+                throw new IllegalArgumentException("Share number is repeated: " + numbers[i]);
+        }
+
+        return Shamir.combine(sorted, coefficients(new Key(prime, numbers)), prime);
+    }
+
+    /**
+     * Returns cached coefficients of <b>key</b>, or computes and caches them. Concurrent misses
+     * of the same key may both compute them; the first one to finish is cached.
+     */
+    private BigInteger[] coefficients(Key key) {
+        final CachedEntry cached = entries.get(key);
+        if (cached != null) {
+            cached.referenced = true;
+            hits.increment();
+            return cached.coefficients;
+        }
+        misses.increment();
+        final BigInteger[] coefficients = Shamir.lagrangeCoefficients(key.numbers, key.prime);
+        final boolean added;
+        synchronized (evictionLock) {
+            added = entries.putIfAbsent(key, new CachedEntry(coefficients)) == null;
+            if (added) {
+                order.offer(key);
+                queued.incrementAndGet();
+            }
+        }
+        if (added)
+            evictIfFull();
+        return coefficients;
+    }
+
+    /**
+     * Evicts entries in the CLOCK order until there are at most {@link LagrangeCache#maximumSize},
+     * and drops keys of entries that are gone from {@link LagrangeCache#order}.
+     */
+    private void evictIfFull() {
+        if (entries.size() <= maximumSize && queued.get() <= 2 * maximumSize)
+            return;
+        synchronized (evictionLock) {
+            while (entries.size() > maximumSize || queued.get() > 2 * maximumSize) {
+                Key key = order.poll();
+                if (key == null)
+                    return;
+                queued.decrementAndGet();
+                CachedEntry entry = entries.get(key);
+                if (entry == null)
+                    continue;
+                if (entry.referenced) {
+                    entry.referenced = false;
+                    order.offer(key);
+                    queued.incrementAndGet();
+                } else if (entries.remove(key, entry)) {
+                    evictions.increment();
+                }
+            }
+        }
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * @return a number of share number sets currently in the cache.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return {@link LagrangeCache#getHits()} divided by the number of all lookups,
+     * or {@code 0} if there were no lookups yet.
+     */
+    public double getHitRate() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Drops all cached coefficients. Statistics are kept.
+     */
+    public void clear() {
+        synchronized (evictionLock) {
+            entries.clear();
+            order.clear();
+            queued.set(0);
+        }
+    }
+
+    private static final class CachedEntry {
+        final BigInteger[] coefficients;
+        /**
+         * Set by hits, cleared by eviction. A lost update only gives an entry one more or one less
+         * pass, so it's a plain field.
+         */
+        boolean referenced;
+
+        CachedEntry(BigInteger[] coefficients) {
+            this.coefficients = coefficients;
+        }
+    }
+
+    /**
+     * A prime and a sorted set of share numbers.
+     */
+    private static final class Key {
+        final BigInteger prime;
+        final int[] numbers;
+        final int hash;
+
+        Key(BigInteger prime, int[] numbers) {
+            this.prime = prime;
+            this.numbers = numbers;
+            this.hash = 31 * prime.hashCode() + Arrays.hashCode(numbers);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return hash == key.hash && Arrays.equals(numbers, key.numbers) && prime.equals(key.prime);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package MFA;
+
+import java.math.BigInteger;
+
+/**
+ * Conversions of non-negative {@link BigInteger}s to the unsigned byte arrays
+ * the byte-oriented schemes work on.
+ *
+ * @author Igor Sytnik
+ */
+final class Magnitudes {
+
+    private Magnitudes() {
+    }
+
+    /**
+     * @return big-endian bytes of non-negative <b>value</b> without the sign byte.
+     */
+    static byte[] magnitude(BigInteger value) {
+        final byte[] bytes = value.toByteArray();
+        if (bytes.length > 1 && bytes[0] == 0) {
+            byte[] trimmed = new byte[bytes.length - 1];
+            System.arraycopy(bytes, 1, trimmed, 0, trimmed.length);
+            return trimmed;
+        }
+        return bytes;
+    }
+}
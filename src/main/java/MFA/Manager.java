@@ -1,5 +1,8 @@
 package MFA;
 
+import io.micrometer.core.instrument.Timer;
+import metrics.AuthMetrics;
+
 import java.math.BigInteger;
 import java.security.SecureRandom;
 import java.util.Random;
@@ -8,7 +11,10 @@ import java.util.Random;
  * Contains method for working with secret share schemes.<br>
  * Point of entry for working with secret share schemes.
  *
- * <p>Only one secret share scheme is used here: {@link Shamir}.
+ * <p>Splitting and combining is delegated to a {@link SharingScheme}
+ * chosen by {@link SchemeType}: {@link Shamir} over a prime by default,
+ * {@link GF256}, {@link Shamir} over a fixed {@link MersenneField},
+ * or {@link FeldmanScheme} with verifiable shares.
  *
  * @author Igor Sytnik
  */
@@ -45,13 +51,125 @@ public class Manager {
      * An array of shares that's generated by splitting the {@link Manager#secret}.
      */
     private SecretShare[] shares;
+    /**
+     * Commitments to the split of {@link SchemeType#FELDMAN_2048}, <i>null</i> for other schemes.
+     */
+    private BigInteger[] commitments;
+    /**
+     * An optional cache of Lagrange coefficients used by {@link Manager#getAccess(SecretShare...)}.
+     */
+    private LagrangeCache lagrangeCache;
+    /**
+     * How {@link Manager#getAccess(SecretShare...)} combines shares
+     * when there's no {@link Manager#lagrangeCache}.
+     */
+    private CombineMode combineMode = CombineMode.STANDARD;
+    /**
+     * A type of the secret share scheme the shares belong to.
+     */
+    private SchemeType schemeType = SchemeType.SHAMIR_PRIME;
+    /**
+     * When and where {@link SchemeType#SHAMIR_PRIME} shares are evaluated in parallel,
+     * <i>null</i> for never.
+     */
+    private ParallelSplit parallelSplit;
 
     public Manager(BigInteger secret, int needed, int available) {
+        this(secret, needed, available, null);
+    }
+
+    /**
+     * Splits <b>secret</b> using a prime taken from <b>primeProvider</b>.
+     *
+     * @param secret a secret that is going to be split into shares.
+     * @param needed a number of shares needed for restoring the secret.
+     * @param available a number of resulting shares.
+     * @param primeProvider a source of the prime number. If <i>null</i>,
+     *                      a {@link RandomPrimeProvider} is used.
+     */
+    public Manager(BigInteger secret, int needed, int available, PrimeProvider primeProvider) {
+        this(secret, needed, available, SchemeType.SHAMIR_PRIME, primeProvider);
+    }
+
+    /**
+     * Splits <b>secret</b> with the scheme of type <b>schemeType</b>.
+     *
+     * @param secret a secret that is going to be split into shares.
+     * @param needed a number of shares needed for restoring the secret.
+     * @param available a number of resulting shares.
+     * @param schemeType a type of the secret share scheme.
+     * @param primeProvider a source of the prime number for schemes that need one.
+     *                      If <i>null</i>, a {@link RandomPrimeProvider} is used.
+     */
+    public Manager(BigInteger secret, int needed, int available, SchemeType schemeType,
+                   PrimeProvider primeProvider) {
+        this(secret, needed, available, schemeType, primeProvider, null);
+    }
+
+    /**
+     * Splits <b>secret</b> with the scheme of type <b>schemeType</b>,
+     * evaluating big splits in parallel.
+     *
+     * @param secret a secret that is going to be split into shares.
+     * @param needed a number of shares needed for restoring the secret.
+     * @param available a number of resulting shares.
+     * @param schemeType a type of the secret share scheme.
+     * @param primeProvider a source of the prime number for schemes that need one.
+     *                      If <i>null</i>, a {@link RandomPrimeProvider} is used.
+     * @param parallelSplit when and where to split in parallel, by shares for
+     *                      {@link SchemeType#SHAMIR_PRIME} and by blocks for Mersenne
+     *                      schemes. If <i>null</i>, shares are evaluated sequentially.
+     */
+    public Manager(BigInteger secret, int needed, int available, SchemeType schemeType,
+                   PrimeProvider primeProvider, ParallelSplit parallelSplit) {
         this.CERTAINTY = 256;
         this.random = new SecureRandom();
         this.secret = secret;
-        this.prime = new BigInteger(this.secret.bitLength() + 1, CERTAINTY, random);
-        this.shares = Shamir.split(this.secret, needed, available, prime, random);
+        this.schemeType = schemeType;
+        this.parallelSplit = parallelSplit;
+        final Timer.Sample sample = AuthMetrics.start();
+        String outcome = AuthMetrics.ERROR;
+        try {
+            if (schemeType == SchemeType.SHAMIR_PRIME) {
+                if (primeProvider == null)
+                    primeProvider = new RandomPrimeProvider(CERTAINTY, random);
+                this.prime = primeFor(primeProvider);
+            }
+            if (schemeType == SchemeType.FELDMAN_2048) {
+                FeldmanScheme.VerifiableShares split = FeldmanScheme.INSTANCE
+                        .splitVerifiable(this.secret, needed, available, random);
+                this.shares = split.getShares();
+                this.commitments = split.getCommitments().length == 0 ? null : split.getCommitments();
+            } else {
+                this.shares = getScheme().split(this.secret, needed, available, random);
+            }
+            outcome = AuthMetrics.SUCCESS;
+        } finally {
+            if (sample != null)
+                AuthMetrics.stop(sample, AuthMetrics.MANAGER_CREATE, outcome,
+                        "scheme", schemeType.name(),
+                        "needed", AuthMetrics.shares(needed),
+                        "available", AuthMetrics.shares(available),
+                        "bits", AuthMetrics.bits(secret.bitLength() + 1));
+        }
+    }
+
+    /**
+     * Takes a prime for {@link Manager#secret} from <b>primeProvider</b>, timed separately.
+     */
+    private BigInteger primeFor(PrimeProvider primeProvider) {
+        final Timer.Sample sample = AuthMetrics.start();
+        String outcome = AuthMetrics.ERROR;
+        try {
+            BigInteger prime = primeProvider.primeFor(this.secret);
+            outcome = AuthMetrics.SUCCESS;
+            return prime;
+        } finally {
+            if (sample != null)
+                AuthMetrics.stop(sample, AuthMetrics.MANAGER_PRIME, outcome,
+                        "provider", primeProvider.getClass().getSimpleName(),
+                        "bits", AuthMetrics.bits(secret.bitLength() + 1));
+        }
     }
 
     public Manager(BigInteger prime, SecretShare[] shares) {
@@ -67,6 +185,51 @@ public class Manager {
         this.prime = prime;
     }
 
+    /**
+     * Creates a manager for combining shares that reuses
+     * Lagrange coefficients from <b>lagrangeCache</b>.
+     *
+     * @param prime a prime number that was used to split the secret.
+     * @param lagrangeCache a cache of Lagrange coefficients. If <i>null</i>,
+     *                      the coefficients are computed on every combination.
+     */
+    public Manager(BigInteger prime, LagrangeCache lagrangeCache) {
+        this(prime);
+        this.lagrangeCache = lagrangeCache;
+    }
+
+    /**
+     * Creates a manager for combining shares of the scheme of type <b>schemeType</b>.
+     *
+     * @param schemeType a type of the secret share scheme the shares belong to.
+     * @param prime a prime number that was used to split the secret,
+     *              <i>null</i> for schemes that don't use one.
+     * @param lagrangeCache a cache of Lagrange coefficients for {@link SchemeType#SHAMIR_PRIME}.
+     *                      If <i>null</i>, the coefficients are computed on every combination.
+     */
+    public Manager(SchemeType schemeType, BigInteger prime, LagrangeCache lagrangeCache) {
+        this(prime, lagrangeCache);
+        this.schemeType = schemeType;
+    }
+
+    /**
+     * Creates a manager for combining shares of the scheme of type <b>schemeType</b>,
+     * combining big Mersenne secrets in parallel.
+     *
+     * @param schemeType a type of the secret share scheme the shares belong to.
+     * @param prime a prime number that was used to split the secret,
+     *              <i>null</i> for schemes that don't use one.
+     * @param lagrangeCache a cache of Lagrange coefficients for {@link SchemeType#SHAMIR_PRIME}.
+     *                      If <i>null</i>, the coefficients are computed on every combination.
+     * @param parallelSplit when and where to combine blocks of Mersenne schemes in parallel.
+     *                      If <i>null</i>, blocks are combined sequentially.
+     */
+    public Manager(SchemeType schemeType, BigInteger prime, LagrangeCache lagrangeCache,
+                   ParallelSplit parallelSplit) {
+        this(schemeType, prime, lagrangeCache);
+        this.parallelSplit = parallelSplit;
+    }
+
     public BigInteger getSecret() {
         return secret;
     }
@@ -80,15 +243,76 @@ public class Manager {
     }
 
     /**
-     * Combines all <b>shares</b> together using
-     * {@link Shamir#combine(SecretShare[], BigInteger)}
-     * + {@link Manager#prime}.
+     * @return commitments the shares can be checked against with
+     * {@link FeldmanScheme#verify(SecretShare[], BigInteger[])},
+     * or <i>null</i> if the scheme is not {@link SchemeType#FELDMAN_2048} or one share is needed.
+     */
+    public BigInteger[] getCommitments() {
+        return commitments;
+    }
+
+    /**
+     * Returns the number of bytes every share value fits into,
+     * for writing shares with {@link ShareCodec#encode(SecretShare, int)}.
+     *
+     * @return the byte length of {@link Manager#prime} for prime-based schemes,
+     * {@link FeldmanScheme#WIDTH} for {@link SchemeType#FELDMAN_2048},
+     * otherwise the byte length of the longest share.
+     */
+    public int getShareWidth() {
+        if (prime != null)
+            return ShareCodec.width(prime);
+        if (schemeType == SchemeType.FELDMAN_2048)
+            return FeldmanScheme.WIDTH;
+        int width = 1;
+        for (SecretShare share : shares) {
+            width = Math.max(width, (share.getShare().bitLength() + 7) / 8);
+        }
+        return width;
+    }
+
+    public SchemeType getSchemeType() {
+        return schemeType;
+    }
+
+    /**
+     * @return a secret share scheme the shares are split and combined with.
+     */
+    public SharingScheme getScheme() {
+        switch (schemeType) {
+            case GF256:
+                return GF256Scheme.INSTANCE;
+            case MERSENNE_127:
+                return parallelSplit == null ? MersenneScheme.M127 : new MersenneScheme(schemeType, parallelSplit);
+            case MERSENNE_521:
+                return parallelSplit == null ? MersenneScheme.M521 : new MersenneScheme(schemeType, parallelSplit);
+            case FELDMAN_2048:
+                return FeldmanScheme.INSTANCE;
+            default:
+                return new ShamirScheme(prime, lagrangeCache, combineMode, parallelSplit);
+        }
+    }
+
+    public CombineMode getCombineMode() {
+        return combineMode;
+    }
+
+    public void setCombineMode(CombineMode combineMode) {
+        this.combineMode = combineMode;
+    }
+
+    /**
+     * Combines all <b>shares</b> together using {@link Manager#getScheme()}.
+     *
+     * <p>For {@link SchemeType#SHAMIR_PRIME}, if the manager has a {@link LagrangeCache},
+     * the coefficients are taken from it. Otherwise shares are combined according
+     * to {@link Manager#combineMode}.
      *
      * @param shares {@link SecretShare} objects to be combined
  *                  into a secret.
      * @return secret, received by combining <b>shares</b>.
      */
     public BigInteger getAccess(SecretShare... shares) {
-        return Shamir.combine(shares, prime);
+        return getScheme().combine(shares);
     }
 }
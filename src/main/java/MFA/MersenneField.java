@@ -0,0 +1,293 @@
+package MFA;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Arithmetic modulo a Mersenne prime p = 2<sup>k</sup> - 1 on {@code long[]} limbs.
+ *
+ * <p>Elements are little-endian arrays of unsigned 64-bit limbs, always reduced to 0..p-1.
+ * Since 2<sup>k</sup> = 1 (mod p), a product is reduced by adding its bits above the k-th
+ * to its lower k bits, so no division is ever done. Operations write into an output array,
+ * which may be one of the operands.
+ *
+ * @author Igor Sytnik
+ * @see MersenneScheme
+ */
+public final class MersenneField {
+
+    /**
+     * The field modulo 2<sup>127</sup> - 1.
+     */
+    public static final MersenneField M127 = new MersenneField(127);
+    /**
+     * The field modulo 2<sup>521</sup> - 1.
+     */
+    public static final MersenneField M521 = new MersenneField(521);
+
+    private final int exponent;
+    private final int limbs;
+    /**
+     * A mask of the bits of the top limb that are below 2<sup>k</sup>.
+     */
+    private final long topMask;
+    private final int topBits;
+
+    private MersenneField(int exponent) {
+        if (exponent % 64 == 0)
+            throw new IllegalArgumentException("Exponent must not be a multiple of 64");
+        this.exponent = exponent;
+        this.limbs = (exponent + 63) / 64;
+        this.topBits = exponent - 64 * (limbs - 1);
+        this.topMask = (1L << topBits) - 1;
+    }
+
+    /**
+     * @return k, the exponent of the prime.
+     */
+    public int getExponent() {
+        return exponent;
+    }
+
+    /**
+     * @return 2<sup>k</sup> - 1.
+     */
+    public BigInteger getPrime() {
+        return BigInteger.ONE.shiftLeft(exponent).subtract(BigInteger.ONE);
+    }
+
+    /**
+     * @return a number of limbs in an element.
+     */
+    public int getLimbs() {
+        return limbs;
+    }
+
+    /**
+     * @return a number of bytes an element fits into.
+     */
+    public int getWidth() {
+        return (exponent + 7) / 8;
+    }
+
+    public long[] zero() {
+        return new long[limbs];
+    }
+
+    /**
+     * @param value a non-negative number.
+     * @return <b>value</b> as an element.
+     */
+    public long[] of(long value) {
+        if (value < 0)
+            throw new IllegalArgumentException("Value must not be negative");
+        final long[] element = new long[limbs];
+        element[0] = value;
+        if (limbs == 1)
+            fold(element);
+        return element;
+    }
+
+    /**
+     * @param value a number in 0..p-1.
+     * @return <b>value</b> as an element.
+     * @throws IllegalArgumentException if <b>value</b> is out of range.
+     */
+    public long[] of(BigInteger value) {
+        if (value.signum() < 0 || value.bitLength() > exponent || value.bitCount() == exponent)
+            throw new IllegalArgumentException("Value is out of the field");
+        final long[] element = new long[limbs];
+        for (int i = 0; i < limbs; i++) {
+            element[i] = value.shiftRight(64 * i).longValue();
+        }
+        return element;
+    }
+
+    public BigInteger toBigInteger(long[] element) {
+        final byte[] bytes = new byte[getWidth()];
+        toBytes(element, bytes, 0, bytes.length);
+        return new BigInteger(1, bytes);
+    }
+
+    /**
+     * Reads an element from big-endian bytes.
+     *
+     * @param bytes an array to read from.
+     * @param offset where the element starts.
+     * @param length a number of bytes, at most {@link MersenneField#getWidth()}.
+     * @return the element, reduced modulo p.
+     */
+    public long[] fromBytes(byte[] bytes, int offset, int length) {
+        if (length > getWidth())
+            throw new IllegalArgumentException("Value is wider than the field");
+        final long[] wide = new long[2 * limbs];
+        for (int i = 0; i < length; i++) {
+            wide[i >>> 3] |= (bytes[offset + length - 1 - i] & 0xFFL) << ((i & 7) << 3);
+        }
+        final long[] element = new long[limbs];
+        reduce(wide, element);
+        return element;
+    }
+
+    /**
+     * Writes the lowest <b>length</b> bytes of <b>element</b> big-endian.
+     *
+     * @param element an element to write.
+     * @param bytes an array to write to.
+     * @param offset where to start.
+     * @param length a number of bytes to write.
+     */
+    public void toBytes(long[] element, byte[] bytes, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            int limb = i >>> 3;
+            bytes[offset + length - 1 - i] = limb < limbs ? (byte) (element[limb] >>> ((i & 7) << 3)) : 0;
+        }
+    }
+
+    /**
+     * @param random a random number generator.
+     * @return a uniformly random element.
+     */
+    public long[] random(Random random) {
+        final long[] element = new long[limbs];
+        do {
+            for (int i = 0; i < limbs; i++) {
+                element[i] = random.nextLong();
+            }
+            element[limbs - 1] &= topMask;
+        } while (isPrime(element));
+        return element;
+    }
+
+    public boolean isZero(long[] a) {
+        for (long limb : a) {
+            if (limb != 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * out = a + b (mod p).
+     */
+    public void add(long[] a, long[] b, long[] out) {
+        long carry = 0;
+        for (int i = 0; i < limbs; i++) {
+            long sum = a[i] + b[i];
+            long carried = sum + carry;
+            carry = (Long.compareUnsigned(sum, a[i]) < 0 ? 1 : 0) + (Long.compareUnsigned(carried, sum) < 0 ? 1 : 0);
+            out[i] = carried;
+        }
+        /* a + b < 2^(k+1) fits, since k is not a multiple of 64 */
+        fold(out);
+    }
+
+    /**
+     * out = a - b (mod p).
+     */
+    public void subtract(long[] a, long[] b, long[] out) {
+        /* p - b is b with its k bits flipped, since p is k ones */
+        final long[] negated = new long[limbs];
+        for (int i = 0; i < limbs; i++) {
+            negated[i] = ~b[i];
+        }
+        negated[limbs - 1] &= topMask;
+        add(a, negated, out);
+    }
+
+    /**
+     * out = a * b (mod p).
+     */
+    public void multiply(long[] a, long[] b, long[] out) {
+        final long[] wide = new long[2 * limbs];
+        for (int i = 0; i < limbs; i++) {
+            long carry = 0;
+            long ai = a[i];
+            for (int j = 0; j < limbs; j++) {
+                long low = ai * b[j];
+                long high = unsignedMultiplyHigh(ai, b[j]);
+                long sum = low + wide[i + j];
+                if (Long.compareUnsigned(sum, low) < 0)
+                    high++;
+                long carried = sum + carry;
+                if (Long.compareUnsigned(carried, sum) < 0)
+                    high++;
+                wide[i + j] = carried;
+                carry = high;
+            }
+            wide[i + limbs] = carry;
+        }
+        reduce(wide, out);
+    }
+
+    /**
+     * @return a<sup>-1</sup> (mod p), by Fermat's little theorem.
+     * @throws ArithmeticException if <b>a</b> is zero.
+     */
+    public long[] inverse(long[] a) {
+        if (isZero(a))
+            throw new ArithmeticException("Zero has no inverse");
+        /* p - 2 = 2^k - 3 is k ones but bit 1 */
+        final long[] result = of(1);
+        for (int bit = exponent - 1; bit >= 0; bit--) {
+            multiply(result, result, result);
+            if (bit != 1)
+                multiply(result, a, result);
+        }
+        return result;
+    }
+
+    /**
+     * Reduces a value below 2<sup>2k</sup>, e.g. a product of two elements, into <b>out</b>:
+     * its lower k bits plus the rest shifted down by k.
+     */
+    private void reduce(long[] wide, long[] out) {
+        final int limbShift = exponent >>> 6;
+        final int bitShift = exponent & 63;
+        long carry = 0;
+        for (int i = 0; i < limbs; i++) {
+            long low = i == limbs - 1 ? wide[i] & topMask : wide[i];
+            int source = i + limbShift;
+            long high = wide[source] >>> bitShift;
+            if (source + 1 < wide.length)
+                high |= wide[source + 1] << (64 - bitShift);
+            if (i == limbs - 1)
+                high &= topMask;
+            long sum = low + high;
+            long carried = sum + carry;
+            carry = (Long.compareUnsigned(sum, low) < 0 ? 1 : 0) + (Long.compareUnsigned(carried, sum) < 0 ? 1 : 0);
+            out[i] = carried;
+        }
+        fold(out);
+    }
+
+    /**
+     * Reduces a value below 2<sup>k+1</sup> in place: moves bit k down to bit 0,
+     * then maps p to zero.
+     */
+    private void fold(long[] value) {
+        long carry = value[limbs - 1] >>> topBits;
+        value[limbs - 1] &= topMask;
+        for (int i = 0; i < limbs && carry != 0; i++) {
+            value[i] += carry;
+            carry = value[i] == 0 ? 1 : 0;
+        }
+        if (isPrime(value)) {
+            for (int i = 0; i < limbs; i++) {
+                value[i] = 0;
+            }
+        }
+    }
+
+    private boolean isPrime(long[] value) {
+        for (int i = 0; i < limbs - 1; i++) {
+            if (value[i] != -1L)
+                return false;
+        }
+        return value[limbs - 1] == topMask;
+    }
+
+    private static long unsignedMultiplyHigh(long a, long b) {
+        return Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+    }
+}
@@ -0,0 +1,259 @@
+package MFA;
+
+import io.micrometer.core.instrument.Timer;
+import metrics.AuthMetrics;
+
+import java.math.BigInteger;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * {@link Shamir} secret share scheme over a fixed {@link MersenneField}.
+ *
+ * <p>There is no per-user prime: every user of a type shares the same field, so nothing
+ * is generated or stored but the scheme type. A secret is cut into big-endian blocks of
+ * {@code (k - 1) / 8} bytes, 15 for 2<sup>127</sup> - 1 and 65 for 2<sup>521</sup> - 1,
+ * and every block is shared with a polynomial of its own. With a {@link ParallelSplit},
+ * blocks of big secrets are split and combined in parallel.
+ *
+ * <p>A share value is a {@code 0x01} byte followed by the block shares as fixed-width
+ * big-endian fields, so all shares of a secret have the same length.
+ *
+ * <p>Splitting and combining are timed by {@link AuthMetrics} when it is enabled.
+ *
+ * @author Igor Sytnik
+ */
+public class MersenneScheme implements SharingScheme {
+
+    public static final MersenneScheme M127 = new MersenneScheme(SchemeType.MERSENNE_127, null);
+    public static final MersenneScheme M521 = new MersenneScheme(SchemeType.MERSENNE_521, null);
+
+    private static final byte MARKER = 1;
+
+    private final SchemeType type;
+    private final MersenneField field;
+    private final ParallelSplit parallelSplit;
+    private final int blockBytes;
+    private final int width;
+
+    /**
+     * @param type {@link SchemeType#MERSENNE_127} or {@link SchemeType#MERSENNE_521}.
+     * @param parallelSplit when and where blocks are processed in parallel, may be <i>null</i>.
+     */
+    public MersenneScheme(SchemeType type, ParallelSplit parallelSplit) {
+        this.type = type;
+        this.field = fieldOf(type);
+        this.parallelSplit = parallelSplit;
+        this.blockBytes = (field.getExponent() - 1) / 8;
+        this.width = field.getWidth();
+    }
+
+    /**
+     * @param type a scheme type of a Mersenne field.
+     * @return the field of <b>type</b>.
+     * @throws IllegalArgumentException if <b>type</b> is not a Mersenne scheme.
+     */
+    public static MersenneField fieldOf(SchemeType type) {
+        switch (type) {
+            case MERSENNE_127:
+                return MersenneField.M127;
+            case MERSENNE_521:
+                return MersenneField.M521;
+            default:
+                throw new IllegalArgumentException(type + " is not a Mersenne scheme");
+        }
+    }
+
+    @Override
+    public SchemeType getType() {
+        return type;
+    }
+
+    public MersenneField getField() {
+        return field;
+    }
+
+    /**
+     * @throws IllegalArgumentException if <b>secret</b> is negative
+     * or <b>needed</b> and <b>available</b> are out of range.
+     */
+    @Override
+    public SecretShare[] split(BigInteger secret, int needed, int available, Random random) {
+        final Timer.Sample sample = AuthMetrics.start();
+        String outcome = AuthMetrics.ERROR;
+        try {
+            SecretShare[] shares = splitBlocks(secret, needed, available, random);
+            outcome = AuthMetrics.SUCCESS;
+            return shares;
+        } finally {
+            if (sample != null)
+                AuthMetrics.stop(sample, AuthMetrics.SHAMIR_SPLIT, outcome,
+                        "needed", AuthMetrics.shares(needed),
+                        "available", AuthMetrics.shares(available),
+                        "bits", AuthMetrics.bits(field.getExponent()));
+        }
+    }
+
+    /**
+     * @throws NoSuchElementException if the shares don't have the layout of this scheme.
+     * @throws ArithmeticException if two shares have the same number.
+     */
+    @Override
+    public BigInteger combine(SecretShare[] shares) {
+        final Timer.Sample sample = AuthMetrics.start();
+        String outcome = AuthMetrics.ERROR;
+        try {
+            BigInteger secret = combineBlocks(shares);
+            outcome = AuthMetrics.SUCCESS;
+            return secret;
+        } finally {
+            if (sample != null)
+                AuthMetrics.stop(sample, AuthMetrics.SHAMIR_COMBINE, outcome,
+                        "needed", AuthMetrics.shares(shares.length),
+                        "mode", type.name().toLowerCase(),
+                        "bits", AuthMetrics.bits(field.getExponent()));
+        }
+    }
+
+    private SecretShare[] splitBlocks(BigInteger secret, int needed, int available, Random random) {
+        if (secret.signum() < 0)
+            throw new IllegalArgumentException("Secret must not be negative");
+        if (needed < 1 || needed > available)
+            throw new IllegalArgumentException(
+                    String.format("Can't split into %d of %d shares", needed, available));
+        final byte[] bytes = Magnitudes.magnitude(secret);
+        final int blocks = Math.max(1, (bytes.length + blockBytes - 1) / blockBytes);
+        final byte[] padded = new byte[blocks * blockBytes];
+        System.arraycopy(bytes, 0, padded, padded.length - bytes.length, bytes.length);
+
+        /* Coefficients are drawn up front, so blocks can be evaluated on any thread. */
+        final long[][][] coefficients = new long[blocks][needed][];
+        for (int block = 0; block < blocks; block++) {
+            coefficients[block][0] = field.fromBytes(padded, block * blockBytes, blockBytes);
+            for (int i = 1; i < needed; i++) {
+                coefficients[block][i] = field.random(random);
+            }
+        }
+        final long[][] numbers = new long[available][];
+        final byte[][] values = new byte[available][1 + blocks * width];
+        for (int x = 1; x <= available; x++) {
+            numbers[x - 1] = field.of(x);
+            values[x - 1][0] = MARKER;
+        }
+
+        forEachBlock(blocks, needed * blocks, available, block -> {
+            final long[] accumulator = field.zero();
+            for (int x = 0; x < available; x++) {
+                System.arraycopy(coefficients[block][needed - 1], 0, accumulator, 0, accumulator.length);
+                for (int i = needed - 2; i >= 0; i--) {
+                    field.multiply(accumulator, numbers[x], accumulator);
+                    field.add(accumulator, coefficients[block][i], accumulator);
+                }
+                field.toBytes(accumulator, values[x], 1 + block * width, width);
+            }
+        });
+
+        final SecretShare[] shares = new SecretShare[available];
+        for (int x = 1; x <= available; x++) {
+            shares[x - 1] = new SecretShare(x, new BigInteger(1, values[x - 1]));
+        }
+        return shares;
+    }
+
+    /**
+     * Interpolates every block at zero with Lagrange coefficients computed once,
+     * with a single inversion for all of them.
+     */
+    private BigInteger combineBlocks(SecretShare[] shares) {
+        final int count = shares.length;
+        if (count == 0)
+            throw new NoSuchElementException("No shares to combine");
+        final byte[][] values = new byte[count][];
+        int blocks = -1;
+        for (int i = 0; i < count; i++) {
+            values[i] = Magnitudes.magnitude(shares[i].getShare());
+            if (values[i].length < 1 + width || values[i][0] != MARKER || (values[i].length - 1) % width != 0)
+                throw new NoSuchElementException("Share " + shares[i].getNumber() + " is not a " + type + " share");
+            int shareBlocks = (values[i].length - 1) / width;
+            if (blocks >= 0 && shareBlocks != blocks)
+                throw new NoSuchElementException("Shares are of secrets of different lengths");
+            blocks = shareBlocks;
+        }
+
+        final long[][] lagrange = lagrangeAtZero(shares);
+        final byte[] secret = new byte[blocks * blockBytes];
+        forEachBlock(blocks, count, blocks, b -> {
+            final long[] sum = field.zero();
+            final long[] term = field.zero();
+            for (int i = 0; i < count; i++) {
+                field.multiply(field.fromBytes(values[i], 1 + b * width, width), lagrange[i], term);
+                field.add(sum, term, sum);
+            }
+            /* Wrong shares may give a block wider than blockBytes; its top is cut off, and the
+               secret is as wrong as it would be otherwise. */
+            field.toBytes(sum, secret, b * blockBytes, blockBytes);
+        });
+        return new BigInteger(1, secret);
+    }
+
+    /**
+     * @return L<sub>i</sub>(0) = prod x<sub>j</sub> / (x<sub>j</sub> - x<sub>i</sub>) for every share.
+     */
+    private long[][] lagrangeAtZero(SecretShare[] shares) {
+        final int count = shares.length;
+        final long[][] numbers = new long[count][];
+        for (int i = 0; i < count; i++) {
+            numbers[i] = field.of(shares[i].getNumber());
+        }
+        final long[][] numerators = new long[count][];
+        final long[][] denominators = new long[count][];
+        final long[] difference = field.zero();
+        for (int i = 0; i < count; i++) {
+            numerators[i] = field.of(1);
+            denominators[i] = field.of(1);
+            for (int j = 0; j < count; j++) {
+                if (j == i)
+                    continue;
+                field.multiply(numerators[i], numbers[j], numerators[i]);
+                field.subtract(numbers[j], numbers[i], difference);
+                if (field.isZero(difference))
+                    throw new ArithmeticException("Shares have the same number " + shares[i].getNumber());
+                field.multiply(denominators[i], difference, denominators[i]);
+            }
+        }
+
+        /* Montgomery's trick: invert the product of all denominators once. */
+        final long[][] prefix = new long[count][];
+        long[] product = field.of(1);
+        for (int i = 0; i < count; i++) {
+            prefix[i] = product.clone();
+            field.multiply(product, denominators[i], product);
+        }
+        long[] inverse = field.inverse(product);
+        final long[][] lagrange = new long[count][];
+        for (int i = count - 1; i >= 0; i--) {
+            long[] inverseOfDenominator = field.zero();
+            field.multiply(inverse, prefix[i], inverseOfDenominator);
+            field.multiply(inverse, denominators[i], inverse);
+            lagrange[i] = field.zero();
+            field.multiply(numerators[i], inverseOfDenominator, lagrange[i]);
+        }
+        return lagrange;
+    }
+
+    /**
+     * Runs <b>action</b> for every block, in parallel if {@link MersenneScheme#parallelSplit}
+     * says <b>needed</b> by <b>available</b> is worth it.
+     */
+    private void forEachBlock(int blocks, int needed, int available, IntConsumer action) {
+        if (blocks > 1 && parallelSplit != null && parallelSplit.isParallel(needed, available)) {
+            parallelSplit.getPool().submit(() -> IntStream.range(0, blocks).parallel().forEach(action)).join();
+        } else {
+            for (int block = 0; block < blocks; block++) {
+                action.accept(block);
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package MFA;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * When and where {@link Shamir#split(java.math.BigInteger, int, int, java.math.BigInteger,
+ * java.util.Random, ParallelSplit)} evaluates shares in parallel.
+ *
+ * <p>The work of a split is estimated as {@code needed * available}, the number of
+ * multiply-and-reduce steps it takes. Splits with less work than the threshold stay
+ * sequential, since handing them to a pool costs more than it saves.
+ *
+ * @author Igor Sytnik
+ */
+public final class ParallelSplit {
+
+    /**
+     * A conservative default: e.g. 32 of 32 shares. Smaller splits take too little time
+     * for a pool to help. Run {@code benchmarks.ParallelSplitBenchmark} to find the
+     * crossover for your secret sizes and hardware.
+     */
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    private final ForkJoinPool pool;
+    private final int threshold;
+
+    /**
+     * @param pool a pool shares are evaluated on.
+     * @param threshold the least {@code needed * available} split evaluated in parallel.
+     */
+    public ParallelSplit(ForkJoinPool pool, int threshold) {
+        if (threshold < 0)
+            throw new IllegalArgumentException("Threshold must not be negative");
+        this.pool = pool;
+        this.threshold = threshold;
+    }
+
+    /**
+     * @return parallel splits on {@link ForkJoinPool#commonPool()}
+     * above {@link ParallelSplit#DEFAULT_THRESHOLD}.
+     */
+    public static ParallelSplit commonPool() {
+        return new ParallelSplit(ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @param needed a number of shares needed for restoring the secret.
+     * @param available a number of resulting shares.
+     * @return {@code true} if such a split should be evaluated in parallel.
+     */
+    public boolean isParallel(int needed, int available) {
+        return (long) needed * available >= threshold && available > 1
+                && pool.getParallelism() > 1;
+    }
+}
@@ -0,0 +1,273 @@
+package MFA;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of pre-generated primes, bucketed by bit length.
+ *
+ * <p>{@link PrimePool#primeFor(BigInteger)} takes a prime of at least
+ * {@code secret.bitLength() + 1} bits from the pool, rounded up to a multiple of
+ * {@link PrimePool#BUCKET_BITS}, so that secrets of similar lengths share a bucket.
+ * Buckets are refilled on a background executor whenever they drop below the target size.
+ * If a bucket is empty the prime is generated on the calling thread and counted as a miss.
+ *
+ * <p>Secret lengths are chosen by users, so there are at most {@link PrimePool#MAX_BUCKETS}
+ * buckets. Secrets of a length that doesn't fit in them get a prime of
+ * {@code secret.bitLength() + 1} bits generated on the calling thread, as
+ * {@link RandomPrimeProvider} would, counted as a miss, and nothing is kept for them.
+ *
+ * <p>Call {@link PrimePool#close()} to stop the background executor.
+ * {@link PrimePool#shared()} is never closed; its refill thread is a daemon.
+ *
+ * @author Igor Sytnik
+ */
+public class PrimePool implements PrimeProvider, AutoCloseable {
+
+    /**
+     * The certainty {@link Manager} generates primes with.
+     */
+    public static final int DEFAULT_CERTAINTY = 256;
+    /**
+     * A number of primes kept in every bucket of {@link PrimePool#shared()}.
+     */
+    public static final int DEFAULT_TARGET_SIZE = 8;
+    /**
+     * Prime bit lengths are rounded up to a multiple of this.
+     */
+    public static final int BUCKET_BITS = 64;
+    /**
+     * The largest number of buckets, which covers primes of up to
+     * {@code BUCKET_BITS * MAX_BUCKETS} bits when secrets of every length come.
+     */
+    public static final int MAX_BUCKETS = 16;
+
+    private final int certainty;
+    private final int targetSize;
+    private final SecureRandom random;
+    private final ExecutorService executor;
+    private final Map<Integer, Bucket> buckets = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final AtomicLong lastRefillLagNanos = new AtomicLong();
+    private final AtomicLong maxRefillLagNanos = new AtomicLong();
+
+    /**
+     * Creates a pool with a single daemon refill thread.
+     *
+     * @param certainty a certainty value for generating a prime number.
+     * @param targetSize a number of primes kept in every bucket.
+     * @see BigInteger#BigInteger(int, int, java.util.Random)
+     */
+    public PrimePool(int certainty, int targetSize) {
+        this(certainty, targetSize, Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "prime-pool-refill");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    /**
+     * @param certainty a certainty value for generating a prime number.
+     * @param targetSize a number of primes kept in every bucket.
+     * @param executor an executor the buckets are refilled on.
+     *                 It is shut down by {@link PrimePool#close()}.
+     */
+    public PrimePool(int certainty, int targetSize, ExecutorService executor) {
+        if (targetSize < 1)
+            throw new IllegalArgumentException("Target size must be positive");
+        this.certainty = certainty;
+        this.targetSize = targetSize;
+        this.random = new SecureRandom();
+        this.executor = executor;
+    }
+
+    /**
+     * Returns a pool shared by everything that doesn't configure its own, created on first use
+     * with {@link PrimePool#DEFAULT_CERTAINTY} and {@link PrimePool#DEFAULT_TARGET_SIZE}.
+     *
+     * @return the shared pool.
+     */
+    public static PrimePool shared() {
+        return SharedHolder.INSTANCE;
+    }
+
+    /**
+     * Starts filling buckets for secrets of these bit lengths,
+     * so the first registrations don't miss.
+     *
+     * @param secretBitLengths bit lengths of the secrets that are going to be split.
+     * @return this pool.
+     */
+    public PrimePool warmUp(int... secretBitLengths) {
+        for (int secretBitLength : secretBitLengths) {
+            Bucket bucket = bucket(secretBitLength + 1);
+            if (bucket != null)
+                refill(bucket);
+        }
+        return this;
+    }
+
+    @Override
+    public BigInteger primeFor(BigInteger secret) {
+        Bucket bucket = bucket(secret.bitLength() + 1);
+        if (bucket == null) {
+            misses.increment();
+            return generate(secret.bitLength() + 1);
+        }
+        BigInteger prime = bucket.primes.poll();
+        if (prime != null) {
+            bucket.size.decrementAndGet();
+            hits.increment();
+        } else {
+            misses.increment();
+            prime = generate(bucket.bitLength);
+        }
+        refill(bucket);
+        return prime;
+    }
+
+    /**
+     * @return a number of primes served from the pool.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return a number of primes generated on the calling thread
+     * because the bucket was empty.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return {@link PrimePool#getHits()} divided by the number of all requests,
+     * or {@code 1} if there were no requests yet.
+     */
+    public double getHitRatio() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 1 : (double) hits / total;
+    }
+
+    /**
+     * @return nanoseconds between the last refill being requested
+     * and its bucket being full again.
+     */
+    public long getLastRefillLagNanos() {
+        return lastRefillLagNanos.get();
+    }
+
+    /**
+     * @return the longest refill lag seen so far, in nanoseconds.
+     * @see PrimePool#getLastRefillLagNanos()
+     */
+    public long getMaxRefillLagNanos() {
+        return maxRefillLagNanos.get();
+    }
+
+    /**
+     * @param primeBitLength bit length of the primes in the bucket, rounded up to {@link PrimePool#BUCKET_BITS}.
+     * @return a number of primes currently waiting in the bucket.
+     */
+    public int getSize(int primeBitLength) {
+        Bucket bucket = buckets.get(roundUp(primeBitLength));
+        return bucket == null ? 0 : bucket.size.get();
+    }
+
+    /**
+     * @return a number of bit lengths primes are kept for, at most {@link PrimePool#MAX_BUCKETS}.
+     */
+    public int getBucketCount() {
+        return buckets.size();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the bucket of <b>primeBitLength</b> rounded up, or <i>null</i> if there is
+     * none and {@link PrimePool#MAX_BUCKETS} are taken.
+     */
+    private Bucket bucket(int primeBitLength) {
+        final int bitLength = roundUp(primeBitLength);
+        Bucket bucket = buckets.get(bitLength);
+        if (bucket != null)
+            return bucket;
+        synchronized (buckets) {
+            if (buckets.size() >= MAX_BUCKETS && !buckets.containsKey(bitLength))
+                return null;
+            return buckets.computeIfAbsent(bitLength, Bucket::new);
+        }
+    }
+
+    private static int roundUp(int primeBitLength) {
+        return Math.max(1, (primeBitLength + BUCKET_BITS - 1) / BUCKET_BITS) * BUCKET_BITS;
+    }
+
+    private BigInteger generate(int primeBitLength) {
+        return new BigInteger(primeBitLength, certainty, random);
+    }
+
+    /**
+     * Schedules a refill of <b>bucket</b> unless it is full
+     * or a refill is already running.
+     */
+    private void refill(Bucket bucket) {
+        if (bucket.size.get() >= targetSize || !bucket.refilling.compareAndSet(false, true))
+            return;
+        final long requested = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                try {
+                    while (bucket.size.get() < targetSize && !Thread.currentThread().isInterrupted()) {
+                        bucket.primes.offer(generate(bucket.bitLength));
+                        bucket.size.incrementAndGet();
+                    }
+                    long lag = System.nanoTime() - requested;
+                    lastRefillLagNanos.set(lag);
+                    maxRefillLagNanos.accumulateAndGet(lag, Math::max);
+                } finally {
+                    bucket.refilling.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The pool is closed, primes are generated on the calling thread from now on.
+            bucket.refilling.set(false);
+        }
+    }
+
+    private static final class SharedHolder {
+        static final PrimePool INSTANCE = new PrimePool(DEFAULT_CERTAINTY, DEFAULT_TARGET_SIZE);
+    }
+
+    /**
+     * Primes of a single bit length.
+     */
+    private static class Bucket {
+        final int bitLength;
+        final Queue<BigInteger> primes = new ConcurrentLinkedQueue<>();
+        final AtomicInteger size = new AtomicInteger();
+        final AtomicBoolean refilling = new AtomicBoolean();
+
+        Bucket(int bitLength) {
+            this.bitLength = bitLength;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package MFA;
+
+import java.math.BigInteger;
+
+/**
+ * A source of prime numbers for the {@link Shamir} scheme.
+ *
+ * <p>{@link Manager} asks the provider for a prime every time a secret is split,
+ * so implementations decide where the cost of prime generation is paid.
+ *
+ * @author Igor Sytnik
+ * @see RandomPrimeProvider
+ * @see PrimePool
+ * @see WellKnownPrimeProvider
+ */
+public interface PrimeProvider {
+
+    /**
+     * Returns a prime number that is greater than <b>secret</b>.
+     *
+     * @param secret a secret that is going to be split modulo the returned prime.
+     * @return a prime number greater than <b>secret</b>.
+     */
+    BigInteger primeFor(BigInteger secret);
+}
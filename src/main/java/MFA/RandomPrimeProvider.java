@@ -0,0 +1,33 @@
+package MFA;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Generates a fresh probable prime of {@code secret.bitLength() + 1} bits
+ * on the calling thread.
+ *
+ * <p>This is what {@link Manager} has always done, and it is the slowest option.
+ *
+ * @author Igor Sytnik
+ */
+public class RandomPrimeProvider implements PrimeProvider {
+
+    private final int certainty;
+    private final Random random;
+
+    /**
+     * @param certainty a certainty value for generating a prime number.
+     * @param random source of random bits used to select candidates.
+     * @see BigInteger#BigInteger(int, int, Random)
+     */
+    public RandomPrimeProvider(int certainty, Random random) {
+        this.certainty = certainty;
+        this.random = random;
+    }
+
+    @Override
+    public BigInteger primeFor(BigInteger secret) {
+        return new BigInteger(secret.bitLength() + 1, certainty, random);
+    }
+}
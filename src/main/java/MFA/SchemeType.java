@@ -0,0 +1,35 @@
+package MFA;
+
+/**
+ * Secret share schemes a user's shares can be generated with.
+ *
+ * <p>The type is stored per user, see {@link pojo.UserBase#getScheme()}.
+ *
+ * @author Igor Sytnik
+ */
+public enum SchemeType {
+    /**
+     * {@link Shamir} over a per-user prime, see {@link ShamirScheme}.
+     */
+    SHAMIR_PRIME,
+    /**
+     * Byte-wise Shamir over GF(2<sup>8</sup>), see {@link GF256Scheme}.
+     * Needs no prime.
+     */
+    GF256,
+    /**
+     * Block-wise Shamir over the fixed field modulo 2<sup>127</sup> - 1,
+     * see {@link MersenneScheme}. Needs no prime.
+     */
+    MERSENNE_127,
+    /**
+     * Block-wise Shamir over the fixed field modulo 2<sup>521</sup> - 1,
+     * see {@link MersenneScheme}. Needs no prime.
+     */
+    MERSENNE_521,
+    /**
+     * {@link Shamir} modulo the 2048-bit RFC 3526 group order with Feldman commitments,
+     * see {@link FeldmanScheme}. Needs no prime; the commitments are stored instead.
+     */
+    FELDMAN_2048
+}
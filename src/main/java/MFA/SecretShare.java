@@ -25,6 +25,10 @@ public class SecretShare {
         return share;
     }
 
+    /**
+     * @return the share in the legacy decimal format {@code "<number>-<share>"}.
+     * @see ShareCodec#encode(SecretShare, int) for the compact format.
+     */
     @Override
     public String toString() {
         return String.format("%d-%s", getNumber(), getShare().toString());
@@ -2,6 +2,7 @@ package MFA;
 
 import java.math.BigInteger;
 import java.util.Random;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Class that represents Shamir secret share scheme.
@@ -22,6 +23,48 @@ public class Shamir {
      * @return generated shares.
      */
     public static SecretShare[] split(BigInteger secret, int needed, int available, BigInteger prime, Random random) {
+        final BigInteger[] coeff = coefficients(secret, needed, prime, random);
+
+        final SecretShare[] shares = new SecretShare[available];
+        /* Splits into shares */
+        for (int x = 1; x <= available; x++) {
+            shares[x - 1] = new SecretShare(x, evaluate(coeff, x, prime));
+        }
+
+        return shares;
+    }
+
+    /**
+     * Splits <b>secret</b> like {@link Shamir#split(BigInteger, int, int, BigInteger, Random)},
+     * evaluating the shares on the pool of <b>parallelSplit</b> if the split is big enough.
+     *
+     * <p>The coefficients are drawn from <b>random</b> sequentially before any share is
+     * evaluated, so for the same <b>random</b> state the shares are identical to the ones
+     * of the sequential split.
+     *
+     * @param secret a {@link BigInteger} that has to be split into <b>shares</b>.
+     * @param needed a number of <b>shares</b> needed for restoring the <b>secret</b>.
+     * @param available a number of resulting <b>shares</b>.
+     * @param prime a prime number to make the scheme more secure.
+     * @param random an instance of a random number generator.
+     * @param parallelSplit when and where to go parallel; <i>null</i> means never.
+     * @return generated shares.
+     */
+    public static SecretShare[] split(BigInteger secret, int needed, int available, BigInteger prime, Random random,
+                                      ParallelSplit parallelSplit) {
+        if (parallelSplit == null || !parallelSplit.isParallel(needed, available))
+            return split(secret, needed, available, prime, random);
+        final BigInteger[] coeff = coefficients(secret, needed, prime, random);
+        final SecretShare[] shares = new SecretShare[available];
+        parallelSplit.getPool().invoke(new EvaluateTask(coeff, prime, shares, 1, available + 1,
+                grain(available, parallelSplit.getPool().getParallelism())));
+        return shares;
+    }
+
+    /**
+     * Generates polynomial coefficients, the free term being <b>secret</b>.
+     */
+    private static BigInteger[] coefficients(BigInteger secret, int needed, BigInteger prime, Random random) {
         final BigInteger[] coeff = new BigInteger[needed];
         coeff[0] = secret;
         /* Generates **needed** number of BigInteger objects that more than 0 and less than prime */
@@ -32,20 +75,77 @@ public class Shamir {
             }
             coeff[i] = r;
         }
+        return coeff;
+    }
 
-        final SecretShare[] shares = new SecretShare[available];
-        /* Splits into shares */
-        for (int x = 1; x <= available; x++) {
-            BigInteger accum = secret;
+    /**
+     * A number of shares evaluated by one task: about four tasks per thread,
+     * so that threads that finish early can steal work.
+     */
+    private static int grain(int available, int parallelism) {
+        return Math.max(1, available / (parallelism * 4));
+    }
+
+    /**
+     * Evaluates shares with numbers from <b>from</b> inclusive to <b>to</b> exclusive,
+     * splitting the range in halves until it is at most <b>grain</b> long.
+     */
+    private static final class EvaluateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final BigInteger[] coeff;
+        private final BigInteger prime;
+        private final SecretShare[] shares;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        EvaluateTask(BigInteger[] coeff, BigInteger prime, SecretShare[] shares, int from, int to, int grain) {
+            this.coeff = coeff;
+            this.prime = prime;
+            this.shares = shares;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
 
-            for (int exp = 1; exp < needed; exp++) {
-                accum = accum.add(coeff[exp].multiply(BigInteger.valueOf(x).pow(exp).mod(prime))).mod(prime);
-                // accum = (accum + coef[exp] * (x ^ exp % prime)) % prime
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                for (int x = from; x < to; x++) {
+                    shares[x - 1] = new SecretShare(x, evaluate(coeff, x, prime));
+                }
+                return;
             }
-            shares[x - 1] = new SecretShare(x, accum);
+            final int middle = (from + to) >>> 1;
+            invokeAll(new EvaluateTask(coeff, prime, shares, from, middle, grain),
+                    new EvaluateTask(coeff, prime, shares, middle, to, grain));
         }
+    }
 
-        return shares;
+    /**
+     * Evaluates the polynomial with coefficients <b>coeff</b> at the point <b>x</b>
+     * using Horner's rule.
+     *
+     * <p>Gives the same value as summing {@code coeff[exp] * x^exp} modulo <b>prime</b>,
+     * but needs one multiplication by a small number and one reduction per coefficient,
+     * and no powers of <b>x</b> are computed.
+     *
+     * @param coeff polynomial coefficients, the free term first.
+     * @param x a point to evaluate the polynomial at.
+     * @param prime a prime number the polynomial is reduced by.
+     * @return the polynomial value at <b>x</b>.
+     */
+    static BigInteger evaluate(final BigInteger[] coeff, final int x, final BigInteger prime) {
+        if (coeff.length == 1)
+            return coeff[0];
+        final BigInteger point = BigInteger.valueOf(x);
+        BigInteger accum = coeff[coeff.length - 1];
+        for (int exp = coeff.length - 2; exp >= 0; exp--) {
+            accum = accum.multiply(point).add(coeff[exp]).mod(prime);
+            // accum = (accum * x + coeff[exp]) % prime
+        }
+        return accum;
     }
 
     /**
@@ -81,4 +181,142 @@ public class Shamir {
 
         return accum;
     }
+
+    /**
+     * Computes Lagrange basis coefficients at zero for shares with numbers <b>numbers</b>.
+     *
+     * <p>The secret is the sum of {@code shares[i] * coefficients[i]} modulo <b>prime</b>,
+     * so the coefficients can be reused for every combination of the same share numbers.
+     *
+     * @param numbers numbers of the shares that are going to be combined.
+     * @param prime a prime number that was used to split the secret.
+     * @return coefficients in the order of <b>numbers</b>.
+     * @see Shamir#combine(SecretShare[], BigInteger[], BigInteger)
+     */
+    public static BigInteger[] lagrangeCoefficients(final int[] numbers, final BigInteger prime) {
+        final BigInteger[] numerators = new BigInteger[numbers.length];
+        final BigInteger[] denominators = new BigInteger[numbers.length];
+        lagrangeFractions(numbers, prime, numerators, denominators);
+
+        final BigInteger[] inverses = batchInverse(denominators, prime);
+        for (int i = 0; i < numbers.length; i++) {
+            numerators[i] = numerators[i].multiply(inverses[i]).mod(prime);
+        }
+        return numerators;
+    }
+
+    /**
+     * Combines <b>shares</b> into a secret inverting all Lagrange denominators at once.
+     *
+     * <p>Gives the same result as {@link Shamir#combine(SecretShare[], BigInteger)},
+     * but calls {@link BigInteger#modInverse(BigInteger)} once instead of once per share
+     * (Montgomery's batch inversion), at the cost of three multiplications per share.
+     *
+     * @param shares shares that the secret was split into.
+     * @param prime a prime number that was used to split the secret.
+     * @return a secret from combining all the <b>shares</b>.
+     * @throws IllegalArgumentException if a share number is not positive or is repeated.
+     */
+    public static BigInteger combineBatched(final SecretShare[] shares, final BigInteger prime) {
+        final int[] numbers = numbers(shares);
+        final BigInteger[] numerators = new BigInteger[shares.length];
+        final BigInteger[] denominators = new BigInteger[shares.length];
+        lagrangeFractions(numbers, prime, numerators, denominators);
+
+        final BigInteger[] inverses = batchInverse(denominators, prime);
+        BigInteger accum = BigInteger.ZERO;
+        for (int i = 0; i < shares.length; i++) {
+            accum = accum.add(shares[i].getShare().multiply(numerators[i]).multiply(inverses[i])).mod(prime);
+        }
+        return accum;
+    }
+
+    /**
+     * Returns share numbers of <b>shares</b>, checking that they can be combined.
+     *
+     * @throws IllegalArgumentException if a share number is not positive or is repeated.
+     */
+    private static int[] numbers(final SecretShare[] shares) {
+        final int[] numbers = new int[shares.length];
+        for (int i = 0; i < shares.length; i++) {
+            numbers[i] = shares[i].getNumber();
+            if (numbers[i] < 1)
+                throw new IllegalArgumentException("Share number must be positive: " + numbers[i]);
+            for (int j = 0; j < i; j++) {
+                if (numbers[j] == numbers[i])
+                    throw new IllegalArgumentException("Share number is repeated: " + numbers[i]);
+            }
+        }
+        return numbers;
+    }
+
+    /**
+     * Fills numerators and denominators of the Lagrange basis at zero
+     * for shares with numbers <b>numbers</b>, without dividing.
+     */
+    private static void lagrangeFractions(final int[] numbers, final BigInteger prime,
+                                          final BigInteger[] numerators, final BigInteger[] denominators) {
+        for(int formula = 0; formula < numbers.length; formula++) {
+            BigInteger numerator = BigInteger.ONE;
+            BigInteger denominator = BigInteger.ONE;
+
+            for(int count = 0; count < numbers.length; count++) {
+                if(formula == count)
+                    continue; // If the same value
+
+                int startPosition = numbers[formula];
+                int nextPosition = numbers[count];
+
+                numerator = numerator.multiply(BigInteger.valueOf(nextPosition).negate()).mod(prime);
+                denominator = denominator.multiply(BigInteger.valueOf(startPosition - nextPosition)).mod(prime);
+            }
+            numerators[formula] = numerator;
+            denominators[formula] = denominator;
+        }
+    }
+
+    /**
+     * Inverts every element of <b>values</b> modulo <b>prime</b> with a single
+     * {@link BigInteger#modInverse(BigInteger)} call.
+     *
+     * @param values values to invert, none of them divisible by <b>prime</b>.
+     * @param prime a prime modulus.
+     * @return inverses in the order of <b>values</b>.
+     * @throws ArithmeticException if one of the <b>values</b> is not invertible.
+     */
+    static BigInteger[] batchInverse(final BigInteger[] values, final BigInteger prime) {
+        final BigInteger[] inverses = new BigInteger[values.length];
+        if (values.length == 0)
+            return inverses;
+        /* inverses[i] holds values[0] * ... * values[i - 1] for now */
+        BigInteger product = BigInteger.ONE;
+        for (int i = 0; i < values.length; i++) {
+            inverses[i] = product;
+            product = product.multiply(values[i]).mod(prime);
+        }
+        BigInteger inverse = product.modInverse(prime);
+        for (int i = values.length - 1; i >= 0; i--) {
+            inverses[i] = inverses[i].multiply(inverse).mod(prime);
+            inverse = inverse.multiply(values[i]).mod(prime);
+        }
+        return inverses;
+    }
+
+    /**
+     * Combines <b>shares</b> into a secret using precomputed Lagrange coefficients.
+     *
+     * @param shares shares that the secret was split into.
+     * @param coefficients coefficients from {@link Shamir#lagrangeCoefficients(int[], BigInteger)}
+     *                     for the numbers of <b>shares</b>, in the same order.
+     * @param prime a prime number that was used to split the secret.
+     * @return a secret from combining all the <b>shares</b>.
+     */
+    public static BigInteger combine(final SecretShare[] shares, final BigInteger[] coefficients,
+                                     final BigInteger prime) {
+        BigInteger accum = BigInteger.ZERO;
+        for (int i = 0; i < shares.length; i++) {
+            accum = accum.add(shares[i].getShare().multiply(coefficients[i]));
+        }
+        return accum.mod(prime);
+    }
 }
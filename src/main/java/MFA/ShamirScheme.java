@@ -0,0 +1,100 @@
+package MFA;
+
+import io.micrometer.core.instrument.Timer;
+import metrics.AuthMetrics;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * {@link Shamir} secret share scheme over a prime field.
+ *
+ * <p>Splitting and combining are timed by {@link AuthMetrics} when it is enabled.
+ *
+ * @author Igor Sytnik
+ */
+public class ShamirScheme implements SharingScheme {
+
+    private final BigInteger prime;
+    private final LagrangeCache lagrangeCache;
+    private final CombineMode combineMode;
+    private final ParallelSplit parallelSplit;
+
+    public ShamirScheme(BigInteger prime) {
+        this(prime, null, CombineMode.STANDARD);
+    }
+
+    /**
+     * @param prime a prime number to split and combine secrets by.
+     * @param lagrangeCache a cache of Lagrange coefficients, may be <i>null</i>.
+     * @param combineMode how shares are combined if there's no <b>lagrangeCache</b>.
+     */
+    public ShamirScheme(BigInteger prime, LagrangeCache lagrangeCache, CombineMode combineMode) {
+        this(prime, lagrangeCache, combineMode, null);
+    }
+
+    /**
+     * @param prime a prime number to split and combine secrets by.
+     * @param lagrangeCache a cache of Lagrange coefficients, may be <i>null</i>.
+     * @param combineMode how shares are combined if there's no <b>lagrangeCache</b>.
+     * @param parallelSplit when and where to split in parallel, may be <i>null</i>.
+     */
+    public ShamirScheme(BigInteger prime, LagrangeCache lagrangeCache, CombineMode combineMode,
+                        ParallelSplit parallelSplit) {
+        this.prime = prime;
+        this.lagrangeCache = lagrangeCache;
+        this.combineMode = combineMode;
+        this.parallelSplit = parallelSplit;
+    }
+
+    @Override
+    public SchemeType getType() {
+        return SchemeType.SHAMIR_PRIME;
+    }
+
+    public BigInteger getPrime() {
+        return prime;
+    }
+
+    @Override
+    public SecretShare[] split(BigInteger secret, int needed, int available, Random random) {
+        final Timer.Sample sample = AuthMetrics.start();
+        String outcome = AuthMetrics.ERROR;
+        try {
+            SecretShare[] shares = Shamir.split(secret, needed, available, prime, random, parallelSplit);
+            outcome = AuthMetrics.SUCCESS;
+            return shares;
+        } finally {
+            if (sample != null)
+                AuthMetrics.stop(sample, AuthMetrics.SHAMIR_SPLIT, outcome,
+                        "needed", AuthMetrics.shares(needed),
+                        "available", AuthMetrics.shares(available),
+                        "bits", AuthMetrics.bits(prime.bitLength()));
+        }
+    }
+
+    @Override
+    public BigInteger combine(SecretShare[] shares) {
+        final Timer.Sample sample = AuthMetrics.start();
+        String outcome = AuthMetrics.ERROR;
+        try {
+            BigInteger secret = combineShares(shares);
+            outcome = AuthMetrics.SUCCESS;
+            return secret;
+        } finally {
+            if (sample != null)
+                AuthMetrics.stop(sample, AuthMetrics.SHAMIR_COMBINE, outcome,
+                        "needed", AuthMetrics.shares(shares.length),
+                        "mode", lagrangeCache != null ? "cached" : combineMode.name().toLowerCase(),
+                        "bits", AuthMetrics.bits(prime.bitLength()));
+        }
+    }
+
+    private BigInteger combineShares(SecretShare[] shares) {
+        if (lagrangeCache != null)
+            return lagrangeCache.combine(shares, prime);
+        if (combineMode == CombineMode.BATCH_INVERSION)
+            return Shamir.combineBatched(shares, prime);
+        return Shamir.combine(shares, prime);
+    }
+}
@@ -0,0 +1,236 @@
+package MFA;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.NoSuchElementException;
+
+/**
+ * Converts {@link SecretShare}s to and from text.
+ *
+ * <p>Two formats are read:
+ * <ul>
+ *     <li>the legacy decimal format of {@link SecretShare#toString()}, {@code "<number>-<share>"};</li>
+ *     <li>the compact format written by {@link ShareCodec#encode(SecretShare, int)}: base64url
+ *     without padding of a version byte, the share number as an unsigned LEB128 varint and
+ *     the share value as fixed-width big-endian bytes.</li>
+ * </ul>
+ * The version byte is {@value #VERSION}, so compact shares always start with {@code 'A'}
+ * and never with a digit, which tells the formats apart.
+ *
+ * @author Igor Sytnik
+ */
+public final class ShareCodec {
+
+    /**
+     * The version of the compact format.
+     */
+    public static final int VERSION = 1;
+    /**
+     * The widest share value, in bytes, that binary columns are sized for:
+     * shares of primes up to 8192 bits.
+     */
+    public static final int MAX_WIDTH = 1024;
+    /**
+     * The longest result of {@link ShareCodec#toBinary(String)} for shares up to {@link ShareCodec#MAX_WIDTH}:
+     * the version byte, a varint of up to 5 bytes and the value.
+     */
+    public static final int MAX_BINARY_LENGTH = 1 + 5 + MAX_WIDTH;
+    /**
+     * The longest text {@link ShareCodec#decode(String)} reads, whitespace aside, so that
+     * arbitrary input isn't parsed into arbitrarily large numbers. It is far above the shares
+     * of any realistic secret, in either format.
+     */
+    public static final int MAX_TEXT_LENGTH = 8192;
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    /**
+     * 6-bit values of base64url characters, {@code -1} for other characters.
+     */
+    private static final byte[] BASE64URL = new byte[128];
+
+    static {
+        Arrays.fill(BASE64URL, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64URL[alphabet.charAt(i)] = (byte) i;
+        }
+    }
+
+    private ShareCodec() {
+    }
+
+    /**
+     * Returns the number of bytes needed for share values modulo <b>prime</b>.
+     *
+     * @param prime a prime number the shares were split by.
+     * @return a width to pass to {@link ShareCodec#encode(SecretShare, int)}.
+     */
+    public static int width(BigInteger prime) {
+        return (prime.bitLength() + 7) / 8;
+    }
+
+    /**
+     * Writes <b>share</b> in the compact format.
+     *
+     * @param share a share to write.
+     * @param width a number of bytes the share value is padded to. Shares of the same
+     *              secret should use the same width, so they don't leak their magnitude.
+     * @return a base64url string.
+     * @throws IllegalArgumentException if <b>width</b> is not positive, the share value
+     * doesn't fit into <b>width</b> bytes or the share number is negative.
+     */
+    public static String encode(SecretShare share, int width) {
+        return ENCODER.encodeToString(encodeBytes(share, width));
+    }
+
+    /**
+     * Converts a share in either format to the bytes behind the compact format,
+     * e.g. to store it in a binary column.
+     *
+     * @param text a share in either format.
+     * @return the bytes that {@link ShareCodec#fromBinary(byte[])} turns back into
+     * the compact format. Legacy shares are padded to the width of their own value.
+     * @throws NoSuchElementException if <b>text</b> is not a share in a known format.
+     */
+    public static byte[] toBinary(String text) throws NoSuchElementException {
+        final SecretShare share = decode(text);
+        final String trimmed = text.trim();
+        if (trimmed.charAt(0) >= '0' && trimmed.charAt(0) <= '9')
+            return encodeBytes(share, Math.max(1, (share.getShare().bitLength() + 7) / 8));
+        return Base64.getUrlDecoder().decode(trimmed);
+    }
+
+    /**
+     * @param bytes bytes of {@link ShareCodec#toBinary(String)}.
+     * @return the share in the compact format.
+     */
+    public static String fromBinary(byte[] bytes) {
+        return ENCODER.encodeToString(bytes);
+    }
+
+    private static byte[] encodeBytes(SecretShare share, int width) {
+        if (width < 1)
+            throw new IllegalArgumentException("Width must be positive");
+        if (share.getNumber() < 0 || share.getShare().signum() < 0)
+            throw new IllegalArgumentException("Share must not be negative");
+        final byte[] value = share.getShare().toByteArray();
+        /* toByteArray() may have a leading zero sign byte */
+        final int skip = value.length > 1 && value[0] == 0 ? 1 : 0;
+        final int length = value.length - skip;
+        if (length > width)
+            throw new IllegalArgumentException("Share doesn't fit into " + width + " bytes");
+
+        int number = share.getNumber();
+        final byte[] bytes = new byte[1 + varintLength(number) + width];
+        int position = 0;
+        bytes[position++] = VERSION;
+        while ((number & ~0x7F) != 0) {
+            bytes[position++] = (byte) ((number & 0x7F) | 0x80);
+            number >>>= 7;
+        }
+        bytes[position++] = (byte) number;
+        System.arraycopy(value, skip, bytes, position + width - length, length);
+        return bytes;
+    }
+
+    /**
+     * Reads a share written in either format. Leading and trailing whitespace is ignored.
+     *
+     * @param text a share entered by the user.
+     * @return the share.
+     * @throws NoSuchElementException if <b>text</b> is not a share in a known format,
+     * has no value or is longer than {@link ShareCodec#MAX_TEXT_LENGTH}.
+     */
+    public static SecretShare decode(String text) throws NoSuchElementException {
+        int start = 0;
+        int end = text.length();
+        while (start < end && Character.isWhitespace(text.charAt(start))) start++;
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) end--;
+        if (start == end)
+            throw new NoSuchElementException("Share is empty");
+        if (end - start > MAX_TEXT_LENGTH)
+            throw new NoSuchElementException("Share is longer than " + MAX_TEXT_LENGTH + " characters");
+
+        char first = text.charAt(start);
+        if (first >= '0' && first <= '9')
+            return decodeDecimal(text, start, end);
+        return decodeCompact(text, start, end);
+    }
+
+    /**
+     * Parses {@code "<number>-<share>"}.
+     */
+    private static SecretShare decodeDecimal(String text, int start, int end) {
+        int position = start;
+        int number = 0;
+        while (position < end && text.charAt(position) != '-') {
+            int digit = text.charAt(position) - '0';
+            if (digit < 0 || digit > 9 || number > (Integer.MAX_VALUE - digit) / 10)
+                throw new NoSuchElementException("No matches found in " + text);
+            number = number * 10 + digit;
+            position++;
+        }
+        position++; // '-'
+        if (position >= end)
+            throw new NoSuchElementException("No matches found in " + text);
+        for (int i = position; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9')
+                throw new NoSuchElementException("No matches found in " + text);
+        }
+        return new SecretShare(number, new BigInteger(text.substring(position, end)));
+    }
+
+    /**
+     * Decodes base64url and parses the version, the varint number and the value.
+     */
+    private static SecretShare decodeCompact(String text, int start, int end) {
+        final int characters = end - start;
+        if (characters % 4 == 1)
+            throw new NoSuchElementException("Not a base64url share: " + text);
+        final byte[] bytes = new byte[characters * 3 / 4];
+        int bits = 0;
+        int bitCount = 0;
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            int value = c < 128 ? BASE64URL[c] : -1;
+            if (value < 0)
+                throw new NoSuchElementException("Not a base64url share: " + text);
+            bits = (bits << 6) | value;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                bytes[length++] = (byte) (bits >> bitCount);
+            }
+        }
+
+        if (length < 2 || bytes[0] != VERSION)
+            throw new NoSuchElementException("Unknown share version in " + text);
+        int position = 1;
+        int number = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (position >= length || shift > 28)
+                throw new NoSuchElementException("Malformed share number in " + text);
+            byte b = bytes[position++];
+            number |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                break;
+        }
+        if (number < 0)
+            throw new NoSuchElementException("Malformed share number in " + text);
+        if (position == length)
+            throw new NoSuchElementException("No share value in " + text);
+        return new SecretShare(number, new BigInteger(1, bytes, position, length - position));
+    }
+
+    private static int varintLength(int value) {
+        int length = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,39 @@
+package MFA;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * A secret share scheme that {@link Manager} delegates splitting and combining to.
+ *
+ * @author Igor Sytnik
+ * @see ShamirScheme
+ * @see GF256Scheme
+ */
+public interface SharingScheme {
+
+    /**
+     * @return a type that is stored with the user to find this scheme again on login.
+     */
+    SchemeType getType();
+
+    /**
+     * Splits <b>secret</b> into <b>available</b> shares,
+     * <b>needed</b> number of which are needed for the <b>secret</b> reconstruction.
+     *
+     * @param secret a non-negative secret to split.
+     * @param needed a number of shares needed for restoring the <b>secret</b>.
+     * @param available a number of resulting shares.
+     * @param random an instance of a random number generator.
+     * @return generated shares.
+     */
+    SecretShare[] split(BigInteger secret, int needed, int available, Random random);
+
+    /**
+     * Combines <b>shares</b> into a secret.
+     *
+     * @param shares shares that the secret was split into.
+     * @return a secret from combining all the <b>shares</b>.
+     */
+    BigInteger combine(SecretShare[] shares);
+}
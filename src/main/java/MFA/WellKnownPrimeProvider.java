@@ -0,0 +1,44 @@
+package MFA;
+
+import java.math.BigInteger;
+
+/**
+ * Returns the smallest Mersenne prime that is greater than the secret.
+ *
+ * <p>No prime is generated at all, so splitting costs only the split itself.
+ * The prime is stored next to the shares anyway, so using a public one
+ * doesn't make the scheme weaker.
+ *
+ * @author Igor Sytnik
+ */
+public class WellKnownPrimeProvider implements PrimeProvider {
+
+    /**
+     * Exponents <i>e</i> for which 2<sup><i>e</i></sup> - 1 is prime.
+     */
+    private static final int[] MERSENNE_EXPONENTS = {
+            61, 89, 107, 127, 521, 607, 1279, 2203, 2281, 3217, 4253, 4423, 9689, 9941, 11213
+    };
+    private static final BigInteger[] PRIMES = new BigInteger[MERSENNE_EXPONENTS.length];
+
+    static {
+        for (int i = 0; i < MERSENNE_EXPONENTS.length; i++) {
+            PRIMES[i] = BigInteger.ONE.shiftLeft(MERSENNE_EXPONENTS[i]).subtract(BigInteger.ONE);
+        }
+    }
+
+    /**
+     * @param secret a secret that is going to be split modulo the returned prime.
+     * @return the smallest known Mersenne prime greater than <b>secret</b>.
+     * @throws IllegalArgumentException if <b>secret</b> is larger than every known prime.
+     */
+    @Override
+    public BigInteger primeFor(BigInteger secret) {
+        int bitLength = secret.bitLength();
+        for (int i = 0; i < MERSENNE_EXPONENTS.length; i++) {
+            if (MERSENNE_EXPONENTS[i] > bitLength)
+                return PRIMES[i];
+        }
+        throw new IllegalArgumentException("Secret is too large: " + bitLength + " bits");
+    }
+}
@@ -1,13 +1,28 @@
 package controllers;
 
+import MFA.CombineMode;
+import MFA.FeldmanScheme;
+import MFA.LagrangeCache;
 import MFA.Manager;
+import MFA.ParallelSplit;
+import MFA.PrimePool;
+import MFA.PrimeProvider;
+import MFA.SchemeType;
 import MFA.SecretShare;
+import MFA.ShareCodec;
+import exceptions.LoginThrottledException;
 import exceptions.RegistrationException;
+import pojo.AuthenticationResult;
 import pojo.LoginClass;
+import pojo.RegistrationClass;
+import pojo.RegistrationResult;
 import pojo.UserBase;
+import services.LoginThrottle;
 import services.ShareSenderService;
+import services.VirtualThreads;
+import services.user.LoginMetadata;
 import services.user.UserService;
-import org.springframework.data.domain.Example;
+import services.user.UserStorage;
 
 import javax.security.auth.login.LoginException;
 import javax.validation.constraints.NotEmpty;
@@ -16,11 +31,22 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.ParameterizedType;
 import java.math.BigInteger;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -31,6 +57,12 @@ import java.util.stream.Collectors;
  * {@link AuthController} should be annotated with
  * {@link org.springframework.stereotype.Controller}.
  *
+ * <p>The controller keeps no per-login state, so it can be a singleton
+ * shared by all request threads.
+ *
+ * <p>The {@code *Async} methods run the same flows on {@link AuthController#getRequestExecutor()},
+ * e.g. on virtual threads, with the CPU-heavy steps handed to {@link AuthController#getCryptoExecutor()}.
+ *
  * @param <U> user type. Must extend {@link UserBase}.
  * @author Igor Sytnik
  */
@@ -38,6 +70,20 @@ public abstract class AuthController<U extends UserBase<?>> {
 
     protected abstract UserService<U, ?> getUserService();
     protected abstract ShareSenderService getShareSenderService();
+
+    /**
+     * A source of primes for registration.
+     *
+     * <p>Override to return a {@link PrimePool} sized for the expected load, a
+     * {@link MFA.WellKnownPrimeProvider}, or {@code null} to generate every prime
+     * in {@link Manager} on the request thread.
+     *
+     * @return {@link PrimePool#shared()} by default, so registration rarely
+     * waits for a prime to be generated.
+     */
+    protected PrimeProvider getPrimeProvider() {
+        return PrimePool.shared();
+    }
     private Constructor<U> userConstructorNoPar;
 
     {
@@ -50,122 +96,261 @@ public abstract class AuthController<U extends UserBase<?>> {
         }
     }
 
+    /**
+     * A secret share scheme new users are registered with.
+     *
+     * <p>The scheme is stored per user, so changing it doesn't affect existing users.
+     * {@link SchemeType#GF256} and the Mersenne schemes need no prime, so none is
+     * generated at registration or stored with the user. {@link SchemeType#FELDMAN_2048}
+     * stores commitments instead, and shares are checked against them on login, except for
+     * users registered with {@link AuthController#registerEmailShares(String, BigInteger, Integer, Integer, String)}:
+     * their stored share and commitments would reveal g<sup>secret</sup>, see {@link FeldmanScheme}.
+     *
+     * @return {@link SchemeType#SHAMIR_PRIME} by default.
+     */
+    protected SchemeType getSchemeType() {
+        return SchemeType.SHAMIR_PRIME;
+    }
+
+    /**
+     * A cache of Lagrange coefficients shared by all logins.
+     *
+     * <p>Override to return a shared {@link LagrangeCache} instance
+     * to skip recomputing coefficients for share sets seen before.
+     *
+     * @return {@code null} by default, meaning no caching.
+     */
+    protected LagrangeCache getLagrangeCache() {
+        return null;
+    }
+
+    /**
+     * How shares are combined on login when {@link AuthController#getLagrangeCache()}
+     * returns {@code null}.
+     *
+     * @return {@link CombineMode#STANDARD} by default.
+     */
+    protected CombineMode getCombineMode() {
+        return CombineMode.STANDARD;
+    }
+
+    /**
+     * A pool {@link Manager}s are created on by
+     * {@link AuthController#registerMany(Collection, int, Consumer)}.
+     *
+     * @return {@link ForkJoinPool#commonPool()} by default.
+     */
+    protected ForkJoinPool getRegistrationPool() {
+        return ForkJoinPool.commonPool();
+    }
+
+    /**
+     * When and where registrations evaluate shares, and logins combine blocks of Mersenne
+     * secrets, in parallel. {@link AuthController#registerMany(Collection, int, Consumer)}
+     * is parallel across users already, so only its splits above
+     * {@link ParallelSplit#getThreshold()} are split further.
+     *
+     * <p>Override to return e.g. {@link ParallelSplit#commonPool()} if users
+     * have many shares over big secrets.
+     *
+     * @return {@code null} by default, meaning shares are evaluated sequentially.
+     */
+    protected ParallelSplit getParallelSplit() {
+        return null;
+    }
+
+    /**
+     * An executor the {@code *Async} methods run the blocking flows on.
+     *
+     * <p>Override to return {@link VirtualThreads#newVirtualThreadPerTaskExecutor()}
+     * on Java 21 or later, so that a login waiting for the database or mail server
+     * only holds a virtual thread. Use it together with {@link AuthController#getCryptoExecutor()}.
+     *
+     * @return {@code null} by default, meaning the {@code *Async} methods run on the calling thread.
+     */
+    protected ExecutorService getRequestExecutor() {
+        return null;
+    }
+
+    /**
+     * A bounded pool of platform threads {@link Manager}s split and combine shares
+     * and new passwords are hashed on, while the calling thread waits.
+     *
+     * <p>Override to return a shared {@link VirtualThreads#newCryptoPool(int)} when the
+     * flows run on virtual threads, so that CPU-heavy work doesn't occupy their carriers.
+     * Checking passwords on login is offloaded by {@link UserService#getPasswordVerifier()}.
+     *
+     * @return {@code null} by default, meaning it's done on the calling thread.
+     */
+    protected ExecutorService getCryptoExecutor() {
+        return null;
+    }
+
+    /**
+     * A throttle login attempts go through before any lookup.
+     *
+     * <p>Override to return a shared {@link LoginThrottle}, so that floods of attempts
+     * are rejected without touching the database or combining shares.
+     *
+     * @return {@code null} by default, meaning attempts aren't throttled.
+     */
+    protected LoginThrottle getLoginThrottle() {
+        return null;
+    }
+
     /**
      * Logins the user with credentials given in <b>loginClass</b>.
+     * Throttled by username only.
      *
      * @param loginClass class that has username and password fields with
      *                   according getters and setters.
-     * @return true if login was successful, otherwise false.
+     * @return an {@link AuthenticationResult} that is authorised if login was successful.
      * @throws LoginException if user wasn't found.
+     * @see AuthController#loginShares(LoginClass, String)
      */
-    public boolean loginShares(LoginClass loginClass) throws LoginException {
-        U user = getUserService().findByUsername(loginClass.getUsername());
+    public AuthenticationResult loginShares(LoginClass loginClass) throws LoginException {
+        return loginShares(loginClass, null);
+    }
+
+    /**
+     * Logins the user with credentials given in <b>loginClass</b>.
+     *
+     * <p>The user is looked up with {@link UserService#findLoginMetadata(String)},
+     * so repeated logins can be served from a cache. Nothing is stored in
+     * the controller or the service, the outcome is only returned to the caller.
+     *
+     * <p>The attempt first goes through {@link AuthController#getLoginThrottle()}.
+     * If the user has {@link LoginMetadata#getCommitments()}, the shares are checked
+     * against them first, and a bad one denies access without combining or hashing.
+     *
+     * @param loginClass class that has username and password fields with
+     *                   according getters and setters.
+     * @param clientKey a key of the client, e.g. its address, or <i>null</i> if unknown.
+     * @return an {@link AuthenticationResult} that is authorised if login was successful.
+     * @throws LoginThrottledException if there were too many attempts.
+     * @throws LoginException if user wasn't found.
+     */
+    public AuthenticationResult loginShares(LoginClass loginClass, String clientKey) throws LoginException {
+        LoginThrottle throttle = getLoginThrottle();
+        if (throttle != null && !throttle.tryAcquire(loginClass.getUsername(), clientKey))
+            throw new LoginThrottledException("Too many login attempts, try again later");
+        LoginMetadata user = getUserService().findLoginMetadata(loginClass.getUsername());
+        if (user == null)
+            throw new LoginException("Couldn't find user.");
         List<String> list = loginClass.getPasswordFields()
                 .stream()
                 .filter(passwordField -> !passwordField.isEmpty())
                 .collect(Collectors.toList())
         ;
 
-        Manager manager = new Manager(user.getPrime());
-        SecretShare[] shares = getShares(list, Pattern.compile("(\\d+)-(\\d+)"));
-        user.setPassword(manager.getAccess(shares).toString());
-        return getUserService().getAccess(user);
+        SecretShare[] shares = getShares(list);
+        BigInteger[] commitments = user.getCommitments();
+        BigInteger secret = compute(() -> {
+            if (commitments != null && !FeldmanScheme.verify(shares, commitments))
+                return null;
+            Manager manager = new Manager(user.getScheme(), user.getPrime(), getLagrangeCache(),
+                    getParallelSplit());
+            manager.setCombineMode(getCombineMode());
+            return manager.getAccess(shares);
+        });
+        if (secret == null)
+            return AuthenticationResult.denied(user.getUsername());
+        return getUserService().getAccess(user, secret);
     }
 
     /**
-     * Get the authorised user.
+     * Runs {@link AuthController#loginShares(LoginClass, String)} on {@link AuthController#getRequestExecutor()}.
      *
-     * @return {@link UserService}'s user object of class {@code U}.
-     * @throws GeneralSecurityException if {@link AuthController#isAuthorised()}
-     * value is {@code false}.
-     * @see U
+     * @param loginClass class that has username and password fields with
+     *                   according getters and setters.
+     * @param clientKey a key of the client, e.g. its address, or <i>null</i> if unknown.
+     * @return a future of an {@link AuthenticationResult}, completed exceptionally
+     * with what {@link AuthController#loginShares(LoginClass, String)} throws.
      */
-    public U getUser() throws GeneralSecurityException {
-        if (!isAuthorised())
-            throw new GeneralSecurityException("User is not authorised");
-        return getUserService().getUser();
+    public CompletableFuture<AuthenticationResult> loginSharesAsync(LoginClass loginClass, String clientKey) {
+        return submit(() -> loginShares(loginClass, clientKey));
     }
 
     /**
-     * Check if user is authorised.
+     * Get the user that <b>result</b> was issued for.
      *
-     * @return {@link AuthController#getUserService()}'s
-     * <b>isAuthorised</b> {@code boolean} value.
+     * @param result a result of {@link AuthController#loginShares(LoginClass)}.
+     * @return {@link UserService}'s user object of class {@code U}.
+     * @throws GeneralSecurityException if <b>result</b> is not authorised.
+     * @see U
      */
-    public boolean isAuthorised() {
-        return getUserService().isAuthorised();
+    public U getUser(AuthenticationResult result) throws GeneralSecurityException {
+        if (!result.isAuthorised())
+            throw new GeneralSecurityException("User is not authorised");
+        return getUserService().lookupByUsername(result.getUsername());
     }
 
     /**
      * Checks if user <b>user</b> exists and then returns {@link UserBase#getSharesNeeded()}
      *
-     * <p>Checks by example if the <b>user</b> exists. Looks for the user by its username.
+     * <p>Looks for the user by its username with a single
+     * {@link UserService#findSharesNeededByUsername(String)} query.
      *
-     * @param user user to make example of. {@link UserService#checkIfExists(UserBase)}
-     *             will search user by example, meaning only by
-     *             attributes that are not <i>null</i>.
+     * @param user user whose username is looked for.
      * @return number of passwords needed for authentication of the user <b>user</b>.
      * @throws GeneralSecurityException if user wasn't found.
-     * @see org.springframework.data.jpa.repository.JpaRepository#exists(Example)
      */
     public Integer checkAndGetNumberOfPasswordsNeeded(U user) throws GeneralSecurityException {
-        if (!getUserService().checkIfExists(user))
+        Integer sharesNeeded = getUserService().findSharesNeededByUsername(user.getUsername());
+        if (sharesNeeded == null)
             throw new GeneralSecurityException("Couldn't find user.");
-        return getUserService().findByUsername(user.getUsername()).getSharesNeeded();
+        return sharesNeeded;
     }
 
     /**
      * Checks if user <b>user</b> exists and then returns it.
      *
-     * <p>Checks by example if the <b>user</b> exists. Looks for the user by its username.
+     * <p>Looks for the user by its username.
      *
-     * @param user user to make example of. {@link UserService#checkIfExists(UserBase)}
-     *             will search user by example, meaning only by
-     *             attributes that are not <i>null</i>.
+     * @param user user whose username is looked for.
      * @throws GeneralSecurityException if user wasn't found.
      */
     public U checkAndGetUser(U user) throws GeneralSecurityException {
-        if (!getUserService().checkIfExists(user))
+        U found = getUserService().lookupByUsername(user.getUsername());
+        if (found == null)
             throw new GeneralSecurityException("Couldn't find user.");
-        return getUserService().findByUsername(user.getUsername());
+        return found;
     }
 
     /**
-     * Checks if the <b>user</b> has email sending enabled by calling the
-     * {@link UserBase#getEmailingEnabled()} method.
+     * Checks if the <b>user</b> has email sending enabled.
      *
-     * <p>Checks by example if the <b>user</b> exists. Looks for the user by its username.
+     * <p>Looks for the user by its username with a single
+     * {@link UserService#findEmailingEnabledByUsername(String)} query.
      *
-     * @param user user to make example of. {@link UserService#checkIfExists(UserBase)}
-     *             will search user by example, meaning only by
-     *             attributes that are not <i>null</i>.
+     * @param user user whose username is looked for.
      * @return {@code true} if <b>user</b> has emailing enabled, otherwise {@code false}.
      * @throws GeneralSecurityException if user wasn't found.
-     * @see org.springframework.data.jpa.repository.JpaRepository#exists(Example)
      */
     public Boolean checkEmailingEnabled(U user) throws GeneralSecurityException {
-        if (!getUserService().checkIfExists(user))
+        Boolean emailingEnabled = getUserService().findEmailingEnabledByUsername(user.getUsername());
+        if (emailingEnabled == null)
             throw new GeneralSecurityException("Couldn't find user.");
-        return getUserService().findByUsername(user.getUsername()).getEmailingEnabled();
+        return emailingEnabled;
     }
 
     /**
      * Sends saved share through email to <b>user</b>.
      *
-     * <p>Checks by example if the <b>user</b> exists. Looks for the user by its username.
+     * <p>Looks for the user by its username.
      *
-     * @param user user to make example of. {@link UserService#checkIfExists(UserBase)}
-     *             will search user by example, meaning only by
-     *             attributes that are not <i>null</i>.
+     * @param user user whose username is looked for.
+     * @return a future that completes once the email is sent.
      * @throws Exception if user wasn't found or if there is something
      * wrong with emailing.
      * @see ShareSenderService#sendShareEmail(UserBase)
      */
-    public void sendShare(U user)
+    public CompletableFuture<Void> sendShare(U user)
             throws Exception {
-        if (!getUserService().checkIfExists(user))
+        U found = getUserService().lookupByUsername(user.getUsername());
+        if (found == null)
             throw new LoginException("Couldn't find user.");
-        getShareSenderService().sendShareEmail(getUserService().findByUsername(user.getUsername()));
+        return getShareSenderService().sendShareEmail(found);
     }
 
     /**
@@ -190,13 +375,16 @@ public abstract class AuthController<U extends UserBase<?>> {
             throws RegistrationException, InvocationTargetException, InstantiationException, IllegalAccessException {
         U user = userConstructorNoPar.newInstance();
         user.setUsername(username);
-        if (getUserService().checkIfExists(user))
+        if (getUserService().existsByUsername(username))
             throw new RegistrationException("Username already taken.");
-        Manager manager = new Manager(password, needed, available);
-        user.setPassword(password.toString());
+        Manager manager = compute(() -> new Manager(password, needed, available, getSchemeType(),
+                getPrimeProvider(), getParallelSplit()));
+        UserStorage.setPasswordDigest(user, compute(() -> getUserService().hashPassword(password.toString())));
         user.setSharesNeeded(needed);
         user.setSharesAvailable(available);
-        user.setPrime(manager.getPrime());
+        UserStorage.setPrime(user, manager.getPrime());
+        user.setScheme(manager.getSchemeType());
+        UserStorage.setCommitments(user, manager.getCommitments());
         user.setEmailingEnabled(false);
         getUserService().update(user);
         return manager.getShares();
@@ -206,7 +394,8 @@ public abstract class AuthController<U extends UserBase<?>> {
      * Registers user with these credentials.
      *
      * <p>The first of the generated {@link SecretShare}s is written
-     * to the user and saved to database.
+     * to the user and saved to database. No commitments of {@link SchemeType#FELDMAN_2048}
+     * are stored with it, so the shares of this user aren't checked before combining.
      *
      * @param username user's username.
      * @param password user's password.
@@ -229,51 +418,269 @@ public abstract class AuthController<U extends UserBase<?>> {
             throws RegistrationException, InvocationTargetException, InstantiationException, IllegalAccessException {
         U user = userConstructorNoPar.newInstance();
         user.setUsername(username);
-        if (getUserService().checkIfExists(user))
+        if (getUserService().existsByUsername(username))
             throw new RegistrationException("Username already taken.");
-        Manager manager = new Manager(password, needed, available);
-        user.setPassword(password.toString());
+        Manager manager = compute(() -> new Manager(password, needed, available, getSchemeType(),
+                getPrimeProvider(), getParallelSplit()));
+        UserStorage.setPasswordDigest(user, compute(() -> getUserService().hashPassword(password.toString())));
         user.setSharesNeeded(needed);
         user.setSharesAvailable(available);
-        user.setPrime(manager.getPrime());
+        UserStorage.setPrime(user, manager.getPrime());
+        user.setScheme(manager.getSchemeType());
+        // Commitments and the stored share would reveal g^secret, see FeldmanScheme
+        UserStorage.setCommitments(user, null);
         user.setEmail(email);
         user.setEmailingEnabled(true);
-        user.setShareForEmail(manager.getShares()[0].toString());
+        UserStorage.setShareForEmail(user, ShareCodec.encode(manager.getShares()[0], manager.getShareWidth()));
         getUserService().update(user);
         return Arrays.copyOfRange(manager.getShares(), 1, manager.getShares().length);
     }
 
     /**
-     * Finds matches in <b>list</b> by pattern <b>pattern</b>
-     * and returns an array of {@link SecretShare} objects,
-     * that are constructed from these matches.
+     * Runs {@link AuthController#register(String, BigInteger, Integer, Integer)}
+     * on {@link AuthController#getRequestExecutor()}.
+     *
+     * @param username user's username.
+     * @param password user's password.
+     * @param needed user's number of shares that are needed for authentication.
+     * @param available user's number of shares will be generated.
+     * @return a future of the shares, completed exceptionally with what
+     * {@link AuthController#register(String, BigInteger, Integer, Integer)} throws.
+     */
+    public CompletableFuture<SecretShare[]> registerAsync(String username, BigInteger password,
+                                                          Integer needed, Integer available) {
+        return submit(() -> register(username, password, needed, available));
+    }
+
+    /**
+     * Runs {@link AuthController#registerEmailShares(String, BigInteger, Integer, Integer, String)}
+     * on {@link AuthController#getRequestExecutor()}.
+     *
+     * @param username user's username.
+     * @param password user's password.
+     * @param needed user's number of shares that are needed for authentication.
+     * @param available user's number of shares will be generated.
+     * @param email user's email address.
+     * @return a future of the shares, completed exceptionally with what
+     * {@link AuthController#registerEmailShares(String, BigInteger, Integer, Integer, String)} throws.
+     */
+    public CompletableFuture<SecretShare[]> registerEmailSharesAsync(String username, BigInteger password,
+                                                                     Integer needed, Integer available,
+                                                                     String email) {
+        return submit(() -> registerEmailShares(username, password, needed, available, email));
+    }
+
+    /**
+     * Runs {@link AuthController#sendShare(UserBase)} on {@link AuthController#getRequestExecutor()}.
+     *
+     * @param user user whose username is looked for.
+     * @return a future that completes once the email is sent.
+     */
+    public CompletableFuture<Void> sendShareAsync(U user) {
+        return submit(() -> sendShare(user)).thenCompose(sent -> sent);
+    }
+
+    /**
+     * Registers many users at once.
+     *
+     * <p><b>registrations</b> are processed in batches of <b>batchSize</b>. For every batch
+     * taken usernames are found with a single {@link UserService#findExistingUsernames(Collection)}
+     * call, shares are generated in parallel on {@link AuthController#getRegistrationPool()},
+     * and new users are saved with a single {@link UserService#createMany(Collection)} call.
+     * For the inserts to be batched, JDBC batching has to be enabled, e.g. with
+     * {@code spring.jpa.properties.hibernate.jdbc.batch_size}.
+     *
+     * <p>Registrations with an email are registered as in
+     * {@link AuthController#registerEmailShares(String, BigInteger, Integer, Integer, String)},
+     * the rest as in {@link AuthController#register(String, BigInteger, Integer, Integer)}.
+     *
+     * @param registrations credentials of the users to register.
+     * @param batchSize a number of users checked, generated and saved together.
+     * @param results receives a {@link RegistrationResult} for every registration
+     *                as soon as its batch is done. Failed registrations carry
+     *                a {@link RegistrationException} if the username is taken.
+     * @throws InterruptedException if interrupted while waiting for shares to be generated.
+     */
+    public void registerMany(Collection<RegistrationClass> registrations, int batchSize,
+                             Consumer<RegistrationResult> results) throws InterruptedException {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("Batch size must be positive");
+        Set<String> seen = new HashSet<>();
+        List<RegistrationClass> batch = new ArrayList<>(batchSize);
+        for (RegistrationClass registration : registrations) {
+            if (!seen.add(registration.getUsername())) {
+                results.accept(RegistrationResult.failure(registration.getUsername(),
+                        new RegistrationException("Username already taken.")));
+                continue;
+            }
+            batch.add(registration);
+            if (batch.size() == batchSize) {
+                registerBatch(batch, results);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty())
+            registerBatch(batch, results);
+    }
+
+    /**
+     * Registers a single batch for {@link AuthController#registerMany(Collection, int, Consumer)}.
+     */
+    private void registerBatch(List<RegistrationClass> batch, Consumer<RegistrationResult> results)
+            throws InterruptedException {
+        Set<String> existing = getUserService().findExistingUsernames(batch.stream()
+                .map(RegistrationClass::getUsername)
+                .collect(Collectors.toList()));
+        List<RegistrationClass> fresh = new ArrayList<>(batch.size());
+        for (RegistrationClass registration : batch) {
+            if (existing.contains(registration.getUsername()))
+                results.accept(RegistrationResult.failure(registration.getUsername(),
+                        new RegistrationException("Username already taken.")));
+            else
+                fresh.add(registration);
+        }
+
+        List<PendingRegistration<U>> pending;
+        try {
+            pending = getRegistrationPool().submit(() -> fresh.parallelStream()
+                    .map(this::prepareRegistration)
+                    .collect(Collectors.toList())).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Couldn't generate shares", e.getCause());
+        }
+
+        List<U> users = pending.stream()
+                .filter(registration -> registration.failure == null)
+                .map(registration -> registration.user)
+                .collect(Collectors.toList());
+        RuntimeException saveFailure = null;
+        if (!users.isEmpty()) {
+            try {
+                getUserService().createMany(users);
+            } catch (RuntimeException e) {
+                saveFailure = e;
+            }
+        }
+        for (PendingRegistration<U> registration : pending) {
+            if (registration.failure != null)
+                results.accept(RegistrationResult.failure(registration.username, registration.failure));
+            else if (saveFailure != null)
+                results.accept(RegistrationResult.failure(registration.username, saveFailure));
+            else
+                results.accept(RegistrationResult.success(registration.username, registration.shares));
+        }
+    }
+
+    /**
+     * Creates a user with shares for <b>registration</b>, without saving it.
+     * Never throws, a failure is returned in {@link PendingRegistration#failure}.
+     */
+    private PendingRegistration<U> prepareRegistration(RegistrationClass registration) {
+        try {
+            U user = userConstructorNoPar.newInstance();
+            Manager manager = new Manager(registration.getPassword(), registration.getSharesNeeded(),
+                    registration.getSharesAvailable(), getSchemeType(), getPrimeProvider(),
+                    getParallelSplit());
+            user.setUsername(registration.getUsername());
+            UserStorage.setPasswordDigest(user, getUserService().hashPassword(registration.getPassword().toString()));
+            user.setSharesNeeded(registration.getSharesNeeded());
+            user.setSharesAvailable(registration.getSharesAvailable());
+            UserStorage.setPrime(user, manager.getPrime());
+            user.setScheme(manager.getSchemeType());
+            // Commitments and a stored share would reveal g^secret, see FeldmanScheme
+            UserStorage.setCommitments(user, registration.getEmail() == null ? manager.getCommitments() : null);
+            SecretShare[] shares = manager.getShares();
+            if (registration.getEmail() == null) {
+                user.setEmailingEnabled(false);
+            } else {
+                user.setEmail(registration.getEmail());
+                user.setEmailingEnabled(true);
+                UserStorage.setShareForEmail(user, ShareCodec.encode(shares[0], manager.getShareWidth()));
+                shares = Arrays.copyOfRange(shares, 1, shares.length);
+            }
+            return new PendingRegistration<>(registration.getUsername(), user, shares, null);
+        } catch (Exception e) {
+            return new PendingRegistration<>(registration.getUsername(), null, null, e);
+        }
+    }
+
+    /**
+     * Runs <b>task</b> on {@link AuthController#getRequestExecutor()}, or right away if there is none.
+     */
+    private <T> CompletableFuture<T> submit(Callable<T> task) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final Runnable run = () -> {
+            try {
+                future.complete(task.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        };
+        final ExecutorService executor = getRequestExecutor();
+        if (executor == null) {
+            run.run();
+        } else {
+            try {
+                executor.execute(run);
+            } catch (RejectedExecutionException e) {
+                future.completeExceptionally(e);
+            }
+        }
+        return future;
+    }
+
+    /**
+     * Runs <b>task</b> on {@link AuthController#getCryptoExecutor()} and waits for it,
+     * or runs it right away if there is none.
+     */
+    private <T> T compute(Supplier<T> task) {
+        final ExecutorService executor = getCryptoExecutor();
+        if (executor == null)
+            return task.get();
+        try {
+            return CompletableFuture.supplyAsync(task, executor).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Parses every entered password in <b>list</b> into a {@link SecretShare}.
+     *
+     * <p>Both the legacy decimal format and the compact format are accepted.
      *
      * @param list list of {@link String} representing entered passwords.
-     * @param pattern a {@link Pattern} object to find matches by.
      * @return array of {@link SecretShare} objects.
-     * @see AuthController#findMatches(Matcher)
+     * @throws NoSuchElementException if a password is not a share.
+     * @see ShareCodec#decode(String)
      */
-    private SecretShare[] getShares(List<String> list, Pattern pattern) {
+    private SecretShare[] getShares(List<String> list) throws NoSuchElementException {
         SecretShare[] shares = new SecretShare[list.size()];
         for (int i = 0; i < list.size(); i++) {
-            shares[i] = findMatches(pattern.matcher(list.get(i)));
+            shares[i] = ShareCodec.decode(list.get(i));
         }
         return shares;
     }
 
     /**
-     * Finds matches in <b>matches</b> parameter and returns a {@link SecretShare}
-     * object, constructed from these matches.<br>
-     * A helper method for {@link AuthController#getShares(List, Pattern)}.
-     *
-     * @param matcher object of class {@link Matcher} with pattern to parse password.
-     * @return a {@link SecretShare} object constructed from matched groups in <b>matcher</b>.
-     * @throws NoSuchElementException if no matches were found.
+     * A user created by {@link AuthController#prepareRegistration(RegistrationClass)}
+     * that is waiting to be saved, or the reason it couldn't be created.
      */
-    private SecretShare findMatches(Matcher matcher) throws NoSuchElementException {
-        if (!matcher.find()) {
-            throw new NoSuchElementException("No matches found in " + matcher);
+    private static class PendingRegistration<U> {
+        final String username;
+        final U user;
+        final SecretShare[] shares;
+        final Exception failure;
+
+        PendingRegistration(String username, U user, SecretShare[] shares, Exception failure) {
+            this.username = username;
+            this.user = user;
+            this.shares = shares;
+            this.failure = failure;
         }
-        return new SecretShare(Integer.parseInt(matcher.group(1)), new BigInteger(matcher.group(2)));
     }
 }
@@ -0,0 +1,314 @@
+package controllers;
+
+import MFA.CombineMode;
+import MFA.FeldmanScheme;
+import MFA.LagrangeCache;
+import MFA.Manager;
+import MFA.ParallelSplit;
+import MFA.PrimePool;
+import MFA.PrimeProvider;
+import MFA.SchemeType;
+import MFA.SecretShare;
+import MFA.ShareCodec;
+import exceptions.LoginThrottledException;
+import exceptions.RegistrationException;
+import pojo.AuthenticationResult;
+import pojo.LoginClass;
+import pojo.UserBase;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import services.LoginThrottle;
+import services.ShareSenderService;
+import services.user.LoginMetadata;
+import services.user.ReactiveUserService;
+import services.user.UserStorage;
+
+import javax.security.auth.login.LoginException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.ParameterizedType;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Collectors;
+
+/**
+ * The base for a non-blocking <i>authentication controller</i> class,
+ * the reactive counterpart of {@link AuthController}.
+ *
+ * <p>Users are looked up through a {@link ReactiveUserService}. Splitting and
+ * combining shares runs on {@link ReactiveAuthController#getCryptoScheduler()},
+ * so request threads only wait on I/O, and a few threads can hold many logins
+ * in flight. If you are using Spring WebFlux, the class that extends
+ * {@link ReactiveAuthController} should be annotated with
+ * {@link org.springframework.stereotype.Controller}.
+ *
+ * <p>Nothing happens until the returned {@link Mono}s are subscribed to.
+ *
+ * @param <U> user type. Must extend {@link UserBase}.
+ * @author Igor Sytnik
+ */
+public abstract class ReactiveAuthController<U extends UserBase<?>> {
+
+    protected abstract ReactiveUserService<U, ?> getUserService();
+    protected abstract ShareSenderService getShareSenderService();
+
+    private Constructor<U> userConstructorNoPar;
+
+    {
+        try {
+            Class<U> userClass = (Class<U>) ((ParameterizedType) getClass()
+                    .getGenericSuperclass()).getActualTypeArguments()[0];
+            this.userConstructorNoPar = userClass.getConstructor();
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("User type has no public no-argument constructor", e);
+        }
+    }
+
+    /**
+     * A bounded scheduler {@link Manager}s split and combine shares on.
+     *
+     * @return {@link Schedulers#parallel()} by default, one thread per core.
+     */
+    protected Scheduler getCryptoScheduler() {
+        return Schedulers.parallel();
+    }
+
+    /**
+     * @return {@link PrimePool#shared()} by default.
+     * @see AuthController#getPrimeProvider()
+     */
+    protected PrimeProvider getPrimeProvider() {
+        return PrimePool.shared();
+    }
+
+    /**
+     * @return {@code null} by default.
+     * @see AuthController#getParallelSplit()
+     */
+    protected ParallelSplit getParallelSplit() {
+        return null;
+    }
+
+    /**
+     * @return {@link SchemeType#SHAMIR_PRIME} by default.
+     * @see AuthController#getSchemeType()
+     */
+    protected SchemeType getSchemeType() {
+        return SchemeType.SHAMIR_PRIME;
+    }
+
+    /**
+     * @return {@code null} by default.
+     * @see AuthController#getLagrangeCache()
+     */
+    protected LagrangeCache getLagrangeCache() {
+        return null;
+    }
+
+    /**
+     * @return {@link CombineMode#STANDARD} by default.
+     * @see AuthController#getCombineMode()
+     */
+    protected CombineMode getCombineMode() {
+        return CombineMode.STANDARD;
+    }
+
+    /**
+     * @return {@code null} by default.
+     * @see AuthController#getLoginThrottle()
+     */
+    protected LoginThrottle getLoginThrottle() {
+        return null;
+    }
+
+    /**
+     * Logins the user with credentials given in <b>loginClass</b>.
+     * Throttled by username only.
+     *
+     * @param loginClass class that has username and password fields with
+     *                   according getters and setters.
+     * @return an {@link AuthenticationResult} that is authorised if login was successful.
+     * @see ReactiveAuthController#loginShares(LoginClass, String)
+     */
+    public Mono<AuthenticationResult> loginShares(LoginClass loginClass) {
+        return loginShares(loginClass, null);
+    }
+
+    /**
+     * Logins the user with credentials given in <b>loginClass</b>.
+     *
+     * @param loginClass class that has username and password fields with
+     *                   according getters and setters.
+     * @param clientKey a key of the client, e.g. its address, or <i>null</i> if unknown.
+     * @return an {@link AuthenticationResult} that is authorised if login was successful,
+     * or an error with {@link LoginThrottledException} if there were too many attempts,
+     * {@link LoginException} if user wasn't found or {@link NoSuchElementException}
+     * if a password is not a share.
+     * @see AuthController#loginShares(LoginClass, String)
+     */
+    public Mono<AuthenticationResult> loginShares(LoginClass loginClass, String clientKey) {
+        return Mono.defer(() -> {
+            LoginThrottle throttle = getLoginThrottle();
+            if (throttle != null && !throttle.tryAcquire(loginClass.getUsername(), clientKey))
+                return Mono.error(new LoginThrottledException("Too many login attempts, try again later"));
+            return getUserService().findLoginMetadata(loginClass.getUsername())
+                    .switchIfEmpty(Mono.error(() -> new LoginException("Couldn't find user.")))
+                    .publishOn(getCryptoScheduler())
+                    .flatMap(user -> {
+                        BigInteger secret = combine(user, loginClass);
+                        return secret == null
+                                ? Mono.just(AuthenticationResult.denied(user.getUsername()))
+                                : getUserService().getAccess(user, secret);
+                    });
+        });
+    }
+
+    /**
+     * Get the user that <b>result</b> was issued for.
+     *
+     * @param result a result of {@link ReactiveAuthController#loginShares(LoginClass)}.
+     * @return {@link ReactiveUserService}'s user object of class {@code U},
+     * or an error with {@link GeneralSecurityException} if <b>result</b> is not authorised.
+     */
+    public Mono<U> getUser(AuthenticationResult result) {
+        if (!result.isAuthorised())
+            return Mono.error(new GeneralSecurityException("User is not authorised"));
+        return getUserService().findByUsername(result.getUsername());
+    }
+
+    /**
+     * @param user user whose username is looked for.
+     * @return number of passwords needed for authentication of the user <b>user</b>,
+     * or an error with {@link GeneralSecurityException} if user wasn't found.
+     */
+    public Mono<Integer> checkAndGetNumberOfPasswordsNeeded(U user) {
+        return getUserService().findSharesNeededByUsername(user.getUsername())
+                .switchIfEmpty(Mono.error(() -> new GeneralSecurityException("Couldn't find user.")));
+    }
+
+    /**
+     * Sends the stored share to the user.
+     *
+     * <p>Building the message and handing it over may block if the
+     * {@link services.MailService} has no {@link services.MailDispatcher},
+     * so it's done on {@link Schedulers#boundedElastic()}.
+     *
+     * @param user user whose username is looked for.
+     * @return an empty {@link Mono} that completes once the email is sent,
+     * or an error with {@link LoginException} if user wasn't found.
+     * @see ShareSenderService#sendShareEmail(UserBase)
+     */
+    public Mono<Void> sendShare(U user) {
+        return getUserService().findByUsername(user.getUsername())
+                .switchIfEmpty(Mono.error(() -> new LoginException("Couldn't find user.")))
+                .publishOn(Schedulers.boundedElastic())
+                .flatMap(found -> {
+                    try {
+                        return Mono.fromFuture(getShareSenderService().sendShareEmail(found));
+                    } catch (Exception e) {
+                        return Mono.error(e);
+                    }
+                });
+    }
+
+    /**
+     * Registers user with these credentials.
+     *
+     * @param username user's username.
+     * @param password user's password.
+     * @param needed user's number of shares that are needed for authentication.
+     * @param available user's number of shares will be generated.
+     * @return array of {@link SecretShare} objects to share to user,
+     * or an error with {@link RegistrationException} if the username is already taken.
+     * @see AuthController#register(String, BigInteger, Integer, Integer)
+     */
+    public Mono<SecretShare[]> register(String username, BigInteger password,
+                                        Integer needed, Integer available) {
+        return register(username, password, needed, available, null);
+    }
+
+    /**
+     * Registers user with these credentials.
+     *
+     * <p>The first of the generated {@link SecretShare}s is written
+     * to the user and saved to database.
+     *
+     * @param username user's username.
+     * @param password user's password.
+     * @param needed user's number of shares that are needed for authentication.
+     * @param available user's number of shares will be generated.
+     * @param email user's email address.
+     * @return array of {@link SecretShare} objects to share to user,
+     * or an error with {@link RegistrationException} if the username is already taken.
+     * @see AuthController#registerEmailShares(String, BigInteger, Integer, Integer, String)
+     */
+    public Mono<SecretShare[]> registerEmailShares(String username, BigInteger password,
+                                                   Integer needed, Integer available, String email) {
+        return register(username, password, needed, available, email);
+    }
+
+    private Mono<SecretShare[]> register(String username, BigInteger password,
+                                         Integer needed, Integer available, String email) {
+        return getUserService().existsByUsername(username)
+                .flatMap(exists -> exists
+                        ? Mono.<SecretShare[]>error(new RegistrationException("Username already taken."))
+                        : Mono.fromCallable(() -> new Manager(password, needed, available,
+                                getSchemeType(), getPrimeProvider(), getParallelSplit()))
+                        .subscribeOn(getCryptoScheduler())
+                        .zipWith(getUserService().hashPassword(password.toString()))
+                        .flatMap(managerAndDigest -> {
+                            Manager manager = managerAndDigest.getT1();
+                            U user;
+                            try {
+                                user = userConstructorNoPar.newInstance();
+                            } catch (ReflectiveOperationException e) {
+                                return Mono.error(e);
+                            }
+                            user.setUsername(username);
+                            UserStorage.setPasswordDigest(user, managerAndDigest.getT2());
+                            user.setSharesNeeded(needed);
+                            user.setSharesAvailable(available);
+                            UserStorage.setPrime(user, manager.getPrime());
+                            user.setScheme(manager.getSchemeType());
+                            // Commitments and a stored share would reveal g^secret, see FeldmanScheme
+                            UserStorage.setCommitments(user, email == null ? manager.getCommitments() : null);
+                            SecretShare[] shares = manager.getShares();
+                            if (email == null) {
+                                user.setEmailingEnabled(false);
+                            } else {
+                                user.setEmail(email);
+                                user.setEmailingEnabled(true);
+                                UserStorage.setShareForEmail(user, ShareCodec.encode(shares[0], manager.getShareWidth()));
+                                shares = Arrays.copyOfRange(shares, 1, shares.length);
+                            }
+                            final SecretShare[] result = shares;
+                            return getUserService().update(user).thenReturn(result);
+                        }));
+    }
+
+    /**
+     * Combines the shares in <b>loginClass</b> by the scheme of <b>user</b>.
+     *
+     * @return the secret, or <i>null</i> if a share doesn't match the user's commitments.
+     */
+    private BigInteger combine(LoginMetadata user, LoginClass loginClass) throws NoSuchElementException {
+        List<String> list = loginClass.getPasswordFields()
+                .stream()
+                .filter(passwordField -> !passwordField.isEmpty())
+                .collect(Collectors.toList());
+        SecretShare[] shares = new SecretShare[list.size()];
+        for (int i = 0; i < list.size(); i++) {
+            shares[i] = ShareCodec.decode(list.get(i));
+        }
+        BigInteger[] commitments = user.getCommitments();
+        if (commitments != null && !FeldmanScheme.verify(shares, commitments))
+            return null;
+        Manager manager = new Manager(user.getScheme(), user.getPrime(), getLagrangeCache(),
+                getParallelSplit());
+        manager.setCombineMode(getCombineMode());
+        return manager.getAccess(shares);
+    }
+}
@@ -0,0 +1,15 @@
+package exceptions;
+
+import javax.security.auth.login.LoginException;
+
+/**
+ * Thrown when a login is rejected because the server has no capacity
+ * to check it right now. The client may retry later.
+ *
+ * @author Igor Sytnik
+ */
+public class LoginOverloadedException extends LoginException {
+    public LoginOverloadedException(String message) {
+        super(message);
+    }
+}
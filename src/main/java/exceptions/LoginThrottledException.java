@@ -0,0 +1,15 @@
+package exceptions;
+
+import javax.security.auth.login.LoginException;
+
+/**
+ * Thrown when a login is rejected because there were too many attempts
+ * for the username or from the client recently. The client may retry later.
+ *
+ * @author Igor Sytnik
+ */
+public class LoginThrottledException extends LoginException {
+    public LoginThrottledException(String message) {
+        super(message);
+    }
+}
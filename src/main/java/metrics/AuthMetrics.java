@@ -0,0 +1,300 @@
+package metrics;
+
+import MFA.LagrangeCache;
+import MFA.PrimePool;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import services.LoginThrottle;
+import services.MailDispatcher;
+import services.password.PasswordVerifier;
+import services.user.LoginMetadataCache;
+
+/**
+ * Micrometer instrumentation of the authentication pipeline.
+ *
+ * <p>Instrumentation is off until {@link AuthMetrics#enable(MeterRegistry)} is called.
+ * While it is off, {@link AuthMetrics#start()} returns <i>null</i> and instrumented
+ * code skips everything else, tags included, so the only cost is one volatile read.
+ * Instrumented code looks like this:
+ * <pre>{@code
+ * final Timer.Sample sample = AuthMetrics.start();
+ * String outcome = AuthMetrics.ERROR;
+ * try {
+ *     ...
+ *     outcome = AuthMetrics.SUCCESS;
+ * } finally {
+ *     if (sample != null)
+ *         AuthMetrics.stop(sample, AuthMetrics.SHAMIR_SPLIT, outcome, "needed", ...);
+ * }
+ * }</pre>
+ *
+ * <p>Percentiles and histograms of the timers are configured on the registry,
+ * e.g. with a {@link io.micrometer.core.instrument.config.MeterFilter}.
+ *
+ * <p>Micrometer is an optional dependency. Without it on the classpath instrumentation
+ * can't be turned on and {@link AuthMetrics#start()} always returns <i>null</i>. Instrumented
+ * code may declare {@code Timer.Sample} variables and pass them to this class, which doesn't
+ * load Micrometer, but a lambda or method reference must only capture a sample, or take one
+ * as a parameter, on a branch taken when the sample isn't <i>null</i>: linking such a lambda
+ * loads {@code Timer.Sample} and fails with {@link NoClassDefFoundError} without Micrometer.
+ * See {@link services.MailService#sendEmailToUserAsync(pojo.UserBase, String, String)}.
+ *
+ * @author Igor Sytnik
+ */
+public final class AuthMetrics {
+
+    public static final String MANAGER_CREATE = "mfa.manager.create";
+    public static final String MANAGER_PRIME = "mfa.manager.prime";
+    public static final String SHAMIR_SPLIT = "mfa.shamir.split";
+    public static final String SHAMIR_COMBINE = "mfa.shamir.combine";
+    public static final String SHARE_VERIFY = "mfa.share.verify";
+    public static final String USER_FIND = "mfa.user.find";
+    public static final String USER_ACCESS = "mfa.user.access";
+    public static final String PASSWORD_REHASH = "mfa.password.rehash";
+    public static final String REPOSITORY = "mfa.repository";
+    public static final String MAIL_SEND = "mfa.mail.send";
+
+    public static final String SUCCESS = "success";
+    public static final String ERROR = "error";
+
+    private static final double[] LATENCY_PERCENTILES = {0.5, 0.95, 0.99};
+
+    private static final boolean MICROMETER_PRESENT = isPresent("io.micrometer.core.instrument.MeterRegistry");
+
+    private static volatile MeterRegistry registry;
+
+    private AuthMetrics() {
+    }
+
+    /**
+     * Turns instrumentation on.
+     *
+     * @param registry a registry meters are registered in.
+     */
+    public static void enable(MeterRegistry registry) {
+        if (!MICROMETER_PRESENT)
+            throw new IllegalStateException("Micrometer is not on the classpath");
+        AuthMetrics.registry = registry;
+    }
+
+    /**
+     * Turns instrumentation off. Meters already registered are kept.
+     */
+    public static void disable() {
+        registry = null;
+    }
+
+    public static boolean isEnabled() {
+        return registry != null;
+    }
+
+    /**
+     * @return {@code true} if Micrometer is on the classpath, so instrumentation can be turned on.
+     */
+    public static boolean isAvailable() {
+        return MICROMETER_PRESENT;
+    }
+
+    /**
+     * @return a started sample, or <i>null</i> if instrumentation is off.
+     */
+    public static Timer.Sample start() {
+        if (!MICROMETER_PRESENT)
+            return null;
+        final MeterRegistry registry = AuthMetrics.registry;
+        return registry == null ? null : Timer.start(registry);
+    }
+
+    /**
+     * Records <b>sample</b> in the timer <b>name</b>.
+     *
+     * @param sample a sample from {@link AuthMetrics#start()}.
+     * @param name a name of the timer.
+     * @param outcome a value of the {@code outcome} tag.
+     * @param tags other tags as keys followed by values.
+     */
+    public static void stop(Timer.Sample sample, String name, String outcome, String... tags) {
+        final MeterRegistry registry = AuthMetrics.registry;
+        if (sample == null || registry == null)
+            return;
+        sample.stop(Timer.builder(name)
+                .tags(tags)
+                .tag("outcome", outcome)
+                .register(registry));
+    }
+
+    /**
+     * Buckets a bit length to the next power of two, at least 64,
+     * so that random prime lengths don't make a tag value each.
+     *
+     * @param bitLength a bit length of a prime.
+     * @return a value of the {@code bits} tag.
+     */
+    public static String bits(int bitLength) {
+        return Integer.toString(Math.max(64, Integer.highestOneBit(Math.max(bitLength - 1, 1)) << 1));
+    }
+
+    /**
+     * Buckets a number of shares to the next power of two, up to 64, so that arbitrary
+     * counts, whether sent by a client or chosen at registration, don't make a tag value each.
+     *
+     * @param count a number of shares.
+     * @return a value of a share count tag: {@code "0"}, a power of two up to {@code "64"}, or {@code "more"}.
+     */
+    public static String shares(int count) {
+        if (count <= 1)
+            return count <= 0 ? "0" : "1";
+        return count > 64 ? "more" : Integer.toString(Integer.highestOneBit(count - 1) << 1);
+    }
+
+    private static boolean isPresent(String className) {
+        try {
+            Class.forName(className, false, AuthMetrics.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Registers rejection counters and sketch occupancy of <b>throttle</b>.
+     *
+     * @param registry a registry to register in.
+     * @param throttle a throttle to monitor.
+     */
+    public static void monitor(MeterRegistry registry, LoginThrottle throttle) {
+        FunctionCounter.builder("mfa.throttle.allowed", throttle, LoginThrottle::getAllowed)
+                .register(registry);
+        FunctionCounter.builder("mfa.throttle.rejected", throttle, LoginThrottle::getRejectedByUsername)
+                .tag("key", "username")
+                .register(registry);
+        FunctionCounter.builder("mfa.throttle.rejected", throttle, LoginThrottle::getRejectedByClient)
+                .tag("key", "client")
+                .register(registry);
+        Gauge.builder("mfa.throttle.occupancy", throttle, LoginThrottle::getUsernameOccupancy)
+                .tag("key", "username")
+                .register(registry);
+        Gauge.builder("mfa.throttle.occupancy", throttle, LoginThrottle::getClientOccupancy)
+                .tag("key", "client")
+                .register(registry);
+    }
+
+    /**
+     * Registers hit, miss and eviction counters and the size of <b>cache</b>.
+     *
+     * @param registry a registry to register in.
+     * @param cache a cache to monitor.
+     */
+    public static void monitor(MeterRegistry registry, LoginMetadataCache cache) {
+        FunctionCounter.builder("mfa.login.cache.requests", cache, LoginMetadataCache::getHits)
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("mfa.login.cache.requests", cache, LoginMetadataCache::getMisses)
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("mfa.login.cache.evictions", cache, LoginMetadataCache::getEvictions)
+                .register(registry);
+        Gauge.builder("mfa.login.cache.size", cache, LoginMetadataCache::size)
+                .register(registry);
+    }
+
+    /**
+     * Registers hit and miss counters, the number of buckets and the refill lags of <b>pool</b>.
+     *
+     * @param registry a registry to register in.
+     * @param pool a pool to monitor, e.g. {@link PrimePool#shared()}.
+     */
+    public static void monitor(MeterRegistry registry, PrimePool pool) {
+        FunctionCounter.builder("mfa.prime.pool.requests", pool, PrimePool::getHits)
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("mfa.prime.pool.requests", pool, PrimePool::getMisses)
+                .tag("result", "miss")
+                .register(registry);
+        Gauge.builder("mfa.prime.pool.buckets", pool, PrimePool::getBucketCount)
+                .register(registry);
+        Gauge.builder("mfa.prime.pool.refill.lag", pool, PrimePool::getLastRefillLagNanos)
+                .tag("statistic", "last")
+                .baseUnit("nanoseconds")
+                .register(registry);
+        Gauge.builder("mfa.prime.pool.refill.lag", pool, PrimePool::getMaxRefillLagNanos)
+                .tag("statistic", "max")
+                .baseUnit("nanoseconds")
+                .register(registry);
+    }
+
+    /**
+     * Registers hit, miss and eviction counters and the size of <b>cache</b>.
+     *
+     * @param registry a registry to register in.
+     * @param cache a cache to monitor.
+     */
+    public static void monitor(MeterRegistry registry, LagrangeCache cache) {
+        FunctionCounter.builder("mfa.lagrange.cache.requests", cache, LagrangeCache::getHits)
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("mfa.lagrange.cache.requests", cache, LagrangeCache::getMisses)
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("mfa.lagrange.cache.evictions", cache, LagrangeCache::getEvictions)
+                .register(registry);
+        Gauge.builder("mfa.lagrange.cache.size", cache, LagrangeCache::size)
+                .register(registry);
+    }
+
+    /**
+     * Registers the queue depth, message counters and send latency percentiles of <b>dispatcher</b>.
+     *
+     * @param registry a registry to register in.
+     * @param dispatcher a dispatcher to monitor.
+     */
+    public static void monitor(MeterRegistry registry, MailDispatcher dispatcher) {
+        Gauge.builder("mfa.mail.queue", dispatcher, MailDispatcher::getQueueDepth)
+                .register(registry);
+        FunctionCounter.builder("mfa.mail.messages", dispatcher, MailDispatcher::getSent)
+                .tag("result", "sent")
+                .register(registry);
+        FunctionCounter.builder("mfa.mail.messages", dispatcher, MailDispatcher::getFailed)
+                .tag("result", "failed")
+                .register(registry);
+        FunctionCounter.builder("mfa.mail.messages", dispatcher, MailDispatcher::getRejected)
+                .tag("result", "rejected")
+                .register(registry);
+        FunctionCounter.builder("mfa.mail.retries", dispatcher, MailDispatcher::getRetried)
+                .register(registry);
+        for (double percentile : LATENCY_PERCENTILES) {
+            Gauge.builder("mfa.mail.latency", dispatcher,
+                            d -> d.getSendLatency().getPercentile(percentile * 100))
+                    .tag("percentile", String.valueOf(percentile))
+                    .baseUnit("nanoseconds")
+                    .register(registry);
+        }
+    }
+
+    /**
+     * Registers the queue depth, rejections, and queue wait and hash time percentiles of <b>verifier</b>.
+     *
+     * @param registry a registry to register in.
+     * @param verifier a verifier to monitor.
+     */
+    public static void monitor(MeterRegistry registry, PasswordVerifier verifier) {
+        Gauge.builder("mfa.password.queue", verifier, PasswordVerifier::getQueueDepth)
+                .register(registry);
+        FunctionCounter.builder("mfa.password.rejected", verifier, PasswordVerifier::getRejected)
+                .register(registry);
+        for (double percentile : LATENCY_PERCENTILES) {
+            Gauge.builder("mfa.password.queue.wait", verifier,
+                            v -> v.getQueueWait().getPercentile(percentile * 100))
+                    .tag("percentile", String.valueOf(percentile))
+                    .baseUnit("nanoseconds")
+                    .register(registry);
+            Gauge.builder("mfa.password.hash.time", verifier,
+                            v -> v.getHashTime().getPercentile(percentile * 100))
+                    .tag("percentile", String.valueOf(percentile))
+                    .baseUnit("nanoseconds")
+                    .register(registry);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package pojo;
+
+import java.time.Instant;
+import java.util.Objects;
+
+/**
+ * An immutable outcome of a login attempt.
+ *
+ * <p>It is returned to the caller instead of being kept in a service,
+ * so services and controllers can be shared between all request threads.
+ *
+ * @see controllers.AuthController#loginShares(LoginClass)
+ * @author Igor Sytnik
+ */
+public final class AuthenticationResult {
+
+    private final String username;
+    private final boolean authorised;
+    private final Instant authenticatedAt;
+
+    private AuthenticationResult(String username, boolean authorised, Instant authenticatedAt) {
+        this.username = username;
+        this.authorised = authorised;
+        this.authenticatedAt = authenticatedAt;
+    }
+
+    /**
+     * @param username a username of the user that got access.
+     * @return a result of a successful login.
+     */
+    public static AuthenticationResult authorised(String username) {
+        return new AuthenticationResult(username, true, Instant.now());
+    }
+
+    /**
+     * @param username a username of the user that was denied access.
+     * @return a result of a failed login.
+     */
+    public static AuthenticationResult denied(String username) {
+        return new AuthenticationResult(username, false, Instant.now());
+    }
+
+    /**
+     * @return a username the login was attempted for.
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * @return {@code true} if the user got access, otherwise {@code false}.
+     */
+    public boolean isAuthorised() {
+        return authorised;
+    }
+
+    /**
+     * @return a moment the login was checked.
+     */
+    public Instant getAuthenticatedAt() {
+        return authenticatedAt;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof AuthenticationResult)) return false;
+        AuthenticationResult that = (AuthenticationResult) o;
+        return authorised == that.authorised &&
+                username.equals(that.username) &&
+                authenticatedAt.equals(that.authenticatedAt);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(username, authorised, authenticatedAt);
+    }
+}
@@ -0,0 +1,82 @@
+package pojo;
+
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Positive;
+import java.math.BigInteger;
+
+/**
+ * A POJO class for registering a user by properties in this class.
+ *
+ * @see controllers.AuthController#registerMany(java.util.Collection, int, java.util.function.Consumer)
+ * it is used here.
+ * @author Igor Sytnik
+ */
+public class RegistrationClass {
+    @NotEmpty
+    private String username;
+    @NotNull
+    private BigInteger password;
+    @NotNull
+    @Positive
+    private Integer sharesNeeded;
+    @NotNull
+    @Positive
+    private Integer sharesAvailable;
+    /**
+     * If not <i>null</i>, the user is registered with emailing enabled.
+     */
+    private String email;
+
+    public RegistrationClass() {
+    }
+
+    public RegistrationClass(String username, BigInteger password, Integer sharesNeeded,
+                             Integer sharesAvailable, String email) {
+        this.username = username;
+        this.password = password;
+        this.sharesNeeded = sharesNeeded;
+        this.sharesAvailable = sharesAvailable;
+        this.email = email;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public BigInteger getPassword() {
+        return password;
+    }
+
+    public void setPassword(BigInteger password) {
+        this.password = password;
+    }
+
+    public Integer getSharesNeeded() {
+        return sharesNeeded;
+    }
+
+    public void setSharesNeeded(Integer sharesNeeded) {
+        this.sharesNeeded = sharesNeeded;
+    }
+
+    public Integer getSharesAvailable() {
+        return sharesAvailable;
+    }
+
+    public void setSharesAvailable(Integer sharesAvailable) {
+        this.sharesAvailable = sharesAvailable;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public void setEmail(String email) {
+        this.email = email;
+    }
+}
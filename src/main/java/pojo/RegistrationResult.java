@@ -0,0 +1,63 @@
+package pojo;
+
+import MFA.SecretShare;
+
+/**
+ * An outcome of registering or re-sharing a single user in a batch.
+ *
+ * @see controllers.AuthController#registerMany(java.util.Collection, int, java.util.function.Consumer)
+ * @see services.ShareRotationJob
+ * @author Igor Sytnik
+ */
+public class RegistrationResult {
+
+    private final String username;
+    private final SecretShare[] shares;
+    private final Exception failure;
+
+    private RegistrationResult(String username, SecretShare[] shares, Exception failure) {
+        this.username = username;
+        this.shares = shares;
+        this.failure = failure;
+    }
+
+    /**
+     * @param username a registered user's username.
+     * @param shares shares to give to the user.
+     * @return a successful result.
+     */
+    public static RegistrationResult success(String username, SecretShare[] shares) {
+        return new RegistrationResult(username, shares, null);
+    }
+
+    /**
+     * @param username a username that couldn't be registered.
+     * @param failure a reason, e.g. {@link exceptions.RegistrationException} if the username is taken.
+     * @return a failed result.
+     */
+    public static RegistrationResult failure(String username, Exception failure) {
+        return new RegistrationResult(username, null, failure);
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * @return shares to give to the user, <i>null</i> if registration failed.
+     */
+    public SecretShare[] getShares() {
+        return shares;
+    }
+
+    /**
+     * @return a reason the registration failed, <i>null</i> if it succeeded.
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+
+    public boolean isSuccessful() {
+        return failure == null;
+    }
+}
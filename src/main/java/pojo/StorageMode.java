@@ -0,0 +1,23 @@
+package pojo;
+
+/**
+ * How {@link UserBase} stores the password digest, the prime and the emailed share.
+ *
+ * @author Igor Sytnik
+ * @see UserBase#getStorageMode()
+ */
+public enum StorageMode {
+    /**
+     * The digest and the share as text and the prime as a number,
+     * in the {@code password}, {@code prime} and {@code share_for_email} columns.
+     */
+    TEXT,
+    /**
+     * The digest, the prime and the share as bytes, in the {@code password_bin},
+     * {@code prime_bin} and {@code share_for_email_bin} columns.
+     *
+     * @see services.password.BinaryDigests
+     * @see MFA.ShareCodec#toBinary(String)
+     */
+    BINARY
+}
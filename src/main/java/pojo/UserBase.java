@@ -1,10 +1,12 @@
 package pojo;
 
+import MFA.SchemeType;
 import org.apache.commons.codec.digest.DigestUtils;
 
 import javax.persistence.*;
 import javax.validation.constraints.Email;
 import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.Objects;
 
 /**
@@ -12,30 +14,108 @@ import java.util.Objects;
  * Transfers all its properties to deriving classes that are
  * annotated with {@link Entity}.
  *
+ * <p>The fields are the stored columns as they are. The password digest, the prime and the
+ * emailed share are kept as text unless {@link UserBase#getStorageMode()} is overridden to
+ * return {@link StorageMode#BINARY}; {@link services.user.UserStorage} reads them from
+ * either column and writes them to the columns of the mode.
+ *
+ * <p>Lengths of the binary columns are the compile-time constants of the classes that write
+ * them, which javac inlines, so no conversion code is loaded with the entity.
+ *
+ * <p>The {@code password} and {@code prime} columns are nullable, since a digest stored as
+ * bytes and the schemes without a prime leave them empty. Tables created while they were
+ * {@code not null} need it dropped, e.g. {@code alter table users alter column password drop not null};
+ * see the README for the full list of schema changes.
+ *
  * @param <ID> user's id class.
  * @author Igor Sytnik
  */
 @MappedSuperclass
 abstract public class UserBase<ID> {
+    /**
+     * A number of ids taken from the {@code user_seq} sequence at a time
+     * when ids are mapped by {@link UserBase#SEQUENCE_MAPPING}.
+     */
+    public static final int ID_ALLOCATION_SIZE = 50;
+    /**
+     * A JPA mapping file that maps {@link UserBase#id} to the {@code user_seq} sequence,
+     * {@value #ID_ALLOCATION_SIZE} ids at a time, instead of an identity column.
+     */
+    public static final String SEQUENCE_MAPPING = "META-INF/user-sequence.xml";
+
+    /**
+     * An identity column by default, so Hibernate inserts new users one by one to learn their ids.
+     *
+     * <p>To insert them in JDBC batches, opt into the {@code user_seq} sequence by adding
+     * {@link UserBase#SEQUENCE_MAPPING} to the mapping files of the persistence unit, e.g.
+     * {@code spring.jpa.mapping-resources=META-INF/user-sequence.xml}. It applies to every
+     * entity extending {@link UserBase} in the unit. Existing tables need the sequence created
+     * past the current ids first, e.g. {@code create sequence user_seq start with <max(id) + 1>
+     * increment by 50}. Nothing should insert users through the identity default after that,
+     * e.g. a {@link services.user.ReactiveUserService}, whose ids are left to the database:
+     * the two would hand out the same ids.
+     */
     @Id
+    @org.springframework.data.annotation.Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     @Column(name = "id", nullable = false)
     protected ID id;
-    @Column(name = "username", nullable = false)
+    @Column(name = "username", nullable = false, unique = true)
     protected String username;
-    @Column(name = "password", nullable = false)
+    /**
+     * A digest as text. {@code null} if it's in {@link UserBase#passwordBin};
+     * tables created before need {@code not null} dropped for {@link StorageMode#BINARY}.
+     */
+    @Column(name = "password")
     protected String password;
+    /**
+     * A digest in the binary form of {@link services.password.BinaryDigests}.
+     */
+    @Column(name = "password_bin", length = services.password.BinaryDigests.MAX_LENGTH)
+    protected byte[] passwordBin;
     @Email
     @Column(name="email")
     protected String email;
-    @Column(name = "prime", nullable = false)
+    /**
+     * A prime the shares were split by. Only {@link SchemeType#SHAMIR_PRIME} uses one;
+     * {@code null} for the other schemes and if it's in {@link UserBase#primeBin}.
+     */
+    @Column(name = "prime")
     protected BigInteger prime;
+    /**
+     * {@link UserBase#prime} as unsigned big-endian bytes.
+     */
+    @Column(name = "prime_bin", length = MFA.ShareCodec.MAX_WIDTH)
+    protected byte[] primeBin;
+    /**
+     * A type of the secret share scheme the user's shares belong to.
+     * Users registered before schemes were stored have it <i>null</i>,
+     * which is read as {@link SchemeType#SHAMIR_PRIME}.
+     */
+    @Enumerated(EnumType.STRING)
+    @Column(name = "scheme", length = 32)
+    protected SchemeType scheme;
+    /**
+     * Commitments of {@link SchemeType#FELDMAN_2048} as bytes of
+     * {@link MFA.FeldmanScheme#encodeCommitments(BigInteger[])}, in either storage mode.
+     */
+    @Column(name = "commitments", length = MFA.FeldmanScheme.MAX_NEEDED * MFA.FeldmanScheme.WIDTH)
+    protected byte[] commitments;
     @Column(name = "shares_needed", nullable = false)
     protected Integer sharesNeeded;
     @Column(name = "shares_available", nullable = false)
     protected Integer sharesAvailable;
+    /**
+     * A share to be emailed, in the compact format of {@link MFA.ShareCodec}.
+     * Users registered earlier have it in the legacy decimal format.
+     */
     @Column(name = "share_for_email")
     protected String shareForEmail;
+    /**
+     * {@link UserBase#shareForEmail} as bytes of {@link MFA.ShareCodec#toBinary(String)}.
+     */
+    @Column(name = "share_for_email_bin", length = MFA.ShareCodec.MAX_BINARY_LENGTH)
+    protected byte[] shareForEmailBin;
     @Column(name = "emailing_enabled", nullable = false)
     protected Boolean emailingEnabled;
 
@@ -49,8 +129,27 @@ abstract public class UserBase<ID> {
 
     }
 
+    /**
+     * Checks <b>password</b> against the stored digest.
+     *
+     * @param password a password to check.
+     * @return {@code true} if <b>password</b> matches the stored digest.
+     * @deprecated use {@link services.user.UserStorage#checkPassword(UserBase, String)},
+     * or {@link services.user.LoginMetadata#checkPassword(String)} on login.
+     */
+    @Deprecated
     public boolean checkPassword(String password) {
-        return DigestUtils.sha1Hex(password).equals(this.password);
+        return services.user.UserStorage.checkPassword(this, password);
+    }
+
+    /**
+     * How the password digest, the prime and the emailed share are written
+     * by {@link services.user.UserStorage}.
+     *
+     * @return {@link StorageMode#TEXT} by default.
+     */
+    public StorageMode getStorageMode() {
+        return StorageMode.TEXT;
     }
 
     public ID getId() {
@@ -69,12 +168,41 @@ abstract public class UserBase<ID> {
         this.username = username;
     }
 
+    /**
+     * @return the digest stored as text, or <i>null</i> if it's stored as bytes.
+     * @see services.user.UserStorage#getPasswordDigest(UserBase)
+     */
     public String getPassword() {
         return password;
     }
 
+    /**
+     * Stores a legacy SHA-1 digest of <b>password</b> as text.
+     *
+     * <p>Prefer {@link services.user.UserStorage#setPasswordDigest(UserBase, String)} with a digest of
+     * {@link services.user.UserService#hashPassword(String)}.
+     *
+     * @param password a plain password.
+     */
     public void setPassword(String password) {
         this.password = DigestUtils.sha1Hex(password);
+        this.passwordBin = null;
+    }
+
+    /**
+     * @param passwordDigest a digest to store as text, as it is.
+     * @see services.user.UserStorage#setPasswordDigest(UserBase, String)
+     */
+    public void setPasswordDigest(String passwordDigest) {
+        this.password = passwordDigest;
+    }
+
+    public byte[] getPasswordBin() {
+        return passwordBin;
+    }
+
+    public void setPasswordBin(byte[] passwordBin) {
+        this.passwordBin = passwordBin;
     }
 
     public String getEmail() {
@@ -85,6 +213,10 @@ abstract public class UserBase<ID> {
         this.email = email;
     }
 
+    /**
+     * @return the prime stored as a number, or <i>null</i> if it's stored as bytes.
+     * @see services.user.UserStorage#getPrime(UserBase)
+     */
     public BigInteger getPrime() {
         return prime;
     }
@@ -93,6 +225,38 @@ abstract public class UserBase<ID> {
         this.prime = prime;
     }
 
+    public byte[] getPrimeBin() {
+        return primeBin;
+    }
+
+    public void setPrimeBin(byte[] primeBin) {
+        this.primeBin = primeBin;
+    }
+
+    /**
+     * @return the user's {@link UserBase#scheme}, or {@link SchemeType#SHAMIR_PRIME}
+     * if it wasn't stored.
+     */
+    public SchemeType getScheme() {
+        return scheme == null ? SchemeType.SHAMIR_PRIME : scheme;
+    }
+
+    public void setScheme(SchemeType scheme) {
+        this.scheme = scheme;
+    }
+
+    /**
+     * @return the encoded commitments, or <i>null</i> if the scheme has none.
+     * @see services.user.UserStorage#getCommitments(UserBase)
+     */
+    public byte[] getCommitments() {
+        return commitments;
+    }
+
+    public void setCommitments(byte[] commitments) {
+        this.commitments = commitments;
+    }
+
     public Integer getSharesNeeded() {
         return sharesNeeded;
     }
@@ -109,6 +273,10 @@ abstract public class UserBase<ID> {
         this.sharesAvailable = sharesAvailable;
     }
 
+    /**
+     * @return the share stored as text, or <i>null</i> if it's stored as bytes.
+     * @see services.user.UserStorage#getShareForEmail(UserBase)
+     */
     public String getShareForEmail() {
         return shareForEmail;
     }
@@ -117,6 +285,14 @@ abstract public class UserBase<ID> {
         this.shareForEmail = shareForEmail;
     }
 
+    public byte[] getShareForEmailBin() {
+        return shareForEmailBin;
+    }
+
+    public void setShareForEmailBin(byte[] shareForEmailBin) {
+        this.shareForEmailBin = shareForEmailBin;
+    }
+
     public Boolean getEmailingEnabled() {
         return emailingEnabled;
     }
@@ -131,12 +307,17 @@ abstract public class UserBase<ID> {
         if (!(o instanceof UserBase)) return false;
         UserBase<?> userBase = (UserBase<?>) o;
         return getUsername().equals(userBase.getUsername()) &&
-                getPassword().equals(userBase.getPassword()) &&
+                Objects.equals(getPassword(), userBase.getPassword()) &&
+                Arrays.equals(getPasswordBin(), userBase.getPasswordBin()) &&
                 Objects.equals(getEmail(), userBase.getEmail()) &&
-                getPrime().equals(userBase.getPrime()) &&
+                Objects.equals(getPrime(), userBase.getPrime()) &&
+                Arrays.equals(getPrimeBin(), userBase.getPrimeBin()) &&
+                getScheme() == userBase.getScheme() &&
+                Arrays.equals(getCommitments(), userBase.getCommitments()) &&
                 getSharesNeeded().equals(userBase.getSharesNeeded()) &&
                 getSharesAvailable().equals(userBase.getSharesAvailable()) &&
                 Objects.equals(getShareForEmail(), userBase.getShareForEmail()) &&
+                Arrays.equals(getShareForEmailBin(), userBase.getShareForEmailBin()) &&
                 getEmailingEnabled().equals(userBase.getEmailingEnabled());
     }
 
@@ -145,11 +326,16 @@ abstract public class UserBase<ID> {
         return Objects.hash(
                 getUsername(),
                 getPassword(),
+                Arrays.hashCode(getPasswordBin()),
                 getEmail(),
                 getPrime(),
+                Arrays.hashCode(getPrimeBin()),
+                getScheme(),
+                Arrays.hashCode(getCommitments()),
                 getSharesNeeded(),
                 getSharesAvailable(),
                 getShareForEmail(),
+                Arrays.hashCode(getShareForEmailBin()),
                 getEmailingEnabled());
     }
 }
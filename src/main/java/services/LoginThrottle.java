@@ -0,0 +1,193 @@
+package services;
+
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits login attempts per username and per client, in a fixed amount of memory.
+ *
+ * <p>Every key gets a token bucket of <b>attempts</b> tokens refilled evenly over
+ * <b>period</b>. Buckets are kept as theoretical arrival times (the generic cell rate
+ * algorithm, equivalent to a token bucket) in a count-min sketch: {@value #DEPTH} rows
+ * of <b>width</b> cells, updated with compare-and-set and never locked. A key is limited
+ * by the emptiest of its cells, so it is only throttled wrongly if other keys fill
+ * all of them. With enough width that stays rare, and the footprint doesn't grow
+ * with the number of usernames an attacker tries. Hashes are seeded per instance, so collisions can't be
+ * precomputed.
+ *
+ * <p>Checking and charging the cells of a key is not one atomic step, so under heavy
+ * contention a few attempts over the limit may slip through.
+ *
+ * @author Igor Sytnik
+ * @see controllers.AuthController#getLoginThrottle()
+ */
+public class LoginThrottle {
+
+    /**
+     * A number of rows, each cell of a key is picked by a different hash.
+     */
+    public static final int DEPTH = 4;
+
+    private final Sketch usernames;
+    private final Sketch clients;
+    /**
+     * Time is measured from here, so that a zero cell means an empty bucket.
+     */
+    private final long origin = System.nanoTime() - 1;
+
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder rejectedByUsername = new LongAdder();
+    private final LongAdder rejectedByClient = new LongAdder();
+
+    /**
+     * @param attemptsPerUsername a maximum burst of attempts for one username.
+     * @param attemptsPerClient a maximum burst of attempts from one client.
+     * @param period time in which a whole burst is refilled.
+     * @param width a number of cells in a row, rounded up to a power of two.
+     */
+    public LoginThrottle(int attemptsPerUsername, int attemptsPerClient, Duration period, int width) {
+        if (attemptsPerUsername < 1 || attemptsPerClient < 1 || width < 1)
+            throw new IllegalArgumentException("Attempts and width must be positive");
+        final SecureRandom random = new SecureRandom();
+        this.usernames = new Sketch(attemptsPerUsername, period.toNanos(), width, random.nextLong());
+        this.clients = new Sketch(attemptsPerClient, period.toNanos(), width, random.nextLong());
+    }
+
+    /**
+     * Takes a token for an attempt to log in as <b>username</b> from <b>clientKey</b>.
+     * Nothing is taken if the attempt is rejected.
+     *
+     * @param username a username being logged in as.
+     * @param clientKey a key of the client, e.g. its address, or <i>null</i> if unknown.
+     * @return {@code true} if the attempt may go on.
+     */
+    public boolean tryAcquire(String username, String clientKey) {
+        final long now = System.nanoTime() - origin;
+        final long usernameHash = usernames.hash(username);
+        final long clientHash = clientKey == null ? 0 : clients.hash(clientKey);
+        final long usernameArrival = usernames.arrival(usernameHash, now);
+        if (usernameArrival < 0) {
+            rejectedByUsername.increment();
+            return false;
+        }
+        if (clientKey != null) {
+            long clientArrival = clients.arrival(clientHash, now);
+            if (clientArrival < 0) {
+                rejectedByClient.increment();
+                return false;
+            }
+            clients.charge(clientHash, clientArrival);
+        }
+        usernames.charge(usernameHash, usernameArrival);
+        allowed.increment();
+        return true;
+    }
+
+    public long getAllowed() {
+        return allowed.sum();
+    }
+
+    /**
+     * @return a number of attempts rejected because of their username.
+     */
+    public long getRejectedByUsername() {
+        return rejectedByUsername.sum();
+    }
+
+    /**
+     * @return a number of attempts rejected because of their client.
+     */
+    public long getRejectedByClient() {
+        return rejectedByClient.sum();
+    }
+
+    /**
+     * @return a share of username cells whose buckets aren't full, from 0 to 1.
+     * Close to 1 means the sketch is too narrow and keys start to collide.
+     */
+    public double getUsernameOccupancy() {
+        return usernames.occupancy(System.nanoTime() - origin);
+    }
+
+    /**
+     * @return a share of client cells whose buckets aren't full, from 0 to 1.
+     */
+    public double getClientOccupancy() {
+        return clients.occupancy(System.nanoTime() - origin);
+    }
+
+    /**
+     * {@value #DEPTH} rows of theoretical arrival times.
+     */
+    private static final class Sketch {
+        private final AtomicLongArray cells;
+        private final int mask;
+        private final long interval;
+        private final long tolerance;
+        private final long seed;
+
+        Sketch(int attempts, long periodNanos, int width, long seed) {
+            final int size = Integer.highestOneBit(Math.max(width - 1, 1)) << 1;
+            this.cells = new AtomicLongArray(DEPTH * size);
+            this.mask = size - 1;
+            this.interval = Math.max(periodNanos / attempts, 1);
+            this.tolerance = interval * (attempts - 1);
+            this.seed = seed;
+        }
+
+        /**
+         * Seeded FNV-1a over the characters, finished with a 64-bit mixer.
+         */
+        long hash(String key) {
+            long h = seed ^ 0xcbf29ce484222325L;
+            for (int i = 0; i < key.length(); i++) {
+                h = (h ^ key.charAt(i)) * 0x100000001b3L;
+            }
+            h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+            h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+            return h ^ (h >>> 33);
+        }
+
+        private int index(long hash, int row) {
+            /* double hashing: row i uses h1 + i * h2 */
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32) | 1;
+            return row * (mask + 1) + ((h1 + row * h2) & mask);
+        }
+
+        /**
+         * @return the arrival time of the key's emptiest cell if it has a token
+         * at <b>now</b>, otherwise {@code -1}.
+         */
+        long arrival(long hash, long now) {
+            long arrival = Long.MAX_VALUE;
+            for (int row = 0; row < DEPTH; row++) {
+                arrival = Math.min(arrival, cells.get(index(hash, row)));
+            }
+            arrival = Math.max(arrival, now);
+            return arrival - now > tolerance ? -1 : arrival;
+        }
+
+        /**
+         * Takes a token: moves every cell of the key to at least
+         * <b>arrival</b> plus one interval, the conservative update of count-min.
+         */
+        void charge(long hash, long arrival) {
+            final long next = arrival + interval;
+            for (int row = 0; row < DEPTH; row++) {
+                cells.accumulateAndGet(index(hash, row), next, Math::max);
+            }
+        }
+
+        double occupancy(long now) {
+            int busy = 0;
+            for (int i = 0; i < cells.length(); i++) {
+                if (cells.get(i) > now)
+                    busy++;
+            }
+            return (double) busy / cells.length();
+        }
+    }
+}
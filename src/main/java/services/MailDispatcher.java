@@ -0,0 +1,287 @@
+package services;
+
+import metrics.LatencyHistogram;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+
+import javax.mail.internet.MimeMessage;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends emails asynchronously from a bounded queue.
+ *
+ * <p>A fixed number of worker threads take messages from the queue and send up to
+ * <b>maxBatchSize</b> of them with a single {@link JavaMailSender#send(MimeMessage...)}
+ * call, which {@link org.springframework.mail.javamail.JavaMailSenderImpl} does over
+ * one SMTP connection. Failed messages are retried with exponential backoff.
+ * If the queue is full, a message is rejected right away.
+ *
+ * <p>Time from submitting a message to it being sent is recorded in a {@link LatencyHistogram}.
+ *
+ * <p>Call {@link MailDispatcher#close()} to stop the workers.
+ *
+ * @author Igor Sytnik
+ * @see MailService#getMailDispatcher()
+ */
+public class MailDispatcher implements AutoCloseable {
+
+    private final JavaMailSender mailSender;
+    private final BlockingQueue<PendingMessage> queue;
+    private final int maxBatchSize;
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final List<Thread> workers = new ArrayList<>();
+    private final ScheduledExecutorService retryScheduler;
+    /* Messages waiting for their backoff to pass, failed on close */
+    private final Set<PendingMessage> retrying = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder sendLatencyNanos = new LongAdder();
+    private final LatencyHistogram sendLatency = new LatencyHistogram();
+    private final AtomicLong maxSendLatencyNanos = new AtomicLong();
+
+    /**
+     * @param mailSender a sender the messages are sent with.
+     * @param queueCapacity a maximum number of messages waiting to be sent.
+     * @param workers a number of threads sending messages.
+     * @param maxBatchSize a maximum number of messages sent over one connection.
+     * @param maxAttempts a maximum number of times a message is tried to be sent.
+     * @param initialBackoff a delay before the first retry, doubled for every next one.
+     */
+    public MailDispatcher(JavaMailSender mailSender, int queueCapacity, int workers,
+                          int maxBatchSize, int maxAttempts, Duration initialBackoff) {
+        if (workers < 1 || maxBatchSize < 1 || maxAttempts < 1)
+            throw new IllegalArgumentException("Workers, batch size and attempts must be positive");
+        this.mailSender = mailSender;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatchSize = maxBatchSize;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoff.toMillis();
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mail-dispatcher-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < workers; i++) {
+            Thread worker = new Thread(this::work, "mail-dispatcher-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            this.workers.add(worker);
+        }
+    }
+
+    /**
+     * Queues <b>message</b> for sending.
+     *
+     * @param message a message to send.
+     * @return a future that completes once the message is sent, or exceptionally
+     * with the last {@link MailException}, or another exception thrown by the sender,
+     * once all attempts failed, or with
+     * {@link RejectedExecutionException} if the queue is full or the dispatcher is closed.
+     */
+    public CompletableFuture<Void> submit(MimeMessage message) {
+        PendingMessage pending = new PendingMessage(message);
+        if (closed) {
+            rejected.increment();
+            reject(pending);
+        } else if (!queue.offer(pending)) {
+            rejected.increment();
+            pending.future.completeExceptionally(new RejectedExecutionException("Mail queue is full"));
+        }
+        return pending.future;
+    }
+
+    /**
+     * @return a number of messages waiting to be sent.
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getSent() {
+        return sent.sum();
+    }
+
+    /**
+     * @return a number of messages that failed all attempts.
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getRetried() {
+        return retried.sum();
+    }
+
+    /**
+     * @return a number of messages rejected because the queue was full.
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return average nanoseconds from submitting a message to it being sent.
+     */
+    public double getAverageSendLatencyNanos() {
+        long sent = getSent();
+        return sent == 0 ? 0 : (double) sendLatencyNanos.sum() / sent;
+    }
+
+    /**
+     * @return the longest time from submitting a message to it being sent, in nanoseconds.
+     */
+    public long getMaxSendLatencyNanos() {
+        return maxSendLatencyNanos.get();
+    }
+
+    /**
+     * @return nanoseconds from submitting a message to it being sent, for percentiles.
+     */
+    public LatencyHistogram getSendLatency() {
+        return sendLatency;
+    }
+
+    /**
+     * Stops the workers. Messages that weren't sent yet, queued or waiting to be retried,
+     * complete with {@link RejectedExecutionException}.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        retryScheduler.shutdownNow();
+        workers.forEach(Thread::interrupt);
+        List<PendingMessage> left = new ArrayList<>(retrying);
+        retrying.removeAll(left);
+        queue.drainTo(left);
+        left.forEach(MailDispatcher::reject);
+    }
+
+    private void work() {
+        final List<PendingMessage> batch = new ArrayList<>(maxBatchSize);
+        while (!closed) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, maxBatchSize - 1);
+            try {
+                send(batch);
+            } catch (Throwable e) {
+                /* Whatever went wrong, the worker keeps running and no future is left pending */
+                batch.forEach(pending -> fail(pending, e));
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void send(List<PendingMessage> batch) {
+        final MimeMessage[] messages = new MimeMessage[batch.size()];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = batch.get(i).message;
+        }
+        try {
+            mailSender.send(messages);
+            batch.forEach(this::complete);
+        } catch (MailSendException e) {
+            Map<Object, Exception> failedMessages = e.getFailedMessages();
+            for (PendingMessage pending : batch) {
+                if (failedMessages.isEmpty() || failedMessages.containsKey(pending.message))
+                    retryOrFail(pending, e);
+                else
+                    complete(pending);
+            }
+        } catch (RuntimeException e) {
+            batch.forEach(pending -> retryOrFail(pending, e));
+        }
+    }
+
+    private void complete(PendingMessage pending) {
+        long latency = System.nanoTime() - pending.submitted;
+        sent.increment();
+        sendLatencyNanos.add(latency);
+        sendLatency.record(latency);
+        maxSendLatencyNanos.accumulateAndGet(latency, Math::max);
+        pending.future.complete(null);
+    }
+
+    private void retryOrFail(PendingMessage pending, RuntimeException cause) {
+        if (++pending.attempts >= maxAttempts || closed) {
+            fail(pending, cause);
+            return;
+        }
+        retried.increment();
+        long backoff = initialBackoffMillis << Math.min(pending.attempts - 1, 20);
+        retrying.add(pending);
+        try {
+            retryScheduler.schedule(() -> requeue(pending, cause), backoff, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            if (retrying.remove(pending))
+                reject(pending);
+        }
+    }
+
+    /**
+     * Queues <b>pending</b> again once its backoff passed, unless {@link MailDispatcher#close()}
+     * already took it.
+     */
+    private void requeue(PendingMessage pending, RuntimeException cause) {
+        if (!retrying.remove(pending))
+            return;
+        if (closed) {
+            reject(pending);
+        } else if (!queue.offer(pending)) {
+            fail(pending, cause);
+        } else if (closed && queue.remove(pending)) {
+            /* close() drained the queue before the message got back into it */
+            reject(pending);
+        }
+    }
+
+    private static void reject(PendingMessage pending) {
+        pending.future.completeExceptionally(new RejectedExecutionException("Mail dispatcher is closed"));
+    }
+
+    /**
+     * Completes <b>pending</b> with <b>cause</b>, unless it is already completed.
+     */
+    private void fail(PendingMessage pending, Throwable cause) {
+        if (pending.future.completeExceptionally(cause))
+            failed.increment();
+    }
+
+    /**
+     * A queued message and the future of its sending.
+     */
+    private static class PendingMessage {
+        final MimeMessage message;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        final long submitted = System.nanoTime();
+        int attempts;
+
+        PendingMessage(MimeMessage message) {
+            this.message = message;
+        }
+    }
+}
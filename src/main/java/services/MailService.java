@@ -1,5 +1,7 @@
 package services;
 
+import io.micrometer.core.instrument.Timer;
+import metrics.AuthMetrics;
 import pojo.UserBase;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.mail.javamail.MimeMessageHelper;
@@ -7,6 +9,7 @@ import org.springframework.mail.javamail.MimeMessageHelper;
 import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Class responsible for email sending services.
@@ -17,6 +20,20 @@ public abstract class MailService {
 
     public abstract JavaMailSender getMailSender();
 
+    /**
+     * A dispatcher used by
+     * {@link MailService#sendEmailToUserAsync(UserBase, String, String)}.
+     *
+     * <p>Override to return a shared {@link MailDispatcher} built
+     * on {@link MailService#getMailSender()}.
+     *
+     * @return {@code null} by default, meaning that emails are sent
+     * on the caller's thread.
+     */
+    public MailDispatcher getMailDispatcher() {
+        return null;
+    }
+
     /**
      * Sends an email to the user.
      *
@@ -32,6 +49,69 @@ public abstract class MailService {
      */
     public void sendEmailToUser(UserBase<?> user, String content, String subject)
             throws MessagingException, NullPointerException {
+        final Timer.Sample sample = AuthMetrics.start();
+        String outcome = AuthMetrics.ERROR;
+        try {
+            getMailSender().send(createEmail(user, content, subject));
+            outcome = AuthMetrics.SUCCESS;
+        } finally {
+            if (sample != null)
+                AuthMetrics.stop(sample, AuthMetrics.MAIL_SEND, outcome, "mode", "sync");
+        }
+    }
+
+    /**
+     * Sends an email to the user through {@link MailService#getMailDispatcher()}.
+     *
+     * <p>The message is built on the caller's thread, the SMTP exchange is not.
+     * Without a dispatcher the email is sent right away, as in
+     * {@link MailService#sendEmailToUser(UserBase, String, String)}.
+     *
+     * @param user a {@link UserBase} object to email.
+     * @param content content of the email.
+     *                Content type {@code "text/html"} is applied.
+     * @param subject subject of the email.
+     * @return a future that completes once the email is sent.
+     * @throws MessagingException in case of errors while building the message.
+     * @throws NullPointerException if <b>user</b>'s email is <i>null</i>.
+     * @see MailDispatcher#submit(MimeMessage)
+     */
+    public CompletableFuture<Void> sendEmailToUserAsync(UserBase<?> user, String content, String subject)
+            throws MessagingException, NullPointerException {
+        MimeMessage message = createEmail(user, content, subject);
+        MailDispatcher dispatcher = getMailDispatcher();
+        if (dispatcher != null) {
+            final Timer.Sample sample = AuthMetrics.start();
+            CompletableFuture<Void> sent = dispatcher.submit(message);
+            if (sample != null)
+                sent.whenComplete((ignored, e) -> AuthMetrics.stop(sample, AuthMetrics.MAIL_SEND,
+                        e == null ? AuthMetrics.SUCCESS : AuthMetrics.ERROR, "mode", "async"));
+            return sent;
+        }
+        try {
+            getMailSender().send(message);
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Builds an email to the user.
+     *
+     * @param user a {@link UserBase} object to email.
+     * @param content content of the email.
+     *                Content type {@code "text/html"} is applied.
+     * @param subject subject of the email.
+     * @return a message ready to be sent.
+     * @throws MessagingException in case of errors while calling
+     * {@link MimeMessageHelper#setTo(String)},
+     * {@link MimeMessageHelper#setSubject(String)} or
+     * {@link MimeMessageHelper#setText(String, boolean)} methods.
+     * @throws NullPointerException if <b>user</b>'s email is <i>null</i>.
+     */
+    protected MimeMessage createEmail(UserBase<?> user, String content, String subject)
+            throws MessagingException, NullPointerException {
         if (Objects.isNull(user.getEmail())) {
             throw new NullPointerException("User has no email address");
         }
@@ -42,6 +122,6 @@ public abstract class MailService {
         helper.setSubject(subject);
         helper.setText(content, true);
 
-        getMailSender().send(message);
+        return message;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,372 @@
+package services;
+
+import MFA.Manager;
+import MFA.PrimeProvider;
+import MFA.SecretShare;
+import MFA.ShareCodec;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import pojo.RegistrationResult;
+import pojo.UserBase;
+import services.user.UserService;
+import services.user.UserStorage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Re-shares the secrets of all users with new primes and shares, a chunk at a time.
+ *
+ * <p>Users are read with {@link UserService#list(org.springframework.data.domain.Pageable)}
+ * in pages of <b>chunkSize</b> ordered by id, so only one chunk is in memory at a time.
+ * The shares of a chunk are generated in parallel on <b>pool</b>, and the chunk is
+ * saved with a single {@link UserService#createMany(java.util.Collection)} call, batched
+ * if JDBC batching is enabled. After every chunk the next page is saved to a {@link Checkpoint},
+ * so a stopped or failed job resumes where it left off.
+ *
+ * <p>Only a digest of the secret is stored, so the secrets come from a {@link SecretSource},
+ * e.g. collected at the users' last logins. Every secret is checked against the stored digest
+ * before it's re-shared, so a wrong one can't lock a user out. Old shares stop working as
+ * soon as a user's chunk is saved, so new ones have to reach the users: they are passed to
+ * the results consumer, and the emailed share is queued through a {@link ShareSenderService}
+ * if one is given.
+ *
+ * @param <U> user type. Must extend UserBase.
+ * @param <ID> user id type that <b>U</b> has.
+ * @author Igor Sytnik
+ */
+public class ShareRotationJob<U extends UserBase<ID>, ID> {
+
+    private final UserService<U, ID> userService;
+    private final SecretSource<U> secrets;
+    private final int chunkSize;
+    private final ForkJoinPool pool;
+    private final PrimeProvider primeProvider;
+    private final ShareSenderService shareSender;
+    private volatile boolean stopped;
+
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder rotated = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder emailsFailed = new LongAdder();
+
+    /**
+     * Secrets of the users to re-share.
+     *
+     * @param <U> user type.
+     */
+    @FunctionalInterface
+    public interface SecretSource<U> {
+        /**
+         * @param user a user to re-share.
+         * @return the user's secret, or <i>null</i> to leave the user as it is.
+         */
+        BigInteger secretFor(U user);
+    }
+
+    /**
+     * Where the job keeps the page it will continue from.
+     */
+    public interface Checkpoint {
+        /**
+         * @return a page to start from, 0 if the job hasn't run yet.
+         */
+        int load();
+
+        /**
+         * @param nextPage a page to continue from, saved after every chunk.
+         */
+        void save(int nextPage);
+    }
+
+    /**
+     * @param userService a service users are read and saved through.
+     * @param secrets a source of secrets to re-share.
+     * @param chunkSize a number of users read, re-shared and saved together.
+     * @param pool a pool shares of a chunk are generated on.
+     * @param primeProvider a source of new primes. If <i>null</i>, primes are generated.
+     * @param shareSender a service to queue new emailed shares with,
+     *                    or <i>null</i> to leave sending them to the results consumer.
+     */
+    public ShareRotationJob(UserService<U, ID> userService, SecretSource<U> secrets, int chunkSize,
+                            ForkJoinPool pool, PrimeProvider primeProvider, ShareSenderService shareSender) {
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("Chunk size must be positive");
+        this.userService = userService;
+        this.secrets = secrets;
+        this.chunkSize = chunkSize;
+        this.pool = pool;
+        this.primeProvider = primeProvider;
+        this.shareSender = shareSender;
+    }
+
+    /**
+     * A {@link Checkpoint} kept in a file, so the job can resume after a restart.
+     *
+     * @param file a file holding the next page; it's created on the first save.
+     * @return a checkpoint.
+     */
+    public static Checkpoint fileCheckpoint(Path file) {
+        return new Checkpoint() {
+            @Override
+            public int load() {
+                try {
+                    if (!Files.exists(file))
+                        return 0;
+                    return Integer.parseInt(new String(Files.readAllBytes(file), StandardCharsets.US_ASCII).trim());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public void save(int nextPage) {
+                try {
+                    Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+                    Files.write(temporary, Integer.toString(nextPage).getBytes(StandardCharsets.US_ASCII));
+                    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Re-shares users from the page in <b>checkpoint</b> to the last one,
+     * or until {@link ShareRotationJob#stop()} is called.
+     *
+     * <p>Users shouldn't be added or deleted while the job runs, since pages are
+     * counted by offset; users added later are simply not re-shared.
+     *
+     * @param checkpoint where to start from and to save progress to.
+     * @param results receives a {@link RegistrationResult} with new shares for every re-shared
+     *                user, and a failed one for every user that couldn't be re-shared. Without
+     *                a share sender, the emailed share is the first of the shares, as in
+     *                {@link controllers.AuthController#registerEmailShares}.
+     * @param progress receives a {@link Progress} after every chunk, may be <i>null</i>.
+     * @return the progress after the last chunk.
+     * @throws InterruptedException if interrupted while waiting for shares to be generated.
+     */
+    public Progress run(Checkpoint checkpoint, Consumer<RegistrationResult> results,
+                        Consumer<Progress> progress) throws InterruptedException {
+        stopped = false;
+        processed.reset();
+        rotated.reset();
+        skipped.reset();
+        failed.reset();
+        emailsFailed.reset();
+        final long started = System.nanoTime();
+        int page = checkpoint.load();
+        while (!stopped) {
+            Page<U> chunk = userService.list(PageRequest.of(page, chunkSize, Sort.by("id")));
+            if (!chunk.hasContent())
+                break;
+            rotateChunk(chunk.getContent(), results);
+            checkpoint.save(++page);
+            if (progress != null)
+                progress.accept(snapshot(page, started));
+            if (!chunk.hasNext())
+                break;
+        }
+        return snapshot(page, started);
+    }
+
+    /**
+     * Makes {@link ShareRotationJob#run} return after the current chunk.
+     * Running it again with the same checkpoint continues from the next one.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    private void rotateChunk(List<U> users, Consumer<RegistrationResult> results) throws InterruptedException {
+        final List<Rotation<U>> rotations;
+        try {
+            rotations = pool.submit(() -> users.parallelStream()
+                    .map(this::rotate)
+                    .collect(Collectors.toList())).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Couldn't generate shares", e.getCause());
+        }
+
+        final List<U> changed = rotations.stream()
+                .filter(rotation -> rotation.shares != null)
+                .map(rotation -> rotation.user)
+                .collect(Collectors.toList());
+        RuntimeException saveFailure = null;
+        if (!changed.isEmpty()) {
+            try {
+                userService.createMany(changed);
+            } catch (RuntimeException e) {
+                saveFailure = e;
+            }
+        }
+
+        for (Rotation<U> rotation : rotations) {
+            processed.increment();
+            if (rotation.failure != null) {
+                failed.increment();
+                results.accept(RegistrationResult.failure(rotation.user.getUsername(), rotation.failure));
+            } else if (rotation.shares == null) {
+                skipped.increment();
+            } else if (saveFailure != null) {
+                failed.increment();
+                results.accept(RegistrationResult.failure(rotation.user.getUsername(), saveFailure));
+            } else {
+                rotated.increment();
+                results.accept(RegistrationResult.success(rotation.user.getUsername(), rotation.shares));
+                sendShare(rotation.user);
+            }
+        }
+    }
+
+    /**
+     * Gives <b>user</b> a new prime and shares, without saving it.
+     * Never throws, a failure is returned in {@link Rotation#failure}.
+     */
+    private Rotation<U> rotate(U user) {
+        try {
+            BigInteger secret = secrets.secretFor(user);
+            if (secret == null)
+                return new Rotation<>(user, null, null);
+            if (!userService.checkPassword(user, secret.toString()))
+                return new Rotation<>(user, null, new IllegalArgumentException("Secret doesn't match the password"));
+            Manager manager = new Manager(secret, user.getSharesNeeded(), user.getSharesAvailable(),
+                    user.getScheme(), primeProvider);
+            SecretShare[] shares = manager.getShares();
+            UserStorage.setPrime(user, manager.getPrime());
+            user.setScheme(manager.getSchemeType());
+            UserStorage.setCommitments(user, manager.getCommitments());
+            if (Boolean.TRUE.equals(user.getEmailingEnabled())) {
+                // Commitments and the stored share would reveal g^secret, see FeldmanScheme
+                UserStorage.setCommitments(user, null);
+                UserStorage.setShareForEmail(user, ShareCodec.encode(shares[0], manager.getShareWidth()));
+                if (shareSender != null)
+                    shares = Arrays.copyOfRange(shares, 1, shares.length);
+            }
+            return new Rotation<>(user, shares, null);
+        } catch (RuntimeException e) {
+            return new Rotation<>(user, null, e);
+        }
+    }
+
+    private void sendShare(U user) {
+        if (shareSender == null || !Boolean.TRUE.equals(user.getEmailingEnabled()))
+            return;
+        try {
+            shareSender.sendShareEmail(user).whenComplete((sent, e) -> {
+                if (e != null)
+                    emailsFailed.increment();
+            });
+        } catch (Exception e) {
+            emailsFailed.increment();
+        }
+    }
+
+    private Progress snapshot(int nextPage, long started) {
+        return new Progress(nextPage, processed.sum(), rotated.sum(), skipped.sum(), failed.sum(),
+                emailsFailed.sum(), System.nanoTime() - started);
+    }
+
+    /**
+     * Counts of a run so far.
+     */
+    public static final class Progress {
+        private final int nextPage;
+        private final long processed;
+        private final long rotated;
+        private final long skipped;
+        private final long failed;
+        private final long emailsFailed;
+        private final long elapsedNanos;
+
+        Progress(int nextPage, long processed, long rotated, long skipped, long failed,
+                 long emailsFailed, long elapsedNanos) {
+            this.nextPage = nextPage;
+            this.processed = processed;
+            this.rotated = rotated;
+            this.skipped = skipped;
+            this.failed = failed;
+            this.emailsFailed = emailsFailed;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getNextPage() {
+            return nextPage;
+        }
+
+        public long getProcessed() {
+            return processed;
+        }
+
+        public long getRotated() {
+            return rotated;
+        }
+
+        /**
+         * @return a number of users the {@link SecretSource} had no secret for.
+         */
+        public long getSkipped() {
+            return skipped;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * @return a number of emails that couldn't be queued or sent, as far as known yet.
+         */
+        public long getEmailsFailed() {
+            return emailsFailed;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * @return users processed per second since this run started.
+         */
+        public double getUsersPerSecond() {
+            return elapsedNanos == 0 ? 0 : processed * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("page %d: %d processed, %d rotated, %d skipped, %d failed, %.1f users/s",
+                    nextPage, processed, rotated, skipped, failed, getUsersPerSecond());
+        }
+    }
+
+    /**
+     * A user with new shares, or the reason it couldn't get them.
+     * Neither shares nor failure means the user was skipped.
+     */
+    private static final class Rotation<U> {
+        final U user;
+        final SecretShare[] shares;
+        final Exception failure;
+
+        Rotation(U user, SecretShare[] shares, Exception failure) {
+            this.user = user;
+            this.shares = shares;
+            this.failure = failure;
+        }
+    }
+}
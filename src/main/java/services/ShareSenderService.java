@@ -2,6 +2,8 @@ package services;
 
 import pojo.UserBase;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Class for sending shares.
  * <p>Uses {@link MailService} to send email.
@@ -15,8 +17,13 @@ public abstract class ShareSenderService {
     /**
      * A method for sending shares to <b>user</b>.
      *
+     * <p>Implementations should send with
+     * {@link MailService#sendEmailToUserAsync(UserBase, String, String)}
+     * and return its future, so the caller isn't blocked by the SMTP exchange.
+     *
      * @param user a user to send shares to.
-     * @throws Exception
+     * @return a future that completes once the email is sent.
+     * @throws Exception if the email couldn't be built or queued.
      */
-    public abstract void sendShareEmail(UserBase<?> user) throws Exception;
+    public abstract CompletableFuture<Void> sendShareEmail(UserBase<?> user) throws Exception;
 }
\ No newline at end of file
@@ -0,0 +1,73 @@
+package services;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for running the blocking flows on virtual threads.
+ *
+ * <p>The module is compiled for Java 14, so virtual threads are looked up
+ * reflectively and only used when running on a JDK that has them (21 or later).
+ * Virtual threads are not preempted, so CPU-heavy work should not run on them;
+ * hand it to a {@link VirtualThreads#newCryptoPool(int)} instead, as
+ * {@link controllers.AuthController#getCryptoExecutor()} does.
+ *
+ * @author Igor Sytnik
+ * @see controllers.AuthController#getRequestExecutor()
+ */
+public final class VirtualThreads {
+
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = lookup();
+
+    private VirtualThreads() {
+    }
+
+    private static Method lookup() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return {@code true} if the running JDK has virtual threads.
+     */
+    public static boolean isAvailable() {
+        return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * Creates an executor that starts a new virtual thread for every task.
+     *
+     * @return a new executor; close it with {@link ExecutorService#shutdown()}.
+     * @throws UnsupportedOperationException if the running JDK has no virtual threads.
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR == null)
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or later");
+        try {
+            return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new UnsupportedOperationException("Couldn't create a virtual thread executor", e);
+        }
+    }
+
+    /**
+     * Creates a fixed pool of platform threads for splitting, combining and hashing.
+     *
+     * @param threads a number of threads, usually the number of cores.
+     * @return a new pool of daemon threads; close it with {@link ExecutorService#shutdown()}.
+     */
+    public static ExecutorService newCryptoPool(int threads) {
+        final AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "mfa-crypto-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,202 @@
+package services.password;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Converts digests of the known {@link PasswordHasher}s to and from a compact binary form,
+ * and checks passwords against it.
+ *
+ * <p>A binary digest is a tag byte followed by fixed-size fields:
+ * <ul>
+ *     <li>{@value #SHA1}: the 20 bytes of a legacy SHA-1 digest, 21 bytes in all
+ *     instead of 40 hex characters;</li>
+ *     <li>{@value #PBKDF2_SHA256}: the iteration count as a big-endian int, a 16-byte salt
+ *     and a 32-byte hash, 53 bytes in all instead of about 90 characters.</li>
+ * </ul>
+ * Checks hash the password and compare raw bytes in constant time, without
+ * parsing, hex or base64 strings.
+ *
+ * @author Igor Sytnik
+ * @see pojo.UserBase#getStorageMode()
+ */
+public final class BinaryDigests {
+
+    public static final byte SHA1 = 1;
+    public static final byte PBKDF2_SHA256 = 2;
+    /**
+     * The length of the longest binary digest.
+     */
+    public static final int MAX_LENGTH = 1 + 4 + Pbkdf2PasswordHasher.SALT_BYTES + Pbkdf2PasswordHasher.HASH_BITS / 8;
+
+    private static final int SHA1_BYTES = 20;
+
+    private BinaryDigests() {
+    }
+
+    /**
+     * @param digest a stored digest.
+     * @return {@code true} if <b>digest</b> can be converted with {@link BinaryDigests#encode(String)}.
+     */
+    public static boolean supports(String digest) {
+        if (PasswordHashers.SHA1.supports(digest))
+            return true;
+        if (!PasswordHashers.PBKDF2.supports(digest))
+            return false;
+        try {
+            encode(digest);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param digest a digest of {@link Sha1PasswordHasher} or {@link Pbkdf2PasswordHasher}.
+     * @return the binary form of <b>digest</b>.
+     * @throws IllegalArgumentException if <b>digest</b> has another format
+     * or an iteration count below 1.
+     */
+    public static byte[] encode(String digest) {
+        if (PasswordHashers.SHA1.supports(digest)) {
+            byte[] bytes = new byte[1 + SHA1_BYTES];
+            bytes[0] = SHA1;
+            for (int i = 0; i < SHA1_BYTES; i++) {
+                bytes[1 + i] = (byte) (Character.digit(digest.charAt(2 * i), 16) << 4
+                        | Character.digit(digest.charAt(2 * i + 1), 16));
+            }
+            return bytes;
+        }
+        if (PasswordHashers.PBKDF2.supports(digest)) {
+            String[] parts = digest.substring(Pbkdf2PasswordHasher.PREFIX.length()).split("\\$");
+            if (parts.length == 3) {
+                try {
+                    int iterations = Integer.parseInt(parts[0]);
+                    byte[] salt = Base64.getDecoder().decode(parts[1]);
+                    byte[] hash = Base64.getDecoder().decode(parts[2]);
+                    if (iterations >= 1 && salt.length == Pbkdf2PasswordHasher.SALT_BYTES
+                            && hash.length == Pbkdf2PasswordHasher.HASH_BITS / 8) {
+                        byte[] bytes = new byte[MAX_LENGTH];
+                        bytes[0] = PBKDF2_SHA256;
+                        putInt(bytes, 1, iterations);
+                        System.arraycopy(salt, 0, bytes, 5, salt.length);
+                        System.arraycopy(hash, 0, bytes, 5 + salt.length, hash.length);
+                        return bytes;
+                    }
+                } catch (IllegalArgumentException e) {
+                    // Falls through to the error below.
+                }
+            }
+        }
+        throw new IllegalArgumentException("Digest has no binary form");
+    }
+
+    /**
+     * @param digest a binary digest.
+     * @return the text form of <b>digest</b>, as the hasher that made it writes it.
+     * @throws IllegalArgumentException if <b>digest</b> is malformed.
+     */
+    public static String decode(byte[] digest) {
+        switch (tag(digest)) {
+            case SHA1: {
+                StringBuilder hex = new StringBuilder(2 * SHA1_BYTES);
+                for (int i = 1; i < digest.length; i++) {
+                    hex.append(Character.forDigit((digest[i] >> 4) & 0xF, 16))
+                            .append(Character.forDigit(digest[i] & 0xF, 16));
+                }
+                return hex.toString();
+            }
+            case PBKDF2_SHA256: {
+                Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+                byte[] salt = new byte[Pbkdf2PasswordHasher.SALT_BYTES];
+                byte[] hash = new byte[Pbkdf2PasswordHasher.HASH_BITS / 8];
+                System.arraycopy(digest, 5, salt, 0, salt.length);
+                System.arraycopy(digest, 5 + salt.length, hash, 0, hash.length);
+                return Pbkdf2PasswordHasher.PREFIX + getInt(digest, 1) + '$'
+                        + encoder.encodeToString(salt) + '$' + encoder.encodeToString(hash);
+            }
+            default:
+                throw new IllegalArgumentException("Unknown digest");
+        }
+    }
+
+    /**
+     * Checks <b>password</b> against a binary digest.
+     *
+     * @param password a password to check.
+     * @param digest a binary digest.
+     * @return {@code true} if <b>password</b> matches <b>digest</b>,
+     * {@code false} if it doesn't or <b>digest</b> is malformed.
+     */
+    public static boolean verify(String password, byte[] digest) {
+        switch (tag(digest)) {
+            case SHA1:
+                return equals(DigestUtils.sha1(password.getBytes(StandardCharsets.UTF_8)), digest, 1);
+            case PBKDF2_SHA256: {
+                byte[] salt = new byte[Pbkdf2PasswordHasher.SALT_BYTES];
+                System.arraycopy(digest, 5, salt, 0, salt.length);
+                return equals(Pbkdf2PasswordHasher.derive(password, salt, getInt(digest, 1)),
+                        digest, 5 + salt.length);
+            }
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param digest a binary digest.
+     * @param hasher a hasher new digests are made with.
+     * @return {@code true} if <b>digest</b> should be replaced with one of <b>hasher</b>.
+     * @see PasswordHasher#needsRehash(String)
+     */
+    public static boolean needsRehash(byte[] digest, PasswordHasher hasher) {
+        final byte tag = tag(digest);
+        if (hasher instanceof Pbkdf2PasswordHasher)
+            return tag != PBKDF2_SHA256 || getInt(digest, 1) < ((Pbkdf2PasswordHasher) hasher).getIterations();
+        if (hasher instanceof Sha1PasswordHasher)
+            return tag != SHA1;
+        return tag == 0 || hasher.needsRehash(decode(digest));
+    }
+
+    /**
+     * @return the tag of <b>digest</b>, or 0 if it's malformed,
+     * e.g. has an iteration count below 1.
+     */
+    private static byte tag(byte[] digest) {
+        if (digest == null || digest.length == 0)
+            return 0;
+        if (digest[0] == SHA1 && digest.length == 1 + SHA1_BYTES)
+            return SHA1;
+        if (digest[0] == PBKDF2_SHA256 && digest.length == MAX_LENGTH && getInt(digest, 1) >= 1)
+            return PBKDF2_SHA256;
+        return 0;
+    }
+
+    /**
+     * Compares <b>expected</b> with the bytes of <b>digest</b> from <b>offset</b>,
+     * in a time that depends only on the length.
+     */
+    private static boolean equals(byte[] expected, byte[] digest, int offset) {
+        if (digest.length - offset != expected.length)
+            return false;
+        int difference = 0;
+        for (int i = 0; i < expected.length; i++) {
+            difference |= expected[i] ^ digest[offset + i];
+        }
+        return difference == 0;
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static int getInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8 | bytes[offset + 3] & 0xFF;
+    }
+}
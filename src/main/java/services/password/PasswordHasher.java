@@ -0,0 +1,40 @@
+package services.password;
+
+/**
+ * A way of turning passwords into stored digests and checking them.
+ *
+ * <p>Digests carry everything needed to check them, including the cost
+ * they were made with, so users hashed with different costs can coexist.
+ *
+ * @author Igor Sytnik
+ * @see PasswordHashers
+ */
+public interface PasswordHasher {
+
+    /**
+     * @param password a password to hash.
+     * @return a digest to store.
+     */
+    String hash(String password);
+
+    /**
+     * @param digest a stored digest.
+     * @return {@code true} if <b>digest</b> was made by this kind of hasher.
+     */
+    boolean supports(String digest);
+
+    /**
+     * @param password a password to check.
+     * @param digest a stored digest this hasher {@link PasswordHasher#supports(String) supports}.
+     * @return {@code true} if <b>password</b> matches <b>digest</b>.
+     */
+    boolean verify(String password, String digest);
+
+    /**
+     * @param digest a stored digest.
+     * @return {@code true} if <b>digest</b> should be replaced with
+     * {@link PasswordHasher#hash(String)}, because it was made by another
+     * hasher or with a lower cost.
+     */
+    boolean needsRehash(String digest);
+}
@@ -0,0 +1,52 @@
+package services.password;
+
+/**
+ * Known {@link PasswordHasher}s, for checking a digest without knowing which hasher made it.
+ *
+ * <p>A configured hasher, e.g. a custom one of {@code UserService#getPasswordHasher()},
+ * is tried first, so its digests are checked too; the known formats are tried after it.
+ *
+ * @author Igor Sytnik
+ */
+public final class PasswordHashers {
+
+    public static final PasswordHasher SHA1 = new Sha1PasswordHasher();
+    public static final PasswordHasher PBKDF2 = new Pbkdf2PasswordHasher();
+
+    private static final PasswordHasher[] KNOWN = {PBKDF2, SHA1};
+
+    private PasswordHashers() {
+    }
+
+    /**
+     * Checks <b>password</b> with the hasher that made <b>digest</b>.
+     *
+     * @param password a password to check.
+     * @param digest a stored digest.
+     * @return {@code true} if <b>password</b> matches <b>digest</b>,
+     * {@code false} if it doesn't or the digest format is unknown.
+     */
+    public static boolean verify(String password, String digest) {
+        return verify(password, digest, null);
+    }
+
+    /**
+     * Checks <b>password</b> with <b>configured</b> if it made <b>digest</b>,
+     * otherwise with the known hasher that did.
+     *
+     * @param password a password to check.
+     * @param digest a stored digest.
+     * @param configured a hasher new digests are made with, or <i>null</i>.
+     * @return {@code true} if <b>password</b> matches <b>digest</b>,
+     * {@code false} if it doesn't or no hasher supports the digest format.
+     */
+    public static boolean verify(String password, String digest, PasswordHasher configured) {
+        if (configured != null && configured.supports(digest))
+            return configured.verify(password, digest);
+        for (PasswordHasher hasher : KNOWN) {
+            if (hasher.supports(digest))
+                return hasher.verify(password, digest);
+        }
+        return false;
+    }
+}
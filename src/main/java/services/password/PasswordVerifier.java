@@ -0,0 +1,205 @@
+package services.password;
+
+import exceptions.LoginOverloadedException;
+import metrics.LatencyHistogram;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Checks passwords on a dedicated, bounded pool of threads.
+ *
+ * <p>Expensive hashes run on a fixed number of threads instead of the request
+ * threads. At most <b>queueCapacity</b> checks wait for a thread; any more are
+ * rejected right away with {@link LoginOverloadedException}, so an overload
+ * doesn't build an unbounded backlog.
+ *
+ * <p>Queue wait and hash time are recorded in {@link LatencyHistogram}s.
+ * Call {@link PasswordVerifier#close()} to stop the threads.
+ *
+ * @author Igor Sytnik
+ */
+public class PasswordVerifier implements AutoCloseable {
+
+    private final ThreadPoolExecutor executor;
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final LatencyHistogram hashTime = new LatencyHistogram();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param threads a number of threads hashing passwords, usually
+     *                at most the number of cores set aside for it.
+     * @param queueCapacity a maximum number of checks waiting for a thread.
+     */
+    public PasswordVerifier(int threads, int queueCapacity) {
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "password-verifier-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Checks <b>password</b> against <b>digest</b> and waits for the result.
+     *
+     * @param password a password to check.
+     * @param digest a stored digest.
+     * @return {@code true} if <b>password</b> matches <b>digest</b>.
+     * @throws LoginOverloadedException if there is no capacity for the check.
+     * @see PasswordHashers#verify(String, String)
+     */
+    public boolean verify(String password, String digest) throws LoginOverloadedException {
+        return await(verifyAsync(password, digest));
+    }
+
+    /**
+     * Checks <b>password</b> against <b>digest</b>, trying <b>configured</b> first, and waits for the result.
+     *
+     * @param password a password to check.
+     * @param digest a stored digest.
+     * @param configured a hasher new digests are made with, or <i>null</i>.
+     * @return {@code true} if <b>password</b> matches <b>digest</b>.
+     * @throws LoginOverloadedException if there is no capacity for the check.
+     * @see PasswordHashers#verify(String, String, PasswordHasher)
+     */
+    public boolean verify(String password, String digest, PasswordHasher configured) throws LoginOverloadedException {
+        return await(verifyAsync(password, digest, configured));
+    }
+
+    /**
+     * Checks <b>password</b> against a binary <b>digest</b> and waits for the result.
+     *
+     * @param password a password to check.
+     * @param digest a binary digest.
+     * @return {@code true} if <b>password</b> matches <b>digest</b>.
+     * @throws LoginOverloadedException if there is no capacity for the check.
+     * @see BinaryDigests#verify(String, byte[])
+     */
+    public boolean verify(String password, byte[] digest) throws LoginOverloadedException {
+        return await(verifyAsync(password, digest));
+    }
+
+    /**
+     * Queues a check of <b>password</b> against <b>digest</b>.
+     *
+     * @param password a password to check.
+     * @param digest a stored digest.
+     * @return a future of {@code true} if <b>password</b> matches <b>digest</b>.
+     * @throws LoginOverloadedException if there is no capacity for the check.
+     */
+    public CompletableFuture<Boolean> verifyAsync(String password, String digest) throws LoginOverloadedException {
+        return verifyAsync(password, digest, null);
+    }
+
+    /**
+     * Queues a check of <b>password</b> against <b>digest</b>, trying <b>configured</b> first.
+     *
+     * @param password a password to check.
+     * @param digest a stored digest.
+     * @param configured a hasher new digests are made with, or <i>null</i>.
+     * @return a future of {@code true} if <b>password</b> matches <b>digest</b>.
+     * @throws LoginOverloadedException if there is no capacity for the check.
+     */
+    public CompletableFuture<Boolean> verifyAsync(String password, String digest, PasswordHasher configured)
+            throws LoginOverloadedException {
+        return submit(() -> PasswordHashers.verify(password, digest, configured));
+    }
+
+    /**
+     * Queues a check of <b>password</b> against a binary <b>digest</b>.
+     *
+     * @param password a password to check.
+     * @param digest a binary digest.
+     * @return a future of {@code true} if <b>password</b> matches <b>digest</b>.
+     * @throws LoginOverloadedException if there is no capacity for the check.
+     */
+    public CompletableFuture<Boolean> verifyAsync(String password, byte[] digest) throws LoginOverloadedException {
+        return submit(() -> BinaryDigests.verify(password, digest));
+    }
+
+    private CompletableFuture<Boolean> submit(BooleanSupplier check) throws LoginOverloadedException {
+        final long submitted = System.nanoTime();
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                long started = System.nanoTime();
+                queueWait.record(started - submitted);
+                try {
+                    return check.getAsBoolean();
+                } finally {
+                    hashTime.record(System.nanoTime() - started);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new LoginOverloadedException("Too many logins, try again later");
+        }
+    }
+
+    private static boolean await(CompletableFuture<Boolean> result) throws LoginOverloadedException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LoginOverloadedException("Interrupted while checking the password");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * An executor of the verifier's threads and queue, for other short password work
+     * that shouldn't run on request threads. Whatever runs on it competes with checks
+     * for threads and queue slots, so slow work such as storing upgraded digests
+     * belongs on an executor of its own.
+     *
+     * @return an executor that throws {@link RejectedExecutionException} when the queue is full.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @return nanoseconds checks spent waiting for a thread.
+     */
+    public LatencyHistogram getQueueWait() {
+        return queueWait;
+    }
+
+    /**
+     * @return nanoseconds spent hashing.
+     */
+    public LatencyHistogram getHashTime() {
+        return hashTime;
+    }
+
+    /**
+     * @return a number of checks rejected for lack of capacity.
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return a number of checks waiting for a thread.
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,102 @@
+package services.password;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Salted PBKDF2 with HMAC-SHA256.
+ *
+ * <p>Digests look like {@code pbkdf2-sha256$<iterations>$<salt>$<hash>}
+ * with base64 salt and hash, so every user keeps the iteration count
+ * they were hashed with.
+ *
+ * @author Igor Sytnik
+ */
+public class Pbkdf2PasswordHasher implements PasswordHasher {
+
+    public static final String PREFIX = "pbkdf2-sha256$";
+    /**
+     * An iteration count recommended for PBKDF2-HMAC-SHA256.
+     */
+    public static final int DEFAULT_ITERATIONS = 210_000;
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    static final int SALT_BYTES = 16;
+    static final int HASH_BITS = 256;
+
+    private final int iterations;
+    private final SecureRandom random = new SecureRandom();
+
+    public Pbkdf2PasswordHasher() {
+        this(DEFAULT_ITERATIONS);
+    }
+
+    /**
+     * @param iterations an iteration count new digests are made with.
+     */
+    public Pbkdf2PasswordHasher(int iterations) {
+        if (iterations < 1)
+            throw new IllegalArgumentException("Iterations must be positive");
+        this.iterations = iterations;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    @Override
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        return PREFIX + iterations + '$' + encoder.encodeToString(salt) + '$'
+                + encoder.encodeToString(derive(password, salt, iterations));
+    }
+
+    @Override
+    public boolean supports(String digest) {
+        return digest != null && digest.startsWith(PREFIX);
+    }
+
+    @Override
+    public boolean verify(String password, String digest) {
+        String[] parts = digest.substring(PREFIX.length()).split("\\$");
+        if (parts.length != 3)
+            return false;
+        try {
+            Base64.Decoder decoder = Base64.getDecoder();
+            byte[] expected = decoder.decode(parts[2]);
+            return MessageDigest.isEqual(derive(password, decoder.decode(parts[1]), Integer.parseInt(parts[0])),
+                    expected);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean needsRehash(String digest) {
+        if (!supports(digest))
+            return true;
+        int end = digest.indexOf('$', PREFIX.length());
+        try {
+            return end < 0 || Integer.parseInt(digest.substring(PREFIX.length(), end)) < iterations;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    static byte[] derive(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
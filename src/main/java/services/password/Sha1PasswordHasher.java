@@ -0,0 +1,53 @@
+package services.password;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Unsalted SHA-1 as 40 hex characters, the way passwords used to be stored.
+ *
+ * <p>Kept to verify existing users; they are rehashed on their next login.
+ *
+ * @author Igor Sytnik
+ */
+public class Sha1PasswordHasher implements PasswordHasher {
+
+    @Override
+    public String hash(String password) {
+        return DigestUtils.sha1Hex(password);
+    }
+
+    @Override
+    public boolean supports(String digest) {
+        if (digest == null || digest.length() != 40)
+            return false;
+        for (int i = 0; i < digest.length(); i++) {
+            if (Character.digit(digest.charAt(i), 16) < 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compares the raw SHA-1 of <b>password</b> with the hex digits of <b>digest</b>
+     * in constant time, without hexing the password's digest.
+     */
+    @Override
+    public boolean verify(String password, String digest) {
+        final byte[] actual = DigestUtils.sha1(password.getBytes(StandardCharsets.UTF_8));
+        if (digest.length() != 2 * actual.length)
+            return false;
+        int difference = 0;
+        for (int i = 0; i < actual.length; i++) {
+            int expected = Character.digit(digest.charAt(2 * i), 16) << 4 | Character.digit(digest.charAt(2 * i + 1), 16);
+            difference |= expected ^ (actual[i] & 0xFF);
+        }
+        return difference == 0;
+    }
+
+    @Override
+    public boolean needsRehash(String digest) {
+        return !supports(digest);
+    }
+}
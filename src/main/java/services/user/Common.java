@@ -1,16 +1,45 @@
 package services.user;
 
+import io.micrometer.core.instrument.Timer;
+import metrics.AuthMetrics;
+import org.hibernate.Session;
+import org.springframework.core.GenericTypeResolver;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.repository.JpaRepository;
 
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import javax.persistence.metamodel.EntityType;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * A common methods class for business logic operations.<br>
  * When inheriting this class you should also implement {@link Common#getRepository()}.
  *
+ * <p>Repository calls are timed by {@link AuthMetrics} when it is enabled.
+ *
+ * <p>{@link Common#getAll()}, {@link Common#createMany(Collection)} and {@link Common#deleteAll()}
+ * hold the whole table in memory. For big tables use {@link Common#stream(int)},
+ * {@link Common#forEachChunk(int, Consumer)}, {@link Common#createInChunks(Iterable, int)}
+ * and {@link Common#deleteAllInChunks(int)}, which only hold one fetch or chunk at a time.
+ *
+ * <p>{@link Common#createMany(Collection)} inserts in JDBC batches only if
+ * {@code hibernate.jdbc.batch_size} is set, e.g. {@code spring.jpa.properties.hibernate.jdbc.batch_size=50}.
+ * {@link Common#createInChunks(Iterable, int)} batches by itself when there is an entity manager.
+ *
  * @param <E> entity class.
  * @param <ID> identification or id class of the entity <b>E</b>.
  */
@@ -18,35 +47,427 @@ public abstract class Common<E, ID> {
 
     protected abstract JpaRepository<E, ID> getRepository();
 
+    /**
+     * An entity manager for {@link Common#stream(int)} to read through a cursor,
+     * and for chunked operations to clear the persistence context with.
+     *
+     * @return {@code null} by default, so entities are read and written page by page
+     * through the repository.
+     */
+    protected EntityManager getEntityManager() {
+        return null;
+    }
+
+    /**
+     * @return the class of <b>E</b>, resolved from the type arguments of the subclass.
+     */
+    protected Class<E> getEntityClass() {
+        Class<?>[] arguments = GenericTypeResolver.resolveTypeArguments(getClass(), Common.class);
+        if (arguments == null || arguments[0] == null)
+            throw new IllegalStateException("Couldn't resolve the entity class of " + getClass().getName());
+        return (Class<E>) arguments[0];
+    }
+
+    /**
+     * @param entityManager an entity manager of the persistence unit of <b>E</b>.
+     * @return the name of <b>E</b> to use in JPQL queries.
+     */
+    protected String getEntityName(EntityManager entityManager) {
+        return entityManager.getMetamodel().entity(getEntityClass()).getName();
+    }
+
+    /**
+     * @param entityManager an entity manager whose metamodel has the entity.
+     * @return the name of the id property of {@link Common#getEntityClass()}.
+     */
+    protected String getIdProperty(EntityManager entityManager) {
+        final EntityType<E> entity = entityManager.getMetamodel().entity(getEntityClass());
+        return entity.getId(entity.getIdType().getJavaType()).getName();
+    }
+
+    /**
+     * @return a property entities are ordered by when read page by page, {@code "id"} by default.
+     */
+    protected String getOrderProperty() {
+        return "id";
+    }
+
     public Optional<E> get(ID id) {
-        return getRepository().findById(id);
+        final Timer.Sample sample = AuthMetrics.start();
+        String outcome = AuthMetrics.ERROR;
+        try {
+            Optional<E> found = getRepository().findById(id);
+            outcome = AuthMetrics.SUCCESS;
+            return found;
+        } finally {
+            stop(sample, "get", outcome);
+        }
     }
 
     public E update(E entity) {
-        return getRepository().save(entity);
+        final Timer.Sample sample = AuthMetrics.start();
+        String outcome = AuthMetrics.ERROR;
+        try {
+            E saved = getRepository().save(entity);
+            outcome = AuthMetrics.SUCCESS;
+            onSaved(saved);
+            return saved;
+        } finally {
+            stop(sample, "update", outcome);
+        }
     }
 
     public void delete(ID id) {
-        getRepository().deleteById(id);
+        final Timer.Sample sample = AuthMetrics.start();
+        String outcome = AuthMetrics.ERROR;
+        try {
+            getRepository().deleteById(id);
+            outcome = AuthMetrics.SUCCESS;
+            onDeleted(id);
+        } finally {
+            stop(sample, "delete", outcome);
+        }
     }
 
     public Page<E> list(Pageable pageable) {
-        return getRepository().findAll(pageable);
+        final Timer.Sample sample = AuthMetrics.start();
+        String outcome = AuthMetrics.ERROR;
+        try {
+            Page<E> page = getRepository().findAll(pageable);
+            outcome = AuthMetrics.SUCCESS;
+            return page;
+        } finally {
+            stop(sample, "list", outcome);
+        }
     }
 
     public int count() {
-        return (int) getRepository().count();
+        final Timer.Sample sample = AuthMetrics.start();
+        String outcome = AuthMetrics.ERROR;
+        try {
+            int count = (int) getRepository().count();
+            outcome = AuthMetrics.SUCCESS;
+            return count;
+        } finally {
+            stop(sample, "count", outcome);
+        }
     }
 
     public Collection<E> createMany(Collection<E> collection) {
-        return getRepository().saveAll(collection);
+        final Timer.Sample sample = AuthMetrics.start();
+        String outcome = AuthMetrics.ERROR;
+        try {
+            Collection<E> saved = getRepository().saveAll(collection);
+            outcome = AuthMetrics.SUCCESS;
+            saved.forEach(this::onSaved);
+            return saved;
+        } finally {
+            stop(sample, "createMany", outcome);
+        }
     }
 
+    /**
+     * @return all entities, loaded into memory at once.
+     * @see Common#stream(int)
+     */
     public Collection<E> getAll() {
-        return getRepository().findAll();
+        final Timer.Sample sample = AuthMetrics.start();
+        String outcome = AuthMetrics.ERROR;
+        try {
+            Collection<E> all = getRepository().findAll();
+            outcome = AuthMetrics.SUCCESS;
+            return all;
+        } finally {
+            stop(sample, "getAll", outcome);
+        }
     }
 
+    /**
+     * Deletes all entities with one {@code delete} statement, without loading them.
+     * Entity callbacks and cascades don't run.
+     */
     public void deleteAll() {
-        getRepository().deleteAll();
+        final Timer.Sample sample = AuthMetrics.start();
+        String outcome = AuthMetrics.ERROR;
+        try {
+            getRepository().deleteAllInBatch();
+            outcome = AuthMetrics.SUCCESS;
+            onDeletedAll();
+        } finally {
+            stop(sample, "deleteAll", outcome);
+        }
+    }
+
+    /**
+     * Streams all entities without loading the table into memory.
+     *
+     * <p>With an {@link Common#getEntityManager()}, the entities are read through one
+     * server-side cursor, <b>fetchSize</b> rows per round trip, read-only, and every entity
+     * is detached before it's passed on. This has to run inside a transaction, which must
+     * stay open until the stream is closed. Some drivers need more for a real cursor:
+     * PostgreSQL streams only with autocommit off, MySQL only with {@code useCursorFetch=true}.
+     *
+     * <p>Without one, the entities are read in pages of <b>fetchSize</b> ordered by
+     * {@link Common#getOrderProperty()}. It should run outside a transaction then, so that
+     * every page is read in a persistence context of its own, and the table shouldn't change
+     * while it runs, since pages are counted by offset.
+     *
+     * <p>Close the stream, e.g. with try-with-resources, to release the cursor.
+     *
+     * @param fetchSize a number of rows fetched at a time.
+     * @return a lazy stream of detached entities.
+     */
+    public Stream<E> stream(int fetchSize) {
+        if (fetchSize < 1)
+            throw new IllegalArgumentException("Fetch size must be positive");
+        final EntityManager entityManager = getEntityManager();
+        if (entityManager == null)
+            return StreamSupport.stream(new PageSpliterator(fetchSize), false);
+
+        final Class<E> entityClass = getEntityClass();
+        return entityManager.createQuery("select e from " + getEntityName(entityManager) + " e", entityClass)
+                .setHint("org.hibernate.fetchSize", fetchSize)
+                .setHint("org.hibernate.readOnly", true)
+                .setHint("org.hibernate.cacheMode", "IGNORE")
+                .getResultStream()
+                .map(entity -> {
+                    entityManager.detach(entity);
+                    return entity;
+                });
+    }
+
+    /**
+     * Passes every entity to <b>action</b> without loading the table into memory.
+     *
+     * @param fetchSize a number of rows fetched at a time.
+     * @param action called with every entity, detached.
+     * @see Common#stream(int)
+     */
+    public void forEach(int fetchSize, Consumer<? super E> action) {
+        try (Stream<E> entities = stream(fetchSize)) {
+            entities.forEach(action);
+        }
+    }
+
+    /**
+     * Passes all entities to <b>action</b> in lists of up to <b>chunkSize</b>,
+     * e.g. to export or audit them in batches.
+     *
+     * @param chunkSize a number of entities in a list, and of rows fetched at a time.
+     * @param action called with every list of detached entities.
+     * @return a number of entities passed.
+     * @see Common#stream(int)
+     */
+    public long forEachChunk(int chunkSize, Consumer<? super List<E>> action) {
+        long count = 0;
+        try (Stream<E> entities = stream(chunkSize)) {
+            final Iterator<E> iterator = entities.iterator();
+            List<E> chunk = new ArrayList<>(chunkSize);
+            while (iterator.hasNext()) {
+                chunk.add(iterator.next());
+                if (chunk.size() == chunkSize) {
+                    action.accept(chunk);
+                    count += chunk.size();
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                action.accept(chunk);
+                count += chunk.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Saves <b>entities</b> in chunks of <b>chunkSize</b>, without keeping them all in memory.
+     *
+     * <p>Every chunk is saved with one {@link JpaRepository#saveAll(Iterable)} call. With an
+     * {@link Common#getEntityManager()}, it is then flushed as one JDBC batch and the persistence
+     * context is cleared, so a long transaction doesn't grow with every chunk. This has to run
+     * inside a transaction then, and new entities must have sequence or assigned ids; Hibernate
+     * inserts rows with identity ids one by one. Users get sequence ids with
+     * {@link pojo.UserBase#SEQUENCE_MAPPING}.
+     *
+     * @param entities entities to save, e.g. {@code stream::iterator}; read only once.
+     * @param chunkSize a number of entities saved, and rows inserted in one JDBC batch, at a time.
+     * @return a number of saved entities.
+     */
+    public long createInChunks(Iterable<? extends E> entities, int chunkSize) {
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("Chunk size must be positive");
+        final Timer.Sample sample = AuthMetrics.start();
+        String outcome = AuthMetrics.ERROR;
+        try {
+            long count = 0;
+            List<E> chunk = new ArrayList<>(chunkSize);
+            for (E entity : entities) {
+                chunk.add(entity);
+                if (chunk.size() == chunkSize) {
+                    count += saveChunk(chunk);
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty())
+                count += saveChunk(chunk);
+            outcome = AuthMetrics.SUCCESS;
+            return count;
+        } finally {
+            stop(sample, "createInChunks", outcome);
+        }
+    }
+
+    private int saveChunk(List<E> chunk) {
+        final List<E> saved = getRepository().saveAll(chunk);
+        final EntityManager entityManager = getEntityManager();
+        if (entityManager != null) {
+            flushInBatches(entityManager, chunk.size());
+            entityManager.clear();
+        }
+        saved.forEach(this::onSaved);
+        return saved.size();
+    }
+
+    /**
+     * Flushes the changes of <b>entityManager</b> with a JDBC batch size of <b>batchSize</b>,
+     * so that up to <b>batchSize</b> changed entities are written in one batch.
+     *
+     * @param entityManager an entity manager to flush.
+     * @param batchSize a number of statements sent at a time.
+     */
+    protected static void flushInBatches(EntityManager entityManager, int batchSize) {
+        final Session session = entityManager.unwrap(Session.class);
+        final Integer previous = session.getJdbcBatchSize();
+        session.setJdbcBatchSize(batchSize);
+        try {
+            entityManager.flush();
+        } finally {
+            session.setJdbcBatchSize(previous);
+        }
+    }
+
+    /**
+     * Deletes all entities in chunks of <b>chunkSize</b>, one statement per chunk,
+     * without loading the table into memory.
+     *
+     * <p>With an {@link Common#getEntityManager()}, only the ids of a chunk are read, in id order,
+     * and the chunk is deleted with {@code delete ... where id in (...)}. This has to run inside
+     * a transaction then. Entity callbacks and cascades don't run.
+     *
+     * <p>Without one, every chunk is read as entities and deleted with
+     * {@link JpaRepository#deleteInBatch(Iterable)}, whose statement has a condition per entity,
+     * so keep the chunks small.
+     *
+     * @param chunkSize a number of entities deleted at a time.
+     * @return a number of deleted entities.
+     */
+    public long deleteAllInChunks(int chunkSize) {
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("Chunk size must be positive");
+        final Timer.Sample sample = AuthMetrics.start();
+        String outcome = AuthMetrics.ERROR;
+        try {
+            final EntityManager entityManager = getEntityManager();
+            final long count = entityManager == null
+                    ? deleteEntitiesInChunks(chunkSize)
+                    : deleteIdsInChunks(entityManager, chunkSize);
+            outcome = AuthMetrics.SUCCESS;
+            onDeletedAll();
+            return count;
+        } finally {
+            stop(sample, "deleteAllInChunks", outcome);
+        }
+    }
+
+    private long deleteIdsInChunks(EntityManager entityManager, int chunkSize) {
+        final String id = getIdProperty(entityManager);
+        final String entityName = getEntityName(entityManager);
+        final TypedQuery<Object> select = entityManager.createQuery(
+                "select e." + id + " from " + entityName + " e order by e." + id, Object.class)
+                .setMaxResults(chunkSize);
+        final Query delete = entityManager.createQuery(
+                "delete from " + entityName + " e where e." + id + " in :ids");
+        long count = 0;
+        while (true) {
+            // Deleted rows leave the table, so the next chunk is always the lowest ids.
+            List<Object> ids = select.getResultList();
+            if (ids.isEmpty())
+                return count;
+            count += delete.setParameter("ids", ids).executeUpdate();
+            entityManager.clear();
+        }
+    }
+
+    private long deleteEntitiesInChunks(int chunkSize) {
+        final PageRequest first = PageRequest.of(0, chunkSize, Sort.by(getOrderProperty()));
+        long count = 0;
+        while (true) {
+            List<E> chunk = getRepository().findAll(first).getContent();
+            if (chunk.isEmpty())
+                return count;
+            getRepository().deleteInBatch(chunk);
+            count += chunk.size();
+        }
+    }
+
+    /**
+     * Reads the entities a page at a time, when there's no entity manager to read them through a cursor.
+     */
+    private class PageSpliterator extends Spliterators.AbstractSpliterator<E> {
+        private final int pageSize;
+        private int page;
+        private Iterator<E> current;
+        private boolean last;
+
+        PageSpliterator(int pageSize) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.pageSize = pageSize;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super E> action) {
+            while (current == null || !current.hasNext()) {
+                if (last)
+                    return false;
+                Page<E> next = list(PageRequest.of(page++, pageSize, Sort.by(getOrderProperty())));
+                current = next.getContent().iterator();
+                last = !next.hasNext();
+            }
+            action.accept(current.next());
+            return true;
+        }
+    }
+
+    /**
+     * Records a repository call in {@link AuthMetrics#REPOSITORY} if it is timed.
+     */
+    protected static void stop(Timer.Sample sample, String operation, String outcome) {
+        if (sample != null)
+            AuthMetrics.stop(sample, AuthMetrics.REPOSITORY, outcome, "operation", operation);
+    }
+
+    /**
+     * Called after <b>entity</b> was saved through this class.
+     * Does nothing by default.
+     *
+     * @param entity a saved entity.
+     */
+    protected void onSaved(E entity) {
+    }
+
+    /**
+     * Called after the entity with <b>id</b> was deleted through this class.
+     * Does nothing by default.
+     *
+     * @param id an id of the deleted entity.
+     */
+    protected void onDeleted(ID id) {
+    }
+
+    /**
+     * Called after all entities were deleted through this class.
+     * Does nothing by default.
+     */
+    protected void onDeletedAll() {
     }
 }
@@ -0,0 +1,138 @@
+package services.user;
+
+import MFA.SchemeType;
+import pojo.UserBase;
+import services.password.BinaryDigests;
+import services.password.PasswordHasher;
+import services.password.PasswordHashers;
+
+import java.math.BigInteger;
+
+/**
+ * An immutable copy of the user fields that are needed to log in.
+ *
+ * <p>It is what {@link LoginMetadataCache} keeps, so a cached login
+ * never touches a managed entity. The password digest is kept as bytes of
+ * {@link BinaryDigests} when it has a binary form, whichever way the user stores it,
+ * so checks compare raw bytes.
+ *
+ * @author Igor Sytnik
+ */
+public final class LoginMetadata {
+
+    private final Object id;
+    private final String username;
+    private final String passwordDigest;
+    private final byte[] passwordDigestBytes;
+    private final BigInteger prime;
+    private final SchemeType scheme;
+    private final BigInteger[] commitments;
+    private final Integer sharesNeeded;
+    private final Boolean emailingEnabled;
+
+    private LoginMetadata(Object id, String username, String passwordDigest, byte[] passwordDigestBytes,
+                          BigInteger prime, SchemeType scheme, BigInteger[] commitments,
+                          Integer sharesNeeded, Boolean emailingEnabled) {
+        this.id = id;
+        this.username = username;
+        this.passwordDigest = passwordDigest;
+        this.passwordDigestBytes = passwordDigestBytes;
+        this.prime = prime;
+        this.scheme = scheme;
+        this.commitments = commitments;
+        this.sharesNeeded = sharesNeeded;
+        this.emailingEnabled = emailingEnabled;
+    }
+
+    /**
+     * @param user a user to copy the fields of.
+     * @return login metadata of <b>user</b>.
+     */
+    public static LoginMetadata of(UserBase<?> user) {
+        final byte[] passwordDigestBytes = UserStorage.getPasswordDigestBytes(user);
+        return new LoginMetadata(user.getId(), user.getUsername(),
+                passwordDigestBytes == null ? UserStorage.getPasswordDigest(user) : null, passwordDigestBytes,
+                UserStorage.getPrime(user), user.getScheme(), UserStorage.getCommitments(user),
+                user.getSharesNeeded(), user.getEmailingEnabled());
+    }
+
+    /**
+     * @param password a password to check.
+     * @return {@code true} if <b>password</b> matches the user's stored password.
+     * @see BinaryDigests#verify(String, byte[])
+     * @see PasswordHashers#verify(String, String)
+     */
+    public boolean checkPassword(String password) {
+        return checkPassword(password, null);
+    }
+
+    /**
+     * @param password a password to check.
+     * @param hasher a hasher new digests are made with, tried before the known ones, or <i>null</i>.
+     * @return {@code true} if <b>password</b> matches the user's stored password.
+     * @see PasswordHashers#verify(String, String, PasswordHasher)
+     */
+    public boolean checkPassword(String password, PasswordHasher hasher) {
+        if (passwordDigestBytes != null)
+            return BinaryDigests.verify(password, passwordDigestBytes);
+        return PasswordHashers.verify(password, passwordDigest, hasher);
+    }
+
+    /**
+     * @param hasher a hasher new digests are made with.
+     * @return {@code true} if the stored digest should be replaced with one of <b>hasher</b>.
+     */
+    public boolean needsRehash(PasswordHasher hasher) {
+        if (passwordDigestBytes != null)
+            return BinaryDigests.needsRehash(passwordDigestBytes, hasher);
+        return hasher.needsRehash(passwordDigest);
+    }
+
+    public Object getId() {
+        return id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * @return the stored digest as text, converted from bytes if needed.
+     */
+    public String getPasswordDigest() {
+        return passwordDigest != null ? passwordDigest : BinaryDigests.decode(passwordDigestBytes);
+    }
+
+    /**
+     * @return the stored digest as bytes of {@link BinaryDigests},
+     * or <i>null</i> if it has no binary form.
+     */
+    public byte[] getPasswordDigestBytes() {
+        return passwordDigestBytes == null ? null : passwordDigestBytes.clone();
+    }
+
+    public BigInteger getPrime() {
+        return prime;
+    }
+
+    public SchemeType getScheme() {
+        return scheme;
+    }
+
+    /**
+     * @return commitments to check shares against before combining them,
+     * or <i>null</i> if the scheme has none.
+     * @see MFA.FeldmanScheme#verify(MFA.SecretShare[], BigInteger[])
+     */
+    public BigInteger[] getCommitments() {
+        return commitments == null ? null : commitments.clone();
+    }
+
+    public Integer getSharesNeeded() {
+        return sharesNeeded;
+    }
+
+    public Boolean getEmailingEnabled() {
+        return emailingEnabled;
+    }
+}
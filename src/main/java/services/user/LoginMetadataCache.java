@@ -0,0 +1,297 @@
+package services.user;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A bounded read-through cache of {@link LoginMetadata}, keyed by username.
+ *
+ * <p>Entries expire after a fixed time to live. Once the maximum size is reached, entries
+ * are evicted in the CLOCK order: the oldest entry that wasn't read since it was last
+ * passed over goes first, which approximates least recently used. {@link UserService}
+ * invalidates entries whenever users are saved or deleted through it.
+ *
+ * <p>Hits take no lock. Every load holds a token for its username, and an invalidation of
+ * the username drops the token, so a load that raced with it doesn't put a stale entry back;
+ * loads of other users are not affected.
+ *
+ * <p>Instances are safe to share between threads.
+ *
+ * @author Igor Sytnik
+ * @see UserService#getLoginMetadataCache()
+ */
+public class LoginMetadataCache {
+
+    private final int maximumSize;
+    private final long timeToLiveNanos;
+    private final ConcurrentHashMap<String, CachedEntry> entries = new ConcurrentHashMap<>();
+    /**
+     * Tokens of the loads in flight by username. A load is only cached if its token is still here.
+     */
+    private final ConcurrentHashMap<String, Object> loads = new ConcurrentHashMap<>();
+    /**
+     * Usernames of cached entries by user id, for invalidating by id.
+     */
+    private final ConcurrentHashMap<Object, String> usernamesById = new ConcurrentHashMap<>();
+    /**
+     * Usernames in the order they were cached or given a second chance, for eviction.
+     * May hold usernames that are no longer cached; they are skipped.
+     */
+    private final ConcurrentLinkedQueue<String> order = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Object evictionLock = new Object();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maximumSize a maximum number of users kept in the cache.
+     * @param timeToLive how long an entry is served after it was loaded.
+     */
+    public LoginMetadataCache(int maximumSize, Duration timeToLive) {
+        if (maximumSize < 1)
+            throw new IllegalArgumentException("Maximum size must be positive");
+        this.maximumSize = maximumSize;
+        this.timeToLiveNanos = timeToLive.toNanos();
+    }
+
+    /**
+     * Returns cached metadata of the user with <b>username</b>,
+     * loading it with <b>loader</b> if it isn't cached or has expired.
+     *
+     * @param username to search by.
+     * @param loader loads metadata on a miss; may return <i>null</i>
+     *               if there is no such user, which isn't cached.
+     * @return metadata of the user, or <i>null</i> if <b>loader</b> found none.
+     */
+    public LoginMetadata get(String username, Function<String, LoginMetadata> loader) {
+        final long now = System.nanoTime();
+        LoginMetadata cached = lookup(username, now);
+        if (cached != null)
+            return cached;
+        misses.increment();
+
+        final Object token = startLoad(username);
+        LoginMetadata metadata = null;
+        try {
+            metadata = loader.apply(username);
+            return metadata;
+        } finally {
+            store(username, metadata, now, token);
+        }
+    }
+
+    /**
+     * Same as {@link LoginMetadataCache#get(String, Function)}, for loaders that don't block.
+     *
+     * @param username to search by.
+     * @param loader loads metadata on a miss; may complete with <i>null</i>
+     *               if there is no such user, which isn't cached.
+     * @return a future of metadata of the user, or of <i>null</i> if <b>loader</b> found none.
+     */
+    public CompletableFuture<LoginMetadata> getAsync(String username,
+                                                     Function<String, CompletableFuture<LoginMetadata>> loader) {
+        final long now = System.nanoTime();
+        LoginMetadata cached = lookup(username, now);
+        if (cached != null)
+            return CompletableFuture.completedFuture(cached);
+        misses.increment();
+
+        final Object token = startLoad(username);
+        final CompletableFuture<LoginMetadata> loaded;
+        try {
+            loaded = loader.apply(username);
+        } catch (RuntimeException | Error e) {
+            store(username, null, now, token);
+            throw e;
+        }
+        return loaded.whenComplete((metadata, e) -> store(username, e == null ? metadata : null, now, token));
+    }
+
+    /**
+     * Returns a live entry and counts a hit, or drops an expired one. Takes no lock.
+     */
+    private LoginMetadata lookup(String username, long now) {
+        CachedEntry entry = entries.get(username);
+        if (entry == null)
+            return null;
+        if (now - entry.loadedAt < timeToLiveNanos) {
+            entry.referenced = true;
+            hits.increment();
+            return entry.metadata;
+        }
+        if (entries.remove(username, entry)) {
+            forgetId(entry.metadata);
+            evictions.increment();
+        }
+        return null;
+    }
+
+    /**
+     * @return a token of a new load of <b>username</b>; it replaces the token of an earlier one.
+     */
+    private Object startLoad(String username) {
+        final Object token = new Object();
+        loads.put(username, token);
+        return token;
+    }
+
+    /**
+     * Caches <b>metadata</b> if <b>token</b> is still the one of <b>username</b>, i.e. the user
+     * wasn't invalidated since the load started, and ends the load either way.
+     */
+    private void store(String username, LoginMetadata metadata, long loadedAt, Object token) {
+        if (metadata == null) {
+            loads.remove(username, token);
+            return;
+        }
+        final boolean[] added = new boolean[1];
+        /* Runs under the lock of the username's bin, as invalidate(username) does */
+        loads.computeIfPresent(username, (key, current) -> {
+            if (current != token)
+                return current;
+            CachedEntry previous = entries.put(username, new CachedEntry(metadata, loadedAt));
+            if (previous != null)
+                forgetId(previous.metadata);
+            if (metadata.getId() != null)
+                usernamesById.put(metadata.getId(), username);
+            added[0] = previous == null;
+            return null;
+        });
+        if (added[0]) {
+            order.offer(username);
+            queued.incrementAndGet();
+            evictIfFull();
+        }
+    }
+
+    /**
+     * Evicts entries in the CLOCK order until there are at most {@link LoginMetadataCache#maximumSize},
+     * and drops usernames of entries that are gone from {@link LoginMetadataCache#order}.
+     */
+    private void evictIfFull() {
+        if (entries.size() <= maximumSize && queued.get() <= 2 * maximumSize)
+            return;
+        synchronized (evictionLock) {
+            while (entries.size() > maximumSize || queued.get() > 2 * maximumSize) {
+                String username = order.poll();
+                if (username == null)
+                    return;
+                queued.decrementAndGet();
+                CachedEntry entry = entries.get(username);
+                if (entry == null)
+                    continue;
+                if (entry.referenced) {
+                    entry.referenced = false;
+                    order.offer(username);
+                    queued.incrementAndGet();
+                } else if (entries.remove(username, entry)) {
+                    forgetId(entry.metadata);
+                    evictions.increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the entry of the user with <b>username</b>, and makes loads of it in flight not cached.
+     *
+     * @param username a username of the user that changed.
+     */
+    public void invalidate(String username) {
+        loads.compute(username, (key, token) -> {
+            remove(username);
+            return null;
+        });
+    }
+
+    /**
+     * Drops the entry of the user with <b>id</b>.
+     *
+     * <p>If no entry of the user is cached, it may be loading under a username not known yet,
+     * so all loads in flight are made not cached.
+     *
+     * @param id an id of the user that changed or was deleted.
+     */
+    public void invalidateById(Object id) {
+        String username = usernamesById.get(id);
+        if (username == null) {
+            loads.clear();
+            /* A load may have been stored just before the loads were dropped */
+            username = usernamesById.get(id);
+        }
+        if (username != null)
+            invalidate(username);
+    }
+
+    /**
+     * Drops all entries and makes loads in flight not cached. Statistics are kept.
+     */
+    public void invalidateAll() {
+        loads.clear();
+        entries.clear();
+        usernamesById.clear();
+        synchronized (evictionLock) {
+            order.clear();
+            queued.set(0);
+        }
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * @return a number of users currently in the cache, including expired ones.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return a number of entries dropped because the cache was full or they expired.
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private void remove(String username) {
+        CachedEntry entry = entries.remove(username);
+        if (entry != null)
+            forgetId(entry.metadata);
+    }
+
+    private void forgetId(LoginMetadata metadata) {
+        if (metadata.getId() != null)
+            usernamesById.remove(metadata.getId(), metadata.getUsername());
+    }
+
+    private static final class CachedEntry {
+        final LoginMetadata metadata;
+        final long loadedAt;
+        /**
+         * Set by hits, cleared by eviction. A lost update only gives an entry one more or one less
+         * pass, so it's a plain field.
+         */
+        boolean referenced;
+
+        CachedEntry(LoginMetadata metadata, long loadedAt) {
+            this.metadata = metadata;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
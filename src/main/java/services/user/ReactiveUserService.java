@@ -0,0 +1,240 @@
+package services.user;
+
+import exceptions.LoginOverloadedException;
+import io.micrometer.core.instrument.Timer;
+import metrics.AuthMetrics;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.data.convert.ReadingConverter;
+import org.springframework.data.convert.WritingConverter;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import pojo.AuthenticationResult;
+import pojo.UserBase;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import services.password.PasswordHasher;
+import services.password.PasswordHashers;
+import services.password.PasswordVerifier;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.List;
+
+/**
+ * The base for a non-blocking <i>user service</i> class,
+ * the reactive counterpart of {@link UserService}.
+ *
+ * <p>Users are read and written through a {@link ReactiveCrudRepository}, e.g.
+ * an {@link org.springframework.data.r2dbc.repository.R2dbcRepository} with
+ * a derived {@code Mono<User> findByUsername(String username)} query.
+ * Column names of {@link UserBase} follow the default R2DBC naming,
+ * so the same table can be used by both services. R2DBC drivers can't bind
+ * a {@link BigInteger}, so unless {@link UserBase#getStorageMode()} is
+ * {@link pojo.StorageMode#BINARY}, register {@link ReactiveUserService#CONVERTERS}, e.g.
+ * with {@code R2dbcCustomConversions.of(dialect, ReactiveUserService.CONVERTERS)}.
+ *
+ * <p>Password hashes are checked on {@link ReactiveUserService#getHashScheduler()}
+ * or on {@link ReactiveUserService#getPasswordVerifier()}, never on the thread
+ * that subscribes.
+ *
+ * @param <U> user type. Must extend UserBase.
+ * @param <ID> user id type that <b>U</b> has.
+ * @author Igor Sytnik
+ * @see controllers.ReactiveAuthController
+ */
+public abstract class ReactiveUserService<U extends UserBase<ID>, ID> {
+
+    /**
+     * Converters that write {@link UserBase}'s {@link BigInteger} prime
+     * as a {@link BigDecimal} and read it back.
+     */
+    public static final List<Converter<?, ?>> CONVERTERS = List.of(
+            BigIntegerToBigDecimalConverter.INSTANCE, BigDecimalToBigIntegerConverter.INSTANCE);
+
+    @WritingConverter
+    private enum BigIntegerToBigDecimalConverter implements Converter<BigInteger, BigDecimal> {
+        INSTANCE;
+
+        @Override
+        public BigDecimal convert(BigInteger source) {
+            return new BigDecimal(source);
+        }
+    }
+
+    @ReadingConverter
+    private enum BigDecimalToBigIntegerConverter implements Converter<BigDecimal, BigInteger> {
+        INSTANCE;
+
+        @Override
+        public BigInteger convert(BigDecimal source) {
+            return source.toBigIntegerExact();
+        }
+    }
+
+    protected abstract ReactiveCrudRepository<U, ID> getRepository();
+
+    /**
+     * Searches for a user by username.
+     *
+     * @param username to search by.
+     * @return a found user, or an empty {@link Mono} if there is none.
+     */
+    public abstract Mono<U> findByUsername(String username);
+
+    /**
+     * @return {@code null} by default, meaning no caching.
+     * @see UserService#getLoginMetadataCache()
+     */
+    protected LoginMetadataCache getLoginMetadataCache() {
+        return null;
+    }
+
+    /**
+     * @return {@link PasswordHashers#PBKDF2} by default.
+     * @see UserService#getPasswordHasher()
+     */
+    protected PasswordHasher getPasswordHasher() {
+        return PasswordHashers.PBKDF2;
+    }
+
+    /**
+     * @return {@code null} by default, meaning passwords are checked
+     * on {@link ReactiveUserService#getHashScheduler()}.
+     * @see UserService#getPasswordVerifier()
+     */
+    protected PasswordVerifier getPasswordVerifier() {
+        return null;
+    }
+
+    /**
+     * A scheduler passwords are hashed and checked on
+     * when there is no {@link ReactiveUserService#getPasswordVerifier()}.
+     *
+     * @return {@link Schedulers#parallel()} by default, one thread per core.
+     */
+    protected Scheduler getHashScheduler() {
+        return Schedulers.parallel();
+    }
+
+    /**
+     * @param password a plain password.
+     * @return a digest of <b>password</b>, computed on {@link ReactiveUserService#getHashScheduler()}.
+     */
+    public Mono<String> hashPassword(String password) {
+        return Mono.fromCallable(() -> getPasswordHasher().hash(password))
+                .subscribeOn(getHashScheduler());
+    }
+
+    /**
+     * Finds the fields needed to log in the user with <b>username</b>.
+     *
+     * @param username to search by.
+     * @return login metadata, or an empty {@link Mono} if the user wasn't found.
+     * @see UserService#findLoginMetadata(String)
+     */
+    public Mono<LoginMetadata> findLoginMetadata(String username) {
+        LoginMetadataCache cache = getLoginMetadataCache();
+        if (cache == null)
+            return findByUsername(username).map(LoginMetadata::of);
+        return Mono.defer(() -> Mono.fromFuture(cache.getAsync(username,
+                name -> findByUsername(name).map(LoginMetadata::of).toFuture())));
+    }
+
+    /**
+     * @param username to search by.
+     * @return {@code true} if user exists, {@code false}, otherwise.
+     */
+    public Mono<Boolean> existsByUsername(String username) {
+        return findByUsername(username).hasElement();
+    }
+
+    /**
+     * @param username to search by.
+     * @return a number of shares needed, or an empty {@link Mono} if the user wasn't found.
+     */
+    public Mono<Integer> findSharesNeededByUsername(String username) {
+        return findLoginMetadata(username).map(LoginMetadata::getSharesNeeded);
+    }
+
+    /**
+     * Saves <b>user</b> and drops it from {@link ReactiveUserService#getLoginMetadataCache()}.
+     *
+     * @param user a user to save.
+     * @return the saved user.
+     */
+    public Mono<U> update(U user) {
+        return getRepository().save(user).doOnNext(saved -> {
+            LoginMetadataCache cache = getLoginMetadataCache();
+            if (cache != null) {
+                cache.invalidate(saved.getUsername());
+                if (saved.getId() != null)
+                    cache.invalidateById(saved.getId());
+            }
+        });
+    }
+
+    /**
+     * A method that should be called when logging in.
+     *
+     * <p>Checks <b>secret</b> against the stored password in <b>metadata</b>.
+     * If the stored digest is outdated, it is replaced in the background.
+     *
+     * @param metadata login metadata of the user that trying to get access.
+     * @param secret a secret combined from the shares the user entered.
+     * @return an {@link AuthenticationResult} that is authorised
+     * if user authentication is successful, or an error with
+     * {@link LoginOverloadedException} if there is no capacity for the check.
+     * @see UserService#getAccess(LoginMetadata, BigInteger)
+     */
+    public Mono<AuthenticationResult> getAccess(LoginMetadata metadata, BigInteger secret) {
+        final String password = secret.toString();
+        return verify(password, metadata).map(matches -> {
+            if (!matches)
+                return AuthenticationResult.denied(metadata.getUsername());
+            if (metadata.needsRehash(getPasswordHasher()))
+                rehash(metadata.getUsername(), password);
+            return AuthenticationResult.authorised(metadata.getUsername());
+        });
+    }
+
+    private Mono<Boolean> verify(String password, LoginMetadata metadata) {
+        final PasswordVerifier verifier = getPasswordVerifier();
+        final PasswordHasher hasher = getPasswordHasher();
+        if (verifier == null)
+            return Mono.fromCallable(() -> metadata.checkPassword(password, hasher))
+                    .subscribeOn(getHashScheduler());
+        return Mono.defer(() -> {
+            try {
+                final byte[] digest = metadata.getPasswordDigestBytes();
+                return Mono.fromFuture(digest != null
+                        ? verifier.verifyAsync(password, digest)
+                        : verifier.verifyAsync(password, metadata.getPasswordDigest(), hasher));
+            } catch (LoginOverloadedException e) {
+                return Mono.error(e);
+            }
+        });
+    }
+
+    /**
+     * Stores a digest of {@link ReactiveUserService#getPasswordHasher()} without waiting for it.
+     * Outcomes are timed as {@link AuthMetrics#PASSWORD_REHASH}.
+     */
+    private void rehash(String username, String password) {
+        final Timer.Sample sample = AuthMetrics.start();
+        final Mono<String> outcome = findByUsername(username)
+                .zipWith(hashPassword(password))
+                .flatMap(userAndDigest -> {
+                    UserStorage.setPasswordDigest(userAndDigest.getT1(), userAndDigest.getT2());
+                    return update(userAndDigest.getT1());
+                })
+                .map(saved -> AuthMetrics.SUCCESS)
+                .defaultIfEmpty("missing")
+                // The login itself succeeded; the upgrade is retried on the next one.
+                .onErrorReturn(AuthMetrics.ERROR);
+        /* See UserService#rehash: the sample is only captured when instrumentation is on */
+        if (sample == null)
+            outcome.subscribe();
+        else
+            outcome.subscribe(value -> AuthMetrics.stop(sample, AuthMetrics.PASSWORD_REHASH, value));
+    }
+}
@@ -1,9 +1,32 @@
 package services.user;
 
+import pojo.AuthenticationResult;
 import pojo.UserBase;
+import io.micrometer.core.instrument.Timer;
+import metrics.AuthMetrics;
 import org.springframework.data.domain.Example;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import services.password.PasswordHasher;
+import services.password.PasswordHashers;
+import services.password.PasswordVerifier;
 
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
 import javax.security.auth.login.LoginException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * The base for the <i>user service</i> class.
@@ -13,19 +36,151 @@ import javax.security.auth.login.LoginException;
  * {@link UserService} should be annotated with
  * {@link org.springframework.stereotype.Service}.
  *
+ * <p>The service keeps no state about logged in users, so a single
+ * instance can serve all request threads.
+ *
  * @param <U> user type. Must extend UserBase.
  * @param <ID> user id type that <b>U</b> has.
  * @author Igor Sytnik
  */
 public abstract class UserService<U extends UserBase<ID>, ID> extends Common<U, ID> {
     /**
-     * By design, should be an authorised user.
+     * A number of usernames checked by one query of {@link UserService#findExistingUsernames(Collection)},
+     * below the bind parameter limits of common databases.
+     */
+    public static final int USERNAMES_PER_QUERY = 500;
+    /**
+     * Stores upgraded digests: one daemon thread, apart from {@link UserService#getPasswordVerifier()}
+     * so that a wave of upgrades doesn't take capacity from logins, and rehashes beyond the queue
+     * are dropped until a later login.
+     */
+    private static final Executor DEFAULT_REHASH_EXECUTOR = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(256), runnable -> {
+        Thread thread = new Thread(runnable, "password-rehash");
+        thread.setDaemon(true);
+        return thread;
+    }, new ThreadPoolExecutor.AbortPolicy());
+
+    /**
+     * A cache of {@link LoginMetadata} for {@link UserService#findLoginMetadata(String)}.
+     *
+     * <p>Override to return a shared {@link LoginMetadataCache}. Users saved or deleted
+     * through this service are invalidated in it; changes made to the table
+     * by other means are only picked up once entries expire.
+     *
+     * @return {@code null} by default, meaning no caching.
+     */
+    protected LoginMetadataCache getLoginMetadataCache() {
+        return null;
+    }
+
+    /**
+     * A hasher new passwords are stored with.
+     *
+     * <p>Users whose digests were made by another hasher, or with a lower cost,
+     * are rehashed with it on their next successful login.
+     *
+     * @return {@link PasswordHashers#PBKDF2} by default.
+     */
+    protected PasswordHasher getPasswordHasher() {
+        return PasswordHashers.PBKDF2;
+    }
+
+    /**
+     * A bounded executor passwords are checked on.
+     *
+     * <p>Override to return a shared {@link PasswordVerifier}, so that slow hashes
+     * don't occupy request threads and an overload is rejected early with
+     * {@link exceptions.LoginOverloadedException}.
+     *
+     * @return {@code null} by default, meaning passwords are checked on the calling thread.
+     */
+    protected PasswordVerifier getPasswordVerifier() {
+        return null;
+    }
+
+    /**
+     * A bounded executor outdated digests are replaced on after a successful login,
+     * so that the login doesn't wait for a new hash and an update.
+     *
+     * <p>Outcomes are timed as {@link AuthMetrics#PASSWORD_REHASH}; a rehash that is
+     * rejected or fails is retried on the next login of the user.
+     *
+     * <p>Don't return the executor of {@link UserService#getPasswordVerifier()}: every rehash
+     * is a lookup, a hash and an update, and while many users are upgraded at once they would
+     * take threads and queue slots from password checks, so logins would be rejected.
+     *
+     * @return a shared single thread with a queue of 256 rehashes by default.
+     */
+    protected Executor getRehashExecutor() {
+        return DEFAULT_REHASH_EXECUTOR;
+    }
+
+    /**
+     * @param password a plain password.
+     * @return a digest of <b>password</b> to store with {@link UserStorage#setPasswordDigest(UserBase, String)}.
      */
-    protected U user;
+    public String hashPassword(String password) {
+        return getPasswordHasher().hash(password);
+    }
+
     /**
-     * By design, should be an indication if user is authorised.
+     * Checks <b>password</b> against the stored digest of <b>user</b>, with
+     * {@link UserService#getPasswordHasher()} first and then the known legacy formats.
+     *
+     * @param user a user whose password is checked.
+     * @param password a plain password.
+     * @return {@code true} if <b>password</b> matches the stored digest.
+     * @see UserStorage#checkPassword(UserBase, String, PasswordHasher)
      */
-    protected boolean authorised;
+    public boolean checkPassword(U user, String password) {
+        return UserStorage.checkPassword(user, password, getPasswordHasher());
+    }
+
+    /**
+     * Finds the fields needed to log in the user with <b>username</b>.
+     *
+     * <p>Served from {@link UserService#getLoginMetadataCache()} if there is one,
+     * otherwise loaded with {@link UserService#findByUsername(String)}.
+     *
+     * @param username to search by.
+     * @return login metadata, or <i>null</i> if the user wasn't found.
+     */
+    public LoginMetadata findLoginMetadata(String username) {
+        LoginMetadataCache cache = getLoginMetadataCache();
+        if (cache == null)
+            return loadLoginMetadata(username);
+        return cache.get(username, this::loadLoginMetadata);
+    }
+
+    private LoginMetadata loadLoginMetadata(String username) {
+        U user = lookupByUsername(username);
+        return user == null ? null : LoginMetadata.of(user);
+    }
+
+    @Override
+    protected void onSaved(U user) {
+        LoginMetadataCache cache = getLoginMetadataCache();
+        if (cache != null) {
+            cache.invalidate(user.getUsername());
+            if (user.getId() != null)
+                cache.invalidateById(user.getId());
+        }
+    }
+
+    @Override
+    protected void onDeleted(ID id) {
+        LoginMetadataCache cache = getLoginMetadataCache();
+        if (cache != null)
+            cache.invalidateById(id);
+    }
+
+    @Override
+    protected void onDeletedAll() {
+        LoginMetadataCache cache = getLoginMetadataCache();
+        if (cache != null)
+            cache.invalidateAll();
+    }
 
     /**
      * Check if the user <b>user</b> exists in the database.
@@ -40,35 +195,339 @@ public abstract class UserService<U extends UserBase<ID>, ID> extends Common<U,
         return getRepository().exists(Example.of(user));
     }
 
+    /**
+     * Checks if a user with <b>username</b> exists.
+     *
+     * <p>With an {@link Common#getEntityManager()}, only counts the matching rows.
+     * Otherwise calls {@link UserService#findByUsername(String)}.
+     *
+     * @param username to search by.
+     * @return {@code true} if user exists, {@code false}, otherwise.
+     */
+    public boolean existsByUsername(String username) {
+        final EntityManager entityManager = getEntityManager();
+        if (entityManager == null)
+            return lookupByUsername(username) != null;
+        final Long count = selectByUsername(entityManager, "count(u)", Long.class, username);
+        return count != null && count > 0;
+    }
+
+    /**
+     * Finds {@link UserBase#getSharesNeeded()} of the user with <b>username</b>.
+     *
+     * <p>With an {@link Common#getEntityManager()}, fetches only this column.
+     * Otherwise calls {@link UserService#findByUsername(String)}.
+     *
+     * @param username to search by.
+     * @return a number of shares needed, or <i>null</i> if the user wasn't found.
+     */
+    public Integer findSharesNeededByUsername(String username) {
+        final EntityManager entityManager = getEntityManager();
+        if (entityManager != null)
+            return selectByUsername(entityManager, "u.sharesNeeded", Integer.class, username);
+        U user = lookupByUsername(username);
+        return user == null ? null : user.getSharesNeeded();
+    }
+
+    /**
+     * Finds {@link UserBase#getEmailingEnabled()} of the user with <b>username</b>.
+     *
+     * <p>With an {@link Common#getEntityManager()}, fetches only this column.
+     * Otherwise calls {@link UserService#findByUsername(String)}.
+     *
+     * @param username to search by.
+     * @return whether emailing is enabled, or <i>null</i> if the user wasn't found.
+     */
+    public Boolean findEmailingEnabledByUsername(String username) {
+        final EntityManager entityManager = getEntityManager();
+        if (entityManager != null)
+            return selectByUsername(entityManager, "u.emailingEnabled", Boolean.class, username);
+        U user = lookupByUsername(username);
+        return user == null ? null : user.getEmailingEnabled();
+    }
+
+    /**
+     * Runs {@code select <b>select</b> from <entity> u where u.username = :username},
+     * timed as a repository call.
+     *
+     * @return the selected value, or <i>null</i> if no user matched.
+     */
+    private <T> T selectByUsername(EntityManager entityManager, String select, Class<T> type, String username) {
+        final Timer.Sample sample = AuthMetrics.start();
+        String outcome = AuthMetrics.ERROR;
+        try {
+            List<T> found = entityManager.createQuery("select " + select + " from "
+                    + getEntityName(entityManager) + " u where u.username = :username", type)
+                    .setParameter("username", username)
+                    .setMaxResults(1)
+                    .getResultList();
+            outcome = AuthMetrics.SUCCESS;
+            return found.isEmpty() ? null : found.get(0);
+        } finally {
+            stop(sample, "selectByUsername", outcome);
+        }
+    }
+
     /**
      * A method that should be called when logging in.
      *
+     * <p>Checks <b>secret</b> against the stored password of <b>user</b>.
+     * Neither the service nor <b>user</b> is modified.
+     *
      * @param user user that trying to get access.
-     * @return {@code true} if user authentication is successful,
-     * {@code false}, otherwise.
+     * @param secret a secret combined from the shares the user entered.
+     * @return an {@link AuthenticationResult} that is authorised
+     * if user authentication is successful.
      * @throws LoginException in case of authentication/authorization problems.
      */
-    public abstract boolean getAccess(U user) throws LoginException;
+    public AuthenticationResult getAccess(U user, BigInteger secret) throws LoginException {
+        return getAccess(LoginMetadata.of(user), secret);
+    }
 
     /**
-     * A getter for {@link UserService#authorised}.
+     * A method that should be called when logging in.
      *
-     * @return {@link UserService#authorised}.
+     * <p>Checks <b>secret</b> against the stored password in <b>metadata</b>,
+     * on {@link UserService#getPasswordVerifier()} if there is one. If the stored
+     * digest is outdated, it is replaced with one of {@link UserService#getPasswordHasher()}
+     * on {@link UserService#getRehashExecutor()}.
+     *
+     * @param metadata login metadata of the user that trying to get access.
+     * @param secret a secret combined from the shares the user entered.
+     * @return an {@link AuthenticationResult} that is authorised
+     * if user authentication is successful.
+     * @throws LoginException in case of authentication/authorization problems.
+     * @see UserService#findLoginMetadata(String)
      */
-    public boolean isAuthorised() {return this.authorised;}
+    public AuthenticationResult getAccess(LoginMetadata metadata, BigInteger secret) throws LoginException {
+        final Timer.Sample sample = AuthMetrics.start();
+        String outcome = AuthMetrics.ERROR;
+        try {
+            final String password = secret.toString();
+            final PasswordVerifier verifier = getPasswordVerifier();
+            final PasswordHasher hasher = getPasswordHasher();
+            final boolean matches;
+            if (verifier == null)
+                matches = metadata.checkPassword(password, hasher);
+            else if (metadata.getPasswordDigestBytes() != null)
+                matches = verifier.verify(password, metadata.getPasswordDigestBytes());
+            else
+                matches = verifier.verify(password, metadata.getPasswordDigest(), hasher);
+            if (!matches) {
+                outcome = "denied";
+                return AuthenticationResult.denied(metadata.getUsername());
+            }
+            if (metadata.needsRehash(hasher))
+                rehash(metadata.getUsername(), password);
+            outcome = "authorised";
+            return AuthenticationResult.authorised(metadata.getUsername());
+        } finally {
+            if (sample != null)
+                AuthMetrics.stop(sample, AuthMetrics.USER_ACCESS, outcome,
+                        "scheme", metadata.getScheme().name(),
+                        "needed", metadata.getSharesNeeded() == null
+                                ? "0" : AuthMetrics.shares(metadata.getSharesNeeded()));
+        }
+    }
 
     /**
-     * A getter for {@link UserService#user}.
-     *
-     * @return {@link UserService#user}.
+     * Stores a digest of {@link UserService#getPasswordHasher()} for the user with <b>username</b>
+     * on {@link UserService#getRehashExecutor()}, without waiting for it.
      */
-    public U getUser() {return this.user;}
+    private void rehash(String username, String password) {
+        final Timer.Sample sample = AuthMetrics.start();
+        try {
+            /* Only a lambda built when instrumentation is on may capture the sample: linking one
+               loads Timer.Sample, which fails when Micrometer isn't on the classpath */
+            if (sample == null)
+                getRehashExecutor().execute(() -> upgrade(username, password));
+            else
+                getRehashExecutor().execute(() -> AuthMetrics.stop(sample, AuthMetrics.PASSWORD_REHASH,
+                        upgrade(username, password)));
+        } catch (RejectedExecutionException e) {
+            if (sample != null)
+                AuthMetrics.stop(sample, AuthMetrics.PASSWORD_REHASH, "rejected");
+        }
+    }
+
+    /**
+     * @return an outcome to time the rehash with.
+     */
+    private String upgrade(String username, String password) {
+        try {
+            U user = lookupByUsername(username);
+            if (user == null)
+                return "missing";
+            UserStorage.setPasswordDigest(user, hashPassword(password));
+            update(user);
+            return AuthMetrics.SUCCESS;
+        } catch (RuntimeException e) {
+            // The login itself succeeded and the upgrade is retried on the next one.
+            return AuthMetrics.ERROR;
+        }
+    }
 
     /**
      * Searches for a user by username.
      *
+     * <p>{@link UserBase#username} is unique, so this should be
+     * a single indexed lookup.
+     *
      * @param username to search by.
-     * @return a found user.
+     * @return a found user, or <i>null</i> if there is none.
      */
     public abstract U findByUsername(String username);
+
+    /**
+     * Calls {@link UserService#findByUsername(String)}, timed by {@link AuthMetrics}
+     * when it is enabled. Use it instead of calling the abstract method directly.
+     *
+     * @param username to search by.
+     * @return a found user, or <i>null</i> if there is none.
+     */
+    public U lookupByUsername(String username) {
+        final Timer.Sample sample = AuthMetrics.start();
+        String outcome = AuthMetrics.ERROR;
+        try {
+            U user = findByUsername(username);
+            outcome = user == null ? "missing" : "found";
+            return user;
+        } finally {
+            if (sample != null)
+                AuthMetrics.stop(sample, AuthMetrics.USER_FIND, outcome);
+        }
+    }
+
+    /**
+     * Finds which of <b>usernames</b> are already taken.
+     *
+     * <p>With an {@link Common#getEntityManager()}, checks them with one
+     * {@code select u.username ... where u.username in :usernames} query per
+     * {@value #USERNAMES_PER_QUERY} usernames. Otherwise calls
+     * {@link UserService#findByUsername(String)} for every username.
+     *
+     * @param usernames usernames to check.
+     * @return usernames that belong to existing users.
+     */
+    public Set<String> findExistingUsernames(Collection<String> usernames) {
+        final Set<String> existing = new HashSet<>();
+        final EntityManager entityManager = getEntityManager();
+        if (entityManager == null) {
+            for (String username : usernames) {
+                if (lookupByUsername(username) != null)
+                    existing.add(username);
+            }
+            return existing;
+        }
+
+        final List<String> distinct = new ArrayList<>(new HashSet<>(usernames));
+        final TypedQuery<String> query = entityManager.createQuery("select u.username from "
+                + getEntityName(entityManager) + " u where u.username in :usernames", String.class);
+        for (int from = 0; from < distinct.size(); from += USERNAMES_PER_QUERY) {
+            final List<String> chunk = distinct.subList(from, Math.min(from + USERNAMES_PER_QUERY, distinct.size()));
+            final Timer.Sample sample = AuthMetrics.start();
+            String outcome = AuthMetrics.ERROR;
+            try {
+                existing.addAll(query.setParameter("usernames", chunk).getResultList());
+                outcome = AuthMetrics.SUCCESS;
+            } finally {
+                stop(sample, "findExistingUsernames", outcome);
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * Moves every user to the columns of its {@link UserBase#getStorageMode()},
+     * <b>chunkSize</b> users at a time, e.g. after switching to {@link pojo.StorageMode#BINARY}.
+     *
+     * <p>Only the users {@link UserStorage#migrateStorage(UserBase)} changed are saved, as they
+     * go. Users keep working during and after the migration, since values are read from either
+     * column, and running it again continues with what's left. Once it's done, the old columns
+     * can be dropped.
+     *
+     * <p>With an {@link Common#getEntityManager()}, chunks are read by key: every chunk starts
+     * after the {@link Common#getOrderProperty()} and id of the last user of the one before, so
+     * every chunk costs the same and users added meanwhile don't shift the rest. Changed users are
+     * flushed as one JDBC batch per chunk, and the persistence context is cleared. This has to run
+     * inside a transaction then, and the order property must not be null.
+     *
+     * <p>Without one, chunks are read as pages ordered by {@link Common#getOrderProperty()},
+     * and changed users are saved with one {@link Common#createMany(Collection)} per chunk.
+     *
+     * @param chunkSize a number of users read and saved at a time.
+     * @return a number of migrated users.
+     */
+    public long migrateStorage(int chunkSize) {
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("Chunk size must be positive");
+        final EntityManager entityManager = getEntityManager();
+        final Timer.Sample sample = AuthMetrics.start();
+        String outcome = AuthMetrics.ERROR;
+        try {
+            final long migrated = entityManager == null
+                    ? migratePages(chunkSize)
+                    : migrateByKey(entityManager, chunkSize);
+            outcome = AuthMetrics.SUCCESS;
+            return migrated;
+        } finally {
+            stop(sample, "migrateStorage", outcome);
+        }
+    }
+
+    private long migrateByKey(EntityManager entityManager, int chunkSize) {
+        final String order = "u." + getOrderProperty();
+        final String id = "u." + getIdProperty(entityManager);
+        final String select = "select u, " + order + ", " + id + " from " + getEntityName(entityManager) + " u";
+        /* The id breaks ties of the order property, unless it is the order property */
+        final boolean byId = order.equals(id);
+        final String orderBy = byId ? " order by " + id : " order by " + order + ", " + id;
+        final String after = byId ? id + " > :id"
+                : order + " > :order or (" + order + " = :order and " + id + " > :id)";
+        final TypedQuery<Object[]> first = entityManager.createQuery(select + orderBy, Object[].class)
+                .setMaxResults(chunkSize);
+        final TypedQuery<Object[]> next = entityManager.createQuery(select + " where " + after + orderBy,
+                Object[].class)
+                .setMaxResults(chunkSize);
+        final Class<U> userClass = getEntityClass();
+        long migrated = 0;
+        List<Object[]> rows = first.getResultList();
+        while (!rows.isEmpty()) {
+            List<U> changed = new ArrayList<>();
+            for (Object[] row : rows) {
+                U user = userClass.cast(row[0]);
+                if (UserStorage.migrateStorage(user))
+                    changed.add(user);
+            }
+            if (!changed.isEmpty()) {
+                flushInBatches(entityManager, changed.size());
+                changed.forEach(this::onSaved);
+                migrated += changed.size();
+            }
+            entityManager.clear();
+            if (rows.size() < chunkSize)
+                break;
+            Object[] last = rows.get(rows.size() - 1);
+            if (!byId)
+                next.setParameter("order", last[1]);
+            rows = next.setParameter("id", last[2]).getResultList();
+        }
+        return migrated;
+    }
+
+    private long migratePages(int chunkSize) {
+        long migrated = 0;
+        for (int page = 0; ; page++) {
+            Page<U> chunk = list(PageRequest.of(page, chunkSize, Sort.by(getOrderProperty())));
+            List<U> changed = chunk.getContent().stream()
+                    .filter(UserStorage::migrateStorage)
+                    .collect(Collectors.toList());
+            if (!changed.isEmpty()) {
+                createMany(changed);
+                migrated += changed.size();
+            }
+            if (!chunk.hasNext())
+                return migrated;
+        }
+    }
 }
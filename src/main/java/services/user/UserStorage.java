@@ -0,0 +1,227 @@
+package services.user;
+
+import MFA.FeldmanScheme;
+import MFA.ShareCodec;
+import pojo.StorageMode;
+import pojo.UserBase;
+import services.password.BinaryDigests;
+import services.password.PasswordHasher;
+import services.password.PasswordHashers;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Converts the stored columns of a {@link UserBase} to and from the values
+ * the services and controllers work with.
+ *
+ * <p>The password digest, the prime and the emailed share are written to the columns of
+ * {@link UserBase#getStorageMode()}. Values stored in the other mode are still read, and
+ * {@link UserStorage#migrateStorage(UserBase)} moves them to the current one. Commitments are
+ * kept as bytes of {@link FeldmanScheme#encodeCommitments(BigInteger[])} in either mode.
+ * Commitments of earlier versions start with one to the secret, which is ignored when they're
+ * read and dropped when they're migrated.
+ *
+ * @author Igor Sytnik
+ */
+public final class UserStorage {
+
+    private UserStorage() {
+    }
+
+    /**
+     * Checks <b>password</b> against the stored digest of <b>user</b>,
+     * comparing raw bytes if the digest is stored as bytes.
+     *
+     * <p>Both legacy SHA-1 digests and digests of {@link services.password.PasswordHasher}s
+     * are accepted, so users can be migrated on their next login.
+     *
+     * @param user a user whose password is checked.
+     * @param password a password to check.
+     * @return {@code true} if <b>password</b> matches the stored digest.
+     */
+    public static boolean checkPassword(UserBase<?> user, String password) {
+        return checkPassword(user, password, null);
+    }
+
+    /**
+     * Checks <b>password</b> against the stored digest of <b>user</b>, trying <b>hasher</b>
+     * before the known hashers, so digests of a custom hasher are accepted too.
+     *
+     * @param user a user whose password is checked.
+     * @param password a password to check.
+     * @param hasher a hasher new digests are made with, or <i>null</i>.
+     * @return {@code true} if <b>password</b> matches the stored digest.
+     * @see PasswordHashers#verify(String, String, PasswordHasher)
+     */
+    public static boolean checkPassword(UserBase<?> user, String password, PasswordHasher hasher) {
+        if (user.getPasswordBin() != null)
+            return BinaryDigests.verify(password, user.getPasswordBin());
+        return PasswordHashers.verify(password, user.getPassword(), hasher);
+    }
+
+    /**
+     * @param user a user to read.
+     * @return the stored digest as text, converted if it's stored as bytes.
+     */
+    public static String getPasswordDigest(UserBase<?> user) {
+        if (user.getPassword() == null && user.getPasswordBin() != null)
+            return BinaryDigests.decode(user.getPasswordBin());
+        return user.getPassword();
+    }
+
+    /**
+     * @param user a user to read.
+     * @return the stored digest as bytes of {@link BinaryDigests}, converted if it's stored
+     * as text, or <i>null</i> if it has no binary form.
+     */
+    public static byte[] getPasswordDigestBytes(UserBase<?> user) {
+        if (user.getPasswordBin() != null)
+            return user.getPasswordBin();
+        final String password = user.getPassword();
+        return password != null && BinaryDigests.supports(password) ? BinaryDigests.encode(password) : null;
+    }
+
+    /**
+     * @param user a user to change.
+     * @param passwordDigest a digest made by a {@link services.password.PasswordHasher}.
+     *                       In {@link StorageMode#BINARY} it's stored as bytes if it has
+     *                       a binary form, otherwise as it is.
+     */
+    public static void setPasswordDigest(UserBase<?> user, String passwordDigest) {
+        if (user.getStorageMode() == StorageMode.BINARY && passwordDigest != null
+                && BinaryDigests.supports(passwordDigest)) {
+            user.setPasswordBin(BinaryDigests.encode(passwordDigest));
+            user.setPasswordDigest(null);
+        } else {
+            user.setPasswordDigest(passwordDigest);
+            user.setPasswordBin(null);
+        }
+    }
+
+    /**
+     * @param user a user to read.
+     * @return the prime the user's shares were split by, from either column.
+     */
+    public static BigInteger getPrime(UserBase<?> user) {
+        if (user.getPrime() == null && user.getPrimeBin() != null)
+            return new BigInteger(1, user.getPrimeBin());
+        return user.getPrime();
+    }
+
+    /**
+     * @param user a user to change.
+     * @param prime a prime the shares were split by. In {@link StorageMode#BINARY}
+     *              it's stored as unsigned big-endian bytes.
+     */
+    public static void setPrime(UserBase<?> user, BigInteger prime) {
+        if (user.getStorageMode() == StorageMode.BINARY && prime != null) {
+            user.setPrimeBin(unsignedBytes(prime));
+            user.setPrime(null);
+        } else {
+            user.setPrime(prime);
+            user.setPrimeBin(null);
+        }
+    }
+
+    /**
+     * @param user a user to read.
+     * @return commitments the user's shares are checked against on login,
+     * or <i>null</i> if the scheme has none.
+     */
+    public static BigInteger[] getCommitments(UserBase<?> user) {
+        final byte[] bytes = user.getCommitments();
+        if (bytes == null)
+            return null;
+        final BigInteger[] commitments = FeldmanScheme.decodeCommitments(bytes);
+        if (!hasSecretCommitment(user, commitments.length))
+            return commitments;
+        return commitments.length == 1 ? null : Arrays.copyOfRange(commitments, 1, commitments.length);
+    }
+
+    /**
+     * @param user a user to change.
+     * @param commitments commitments of {@link MFA.SchemeType#FELDMAN_2048}, or <i>null</i>.
+     */
+    public static void setCommitments(UserBase<?> user, BigInteger[] commitments) {
+        user.setCommitments(commitments == null ? null : FeldmanScheme.encodeCommitments(commitments));
+    }
+
+    /**
+     * @param user a user to read.
+     * @return the emailed share, in the compact format if it's stored as bytes.
+     */
+    public static String getShareForEmail(UserBase<?> user) {
+        if (user.getShareForEmail() == null && user.getShareForEmailBin() != null)
+            return ShareCodec.fromBinary(user.getShareForEmailBin());
+        return user.getShareForEmail();
+    }
+
+    /**
+     * @param user a user to change.
+     * @param shareForEmail a share in either format of {@link ShareCodec}.
+     *                      In {@link StorageMode#BINARY} it's stored as bytes.
+     * @throws java.util.NoSuchElementException in {@link StorageMode#BINARY},
+     * if <b>shareForEmail</b> is not a share.
+     */
+    public static void setShareForEmail(UserBase<?> user, String shareForEmail) {
+        if (user.getStorageMode() == StorageMode.BINARY && shareForEmail != null) {
+            user.setShareForEmailBin(ShareCodec.toBinary(shareForEmail));
+            user.setShareForEmail(null);
+        } else {
+            user.setShareForEmail(shareForEmail);
+            user.setShareForEmailBin(null);
+        }
+    }
+
+    /**
+     * Moves the password digest, the prime and the emailed share of <b>user</b> to the columns of
+     * {@link UserBase#getStorageMode()}, e.g. for users saved before it was changed.
+     * A legacy decimal share becomes a compact one in {@link StorageMode#BINARY}, legacy
+     * commitments lose the one to the secret, and commitments stored next to an emailed share
+     * are dropped, since the two reveal g<sup>secret</sup>, see {@link FeldmanScheme}.
+     *
+     * @param user a user to change.
+     * @return {@code true} if anything was moved and the user should be saved.
+     */
+    public static boolean migrateStorage(UserBase<?> user) {
+        final boolean binary = user.getStorageMode() == StorageMode.BINARY;
+        boolean changed = false;
+        if (binary ? user.getPassword() != null && BinaryDigests.supports(user.getPassword())
+                : user.getPasswordBin() != null) {
+            setPasswordDigest(user, getPasswordDigest(user));
+            changed = true;
+        }
+        if (binary ? user.getPrime() != null : user.getPrimeBin() != null) {
+            setPrime(user, getPrime(user));
+            changed = true;
+        }
+        if (binary ? user.getShareForEmail() != null : user.getShareForEmailBin() != null) {
+            setShareForEmail(user, getShareForEmail(user));
+            changed = true;
+        }
+        if (user.getCommitments() != null
+                && (user.getShareForEmail() != null || user.getShareForEmailBin() != null)) {
+            setCommitments(user, null);
+            changed = true;
+        } else if (user.getCommitments() != null
+                && hasSecretCommitment(user, user.getCommitments().length / FeldmanScheme.WIDTH)) {
+            setCommitments(user, getCommitments(user));
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Splits of {@link MFA.SchemeType#FELDMAN_2048} commit to every coefficient but the secret,
+     * so one commitment per needed share means the row was written with a commitment to it.
+     */
+    private static boolean hasSecretCommitment(UserBase<?> user, int commitments) {
+        return user.getSharesNeeded() != null && commitments == user.getSharesNeeded();
+    }
+
+    private static byte[] unsignedBytes(BigInteger value) {
+        final byte[] bytes = value.toByteArray();
+        return bytes.length > 1 && bytes[0] == 0 ? Arrays.copyOfRange(bytes, 1, bytes.length) : bytes;
+    }
+}
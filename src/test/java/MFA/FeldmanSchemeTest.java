@@ -0,0 +1,81 @@
+package MFA;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that {@link FeldmanScheme#verify(SecretShare[], BigInteger[])} accepts honest shares
+ * and rejects a tampered one.
+ *
+ * @author Igor Sytnik
+ */
+class FeldmanSchemeTest {
+
+    private static final int[][] SCHEMES = {{2, 3}, {3, 5}, {5, 8}, {8, 16}};
+
+    @Test
+    void honestSharesAreValidAndCombine() {
+        final Random random = new Random(1);
+        for (int[] scheme : SCHEMES) {
+            final BigInteger secret = new BigInteger(256, random);
+            final FeldmanScheme.VerifiableShares split =
+                    FeldmanScheme.INSTANCE.splitVerifiable(secret, scheme[0], scheme[1], random);
+            assertEquals(scheme[0] - 1, split.getCommitments().length);
+            final SecretShare[] shares = split.getShares();
+            assertTrue(FeldmanScheme.verify(shares, split.getCommitments()));
+            final SecretShare[] needed = Arrays.copyOfRange(shares, scheme[1] - scheme[0], scheme[1]);
+            assertTrue(FeldmanScheme.verify(needed, split.getCommitments()));
+            assertEquals(secret, FeldmanScheme.INSTANCE.combine(needed));
+        }
+    }
+
+    @Test
+    void aSingleTamperedShareIsRejected() {
+        final Random random = new Random(2);
+        for (int[] scheme : SCHEMES) {
+            final FeldmanScheme.VerifiableShares split = FeldmanScheme.INSTANCE.splitVerifiable(
+                    new BigInteger(256, random), scheme[0], scheme[1], random);
+            final SecretShare[] shares = split.getShares();
+            for (int i = 0; i < scheme[0]; i++) {
+                final SecretShare[] tampered = Arrays.copyOf(shares, scheme[0]);
+                tampered[i] = new SecretShare(shares[i].getNumber(),
+                        shares[i].getShare().add(BigInteger.ONE).mod(FeldmanScheme.Q));
+                assertFalse(FeldmanScheme.verify(tampered, split.getCommitments()),
+                        scheme[0] + "/" + scheme[1] + ", share " + i);
+                tampered[i] = new SecretShare(shares[scheme[1] - 1].getNumber(), shares[i].getShare());
+                if (i != scheme[1] - 1)
+                    assertFalse(FeldmanScheme.verify(tampered, split.getCommitments()),
+                            scheme[0] + "/" + scheme[1] + ", renumbered share " + i);
+            }
+        }
+    }
+
+    @Test
+    void sharesOfAnotherSplitAreRejected() {
+        final Random random = new Random(3);
+        final FeldmanScheme.VerifiableShares first = FeldmanScheme.INSTANCE.splitVerifiable(
+                BigInteger.TEN, 3, 5, random);
+        final FeldmanScheme.VerifiableShares second = FeldmanScheme.INSTANCE.splitVerifiable(
+                BigInteger.TEN, 3, 5, random);
+        final SecretShare[] mixed = {first.getShares()[0], first.getShares()[1], second.getShares()[2]};
+        assertFalse(FeldmanScheme.verify(mixed, first.getCommitments()));
+        assertFalse(FeldmanScheme.verify(new SecretShare[0], first.getCommitments()));
+    }
+
+    @Test
+    void commitmentsSurviveEncoding() {
+        final FeldmanScheme.VerifiableShares split = FeldmanScheme.INSTANCE.splitVerifiable(
+                BigInteger.ONE, 4, 4, new Random(4));
+        final byte[] encoded = FeldmanScheme.encodeCommitments(split.getCommitments());
+        assertEquals(3 * FeldmanScheme.WIDTH, encoded.length);
+        assertArrayEquals(split.getCommitments(), FeldmanScheme.decodeCommitments(encoded));
+    }
+}
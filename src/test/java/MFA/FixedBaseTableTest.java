@@ -0,0 +1,72 @@
+package MFA;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares {@link FixedBaseTable#pow(BigInteger)} with {@link BigInteger#modPow}.
+ *
+ * @author Igor Sytnik
+ */
+class FixedBaseTableTest {
+
+    @Test
+    void powersOfGMatchModPow() {
+        final FixedBaseTable table = new FixedBaseTable(FeldmanScheme.G, FeldmanScheme.P,
+                FeldmanScheme.Q.bitLength(), FeldmanScheme.WINDOW);
+        for (BigInteger exponent : exponents(FeldmanScheme.Q, FeldmanScheme.WINDOW, new Random(1))) {
+            assertEquals(FeldmanScheme.G.modPow(exponent, FeldmanScheme.P), table.pow(exponent), exponent.toString(16));
+        }
+    }
+
+    @Test
+    void everyWindowMatchesModPow() {
+        final Random random = new Random(2);
+        final BigInteger modulus = BigInteger.probablePrime(256, random);
+        final BigInteger base = new BigInteger(255, random);
+        for (int window = 1; window <= 8; window++) {
+            final FixedBaseTable table = new FixedBaseTable(base, modulus, 200, window);
+            for (BigInteger exponent : exponents(BigInteger.ONE.shiftLeft(200), window, random)) {
+                assertEquals(base.modPow(exponent, modulus), table.pow(exponent),
+                        "window " + window + ", " + exponent.toString(16));
+            }
+        }
+    }
+
+    @Test
+    void longerExponentsFallBackToModPow() {
+        final Random random = new Random(3);
+        final BigInteger modulus = BigInteger.probablePrime(128, random);
+        final FixedBaseTable table = new FixedBaseTable(BigInteger.valueOf(3), modulus, 64, 4);
+        for (BigInteger exponent : new BigInteger[]{BigInteger.ONE.shiftLeft(64), new BigInteger(300, random),
+                BigInteger.valueOf(-5)}) {
+            assertEquals(BigInteger.valueOf(3).modPow(exponent, modulus), table.pow(exponent), exponent.toString(16));
+        }
+    }
+
+    /**
+     * 0, 1, digits and row boundaries of <b>window</b>, all ones, <b>bound</b> - 1, and random exponents below <b>bound</b>.
+     */
+    private static List<BigInteger> exponents(BigInteger bound, int window, Random random) {
+        final List<BigInteger> exponents = new ArrayList<>();
+        exponents.add(BigInteger.ZERO);
+        exponents.add(BigInteger.ONE);
+        exponents.add(BigInteger.TWO);
+        exponents.add(BigInteger.ONE.shiftLeft(window).subtract(BigInteger.ONE));
+        exponents.add(BigInteger.ONE.shiftLeft(window));
+        exponents.add(BigInteger.ONE.shiftLeft(window).add(BigInteger.ONE));
+        exponents.add(BigInteger.ONE.shiftLeft(bound.bitLength() - 1));
+        exponents.add(BigInteger.ONE.shiftLeft(bound.bitLength() - 1).subtract(BigInteger.ONE));
+        exponents.add(bound.subtract(BigInteger.ONE));
+        for (int i = 0; i < 30; i++) {
+            exponents.add(new BigInteger(bound.bitLength(), random).mod(bound));
+        }
+        return exponents;
+    }
+}
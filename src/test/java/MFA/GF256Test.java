@@ -0,0 +1,123 @@
+package MFA;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks the log/exp tables of {@link GF256} and round trips of {@link GF256} and {@link GF256Scheme}.
+ *
+ * @author Igor Sytnik
+ */
+class GF256Test {
+
+    private static final int[][] SCHEMES = {{1, 1}, {1, 3}, {2, 2}, {2, 3}, {3, 5}, {5, 9}, {16, 32}, {200, 255}};
+
+    @Test
+    void tablesMatchPolynomialMultiplication() {
+        for (int a = 0; a < 256; a++) {
+            for (int b = 0; b < 256; b++) {
+                assertEquals(slowMultiply(a, b), GF256.multiply(a, b), a + " * " + b);
+            }
+        }
+    }
+
+    @Test
+    void splitAndCombineRandomSubsets() {
+        final Random random = new Random(1);
+        for (int[] scheme : SCHEMES) {
+            for (byte[] secret : secrets(random)) {
+                final byte[][] shares = GF256.split(secret, scheme[0], scheme[1], random);
+                for (int trial = 0; trial < 5; trial++) {
+                    final List<Integer> numbers = new ArrayList<>();
+                    for (int x = 1; x <= scheme[1]; x++) {
+                        numbers.add(x);
+                    }
+                    Collections.shuffle(numbers, random);
+                    final int count = scheme[0] + random.nextInt(scheme[1] - scheme[0] + 1);
+                    final int[] chosen = new int[count];
+                    final byte[][] chosenShares = new byte[count][];
+                    for (int i = 0; i < count; i++) {
+                        chosen[i] = numbers.get(i);
+                        chosenShares[i] = shares[chosen[i] - 1];
+                    }
+                    assertArrayEquals(secret, GF256.combine(chosen, chosenShares),
+                            scheme[0] + "/" + scheme[1] + ", shares " + Arrays.toString(chosen));
+                }
+            }
+        }
+    }
+
+    @Test
+    void schemeRoundTripsSecretsAndSharesWithLeadingZeroBytes() {
+        final Random random = new Random(2);
+        for (int[] scheme : SCHEMES) {
+            for (byte[] bytes : secrets(random)) {
+                final BigInteger secret = new BigInteger(1, bytes);
+                final SecretShare[] shares = GF256Scheme.INSTANCE.split(secret, scheme[0], scheme[1], random);
+                final List<SecretShare> shuffled = new ArrayList<>(Arrays.asList(shares));
+                Collections.shuffle(shuffled, random);
+                assertEquals(secret, GF256Scheme.INSTANCE.combine(
+                        shuffled.subList(0, scheme[0]).toArray(new SecretShare[0])),
+                        scheme[0] + "/" + scheme[1] + ", " + secret.toString(16));
+            }
+        }
+    }
+
+    @Test
+    void badShareNumbersAreRejected() {
+        final byte[][] shares = GF256.split(new byte[]{1, 2}, 2, 3, new Random(3));
+        assertThrows(IllegalArgumentException.class, () -> GF256.combine(new int[]{1, 1}, new byte[][]{shares[0], shares[0]}));
+        assertThrows(IllegalArgumentException.class, () -> GF256.combine(new int[]{0, 1}, new byte[][]{shares[0], shares[0]}));
+        assertThrows(IllegalArgumentException.class, () -> GF256.combine(new int[]{256, 1}, new byte[][]{shares[0], shares[0]}));
+        assertThrows(IllegalArgumentException.class, () -> GF256.split(new byte[1], 2, 256, new Random()));
+    }
+
+    /**
+     * Random secrets, with and without leading zero bytes, all zero and all ones.
+     */
+    private static List<byte[]> secrets(Random random) {
+        final List<byte[]> secrets = new ArrayList<>();
+        for (int length : new int[]{1, 2, 5, 16, 33}) {
+            byte[] secret = new byte[length];
+            random.nextBytes(secret);
+            secrets.add(secret.clone());
+            secret[0] = 0;
+            secrets.add(secret.clone());
+            if (length > 2) {
+                secret[1] = 0;
+                secrets.add(secret.clone());
+            }
+            secrets.add(new byte[length]);
+            byte[] ones = new byte[length];
+            Arrays.fill(ones, (byte) 0xFF);
+            secrets.add(ones);
+        }
+        return secrets;
+    }
+
+    /**
+     * Carry-less multiplication reduced modulo x<sup>8</sup> + x<sup>4</sup> + x<sup>3</sup> + x + 1.
+     */
+    private static int slowMultiply(int a, int b) {
+        int product = 0;
+        for (int bit = 0; bit < 8; bit++) {
+            if ((b >> bit & 1) != 0)
+                product ^= a << bit;
+        }
+        for (int bit = 15; bit >= 8; bit--) {
+            if ((product >> bit & 1) != 0)
+                product ^= 0x11B << (bit - 8);
+        }
+        return product;
+    }
+}
@@ -0,0 +1,157 @@
+package MFA;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares every operation of {@link MersenneField} with {@link BigInteger} arithmetic
+ * modulo 2<sup>127</sup> - 1 and 2<sup>521</sup> - 1.
+ *
+ * @author Igor Sytnik
+ */
+class MersenneFieldTest {
+
+    private static final MersenneField[] FIELDS = {MersenneField.M127, MersenneField.M521};
+    private static final int RANDOM_VALUES = 40;
+
+    @Test
+    void addSubtractMultiplyMatchBigInteger() {
+        for (MersenneField field : FIELDS) {
+            final BigInteger p = field.getPrime();
+            final List<BigInteger> values = values(field, new Random(field.getExponent()));
+            for (BigInteger a : values) {
+                for (BigInteger b : values) {
+                    final long[] out = field.zero();
+                    final String where = field.getExponent() + ": " + a.toString(16) + ", " + b.toString(16);
+                    field.add(field.of(a), field.of(b), out);
+                    assertEquals(a.add(b).mod(p), field.toBigInteger(out), "add " + where);
+                    field.subtract(field.of(a), field.of(b), out);
+                    assertEquals(a.subtract(b).mod(p), field.toBigInteger(out), "subtract " + where);
+                    field.multiply(field.of(a), field.of(b), out);
+                    assertEquals(a.multiply(b).mod(p), field.toBigInteger(out), "multiply " + where);
+                }
+            }
+        }
+    }
+
+    @Test
+    void operationsMayWriteIntoAnOperand() {
+        for (MersenneField field : FIELDS) {
+            final BigInteger p = field.getPrime();
+            final BigInteger a = p.subtract(BigInteger.ONE);
+            final BigInteger b = p.shiftRight(1);
+            final long[] x = field.of(a);
+            field.add(x, field.of(b), x);
+            assertEquals(a.add(b).mod(p), field.toBigInteger(x));
+            field.multiply(x, x, x);
+            assertEquals(a.add(b).pow(2).mod(p), field.toBigInteger(x));
+            field.subtract(x, x, x);
+            assertTrue(field.isZero(x));
+        }
+    }
+
+    @Test
+    void inverseMatchesBigInteger() {
+        for (MersenneField field : FIELDS) {
+            final BigInteger p = field.getPrime();
+            for (BigInteger a : values(field, new Random(~field.getExponent()))) {
+                if (a.signum() == 0) {
+                    assertThrows(ArithmeticException.class, () -> field.inverse(field.zero()));
+                    continue;
+                }
+                final long[] inverse = field.inverse(field.of(a));
+                assertEquals(a.modInverse(p), field.toBigInteger(inverse), a.toString(16));
+                final long[] product = field.zero();
+                field.multiply(field.of(a), inverse, product);
+                assertArrayEquals(field.of(1), product);
+            }
+        }
+    }
+
+    @Test
+    void bytesAreReducedModuloThePrime() {
+        for (MersenneField field : FIELDS) {
+            final BigInteger p = field.getPrime();
+            final int width = field.getWidth();
+            final List<BigInteger> inputs = values(field, new Random(field.getExponent() + 1));
+            inputs.add(p);
+            inputs.add(p.add(BigInteger.ONE));
+            inputs.add(BigInteger.ONE.shiftLeft(8 * width).subtract(BigInteger.ONE));
+            for (BigInteger value : inputs) {
+                final byte[] bytes = toBytes(value, width);
+                final long[] element = field.fromBytes(bytes, 0, width);
+                assertEquals(value.mod(p), field.toBigInteger(element), value.toString(16));
+                final byte[] written = new byte[width];
+                field.toBytes(element, written, 0, width);
+                assertArrayEquals(toBytes(value.mod(p), width), written, value.toString(16));
+            }
+        }
+    }
+
+    @Test
+    void ofRejectsValuesOutsideTheField() {
+        for (MersenneField field : FIELDS) {
+            final BigInteger p = field.getPrime();
+            assertThrows(IllegalArgumentException.class, () -> field.of(p));
+            assertThrows(IllegalArgumentException.class, () -> field.of(p.add(BigInteger.ONE)));
+            assertThrows(IllegalArgumentException.class, () -> field.of(BigInteger.ONE.negate()));
+            assertThrows(IllegalArgumentException.class, () -> field.of(-1));
+            assertEquals(p.subtract(BigInteger.ONE), field.toBigInteger(field.of(p.subtract(BigInteger.ONE))));
+        }
+    }
+
+    @Test
+    void randomElementsAreInTheField() {
+        final Random random = new Random(7);
+        for (MersenneField field : FIELDS) {
+            for (int i = 0; i < 1000; i++) {
+                BigInteger value = field.toBigInteger(field.random(random));
+                assertTrue(value.compareTo(field.getPrime()) < 0);
+            }
+        }
+    }
+
+    /**
+     * 0, 1, p - 1, 2<sup>j</sup> - 1 and 2<sup>j</sup> at every limb boundary and below k,
+     * and random elements.
+     */
+    private static List<BigInteger> values(MersenneField field, Random random) {
+        final BigInteger p = field.getPrime();
+        final List<BigInteger> values = new ArrayList<>();
+        values.add(BigInteger.ZERO);
+        values.add(BigInteger.ONE);
+        values.add(BigInteger.TWO);
+        values.add(p.subtract(BigInteger.ONE));
+        values.add(p.subtract(BigInteger.TWO));
+        values.add(p.shiftRight(1));
+        for (int bits = 63; bits < field.getExponent(); bits += 64) {
+            values.add(BigInteger.ONE.shiftLeft(bits).subtract(BigInteger.ONE));
+            values.add(BigInteger.ONE.shiftLeft(bits));
+            values.add(BigInteger.ONE.shiftLeft(bits + 1).subtract(BigInteger.ONE));
+            if (bits + 1 < field.getExponent())
+                values.add(BigInteger.ONE.shiftLeft(bits + 1));
+        }
+        values.add(BigInteger.ONE.shiftLeft(field.getExponent() - 1));
+        for (int i = 0; i < RANDOM_VALUES; i++) {
+            values.add(new BigInteger(field.getExponent(), random).mod(p));
+        }
+        return values;
+    }
+
+    private static byte[] toBytes(BigInteger value, int width) {
+        final byte[] bytes = new byte[width];
+        final byte[] raw = value.toByteArray();
+        final int length = Math.min(raw.length, width);
+        System.arraycopy(raw, raw.length - length, bytes, width - length, length);
+        return bytes;
+    }
+}
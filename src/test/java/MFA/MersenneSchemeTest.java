@@ -0,0 +1,66 @@
+package MFA;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Round trips of {@link MersenneScheme} over secrets around the block boundaries.
+ *
+ * @author Igor Sytnik
+ */
+class MersenneSchemeTest {
+
+    private static final int[][] SCHEMES = {{1, 1}, {2, 3}, {3, 5}, {5, 5}, {8, 16}};
+
+    @Test
+    void splitAndCombineRoundTripAcrossBlocks() {
+        final ParallelSplit parallelSplit = new ParallelSplit(ForkJoinPool.commonPool(), 0);
+        for (SchemeType type : new SchemeType[]{SchemeType.MERSENNE_127, SchemeType.MERSENNE_521}) {
+            final MersenneScheme[] schemes = {new MersenneScheme(type, null), new MersenneScheme(type, parallelSplit)};
+            final int blockBytes = (MersenneScheme.fieldOf(type).getExponent() - 1) / 8;
+            final Random random = new Random(type.ordinal());
+            for (int blocks = 1; blocks <= 3; blocks++) {
+                for (int length = blocks * blockBytes - 1; length <= blocks * blockBytes + 1; length++) {
+                    for (BigInteger secret : secrets(length, random)) {
+                        for (int[] scheme : SCHEMES) {
+                            for (MersenneScheme sharing : schemes) {
+                                assertRoundTrip(sharing, secret, scheme[0], scheme[1], random);
+                            }
+                        }
+                    }
+                }
+            }
+            for (MersenneScheme sharing : schemes) {
+                assertRoundTrip(sharing, BigInteger.ZERO, 2, 3, random);
+                assertRoundTrip(sharing, BigInteger.ONE, 2, 3, random);
+            }
+        }
+    }
+
+    private static void assertRoundTrip(MersenneScheme sharing, BigInteger secret, int needed, int available,
+                                        Random random) {
+        final SecretShare[] shares = sharing.split(secret, needed, available, random);
+        final String where = sharing.getType() + ", " + needed + "/" + available + ", " + secret.toString(16);
+        assertEquals(available, shares.length, where);
+        assertEquals(secret, sharing.combine(Arrays.copyOfRange(shares, 0, needed)), where);
+        assertEquals(secret, sharing.combine(Arrays.copyOfRange(shares, available - needed, available)), where);
+    }
+
+    /**
+     * A random secret of <b>length</b> bytes, and all ones and a single top bit of that length.
+     */
+    private static BigInteger[] secrets(int length, Random random) {
+        final int bits = 8 * length;
+        return new BigInteger[]{
+                new BigInteger(bits, random).setBit(bits - 1),
+                BigInteger.ONE.shiftLeft(bits).subtract(BigInteger.ONE),
+                BigInteger.ONE.shiftLeft(bits - 1)
+        };
+    }
+}
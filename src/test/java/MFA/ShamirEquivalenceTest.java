@@ -0,0 +1,79 @@
+package MFA;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that {@link Shamir#split} gives byte-for-byte the same shares as the original
+ * power-per-coefficient split for the same seeds, sequentially and with a
+ * {@link ParallelSplit} that always goes parallel.
+ *
+ * @author Igor Sytnik
+ */
+class ShamirEquivalenceTest {
+
+    private static final int[] BITS = {8, 64, 256, 1024};
+    private static final int[][] SCHEMES = {{1, 1}, {1, 5}, {2, 2}, {2, 3}, {3, 5}, {5, 5}, {8, 16}, {16, 32}, {32, 64}};
+    private static final int SEEDS = 20;
+
+    @Test
+    void splitMatchesLegacySplit() {
+        final ParallelSplit parallelSplit = new ParallelSplit(ForkJoinPool.commonPool(), 0);
+        for (int bits : BITS) {
+            final BigInteger prime = BigInteger.probablePrime(bits + 1, new Random(bits));
+            for (int[] scheme : SCHEMES) {
+                for (long seed = 0; seed < SEEDS; seed++) {
+                    final BigInteger secret = new BigInteger(bits, new Random(~seed)).setBit(bits - 1);
+                    final SecretShare[] expected = legacySplit(secret, scheme[0], scheme[1], prime, new Random(seed));
+                    final String where = String.format("bits %d, %d/%d, seed %d", bits, scheme[0], scheme[1], seed);
+                    assertSameShares(expected,
+                            Shamir.split(secret, scheme[0], scheme[1], prime, new Random(seed)), where);
+                    assertSameShares(expected,
+                            Shamir.split(secret, scheme[0], scheme[1], prime, new Random(seed), parallelSplit),
+                            where + ", parallel");
+                }
+            }
+        }
+    }
+
+    private static void assertSameShares(SecretShare[] expected, SecretShare[] actual, String where) {
+        assertEquals(expected.length, actual.length, where);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i].getNumber(), actual[i].getNumber(), where);
+            assertEquals(expected[i].getShare(), actual[i].getShare(), where + ", share " + expected[i].getNumber());
+        }
+    }
+
+    /**
+     * The split before Horner's rule, as it was first written.
+     */
+    private static SecretShare[] legacySplit(BigInteger secret, int needed, int available, BigInteger prime,
+                                             Random random) {
+        final BigInteger[] coeff = new BigInteger[needed];
+        coeff[0] = secret;
+        for (int i = 1; i < needed; i++) {
+            BigInteger r = new BigInteger(prime.bitLength(), random);
+            while (r.compareTo(BigInteger.ZERO) < 1 && r.compareTo(prime) > -1) {
+                r = new BigInteger(prime.bitLength(), random);
+            }
+            coeff[i] = r;
+        }
+
+        final SecretShare[] shares = new SecretShare[available];
+        for (int x = 1; x <= available; x++) {
+            BigInteger accum = secret;
+
+            for (int exp = 1; exp < needed; exp++) {
+                accum = accum.add(coeff[exp].multiply(BigInteger.valueOf(x).pow(exp).mod(prime))).mod(prime);
+            }
+            shares[x - 1] = new SecretShare(x, accum);
+        }
+
+        return shares;
+    }
+}
@@ -0,0 +1,119 @@
+package MFA;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.Base64;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round trips and malformed input of {@link ShareCodec}.
+ *
+ * @author Igor Sytnik
+ */
+class ShareCodecTest {
+
+    private static final int[] NUMBERS = {0, 1, 127, 128, 300, 16383, 16384, Integer.MAX_VALUE};
+
+    @Test
+    void compactSharesRoundTrip() {
+        final Random random = new Random(1);
+        for (int width : new int[]{1, 16, 33, 256, ShareCodec.MAX_WIDTH}) {
+            for (int number : NUMBERS) {
+                for (BigInteger value : new BigInteger[]{BigInteger.ZERO, BigInteger.ONE,
+                        new BigInteger(8 * width, random), BigInteger.ONE.shiftLeft(8 * width).subtract(BigInteger.ONE)}) {
+                    final SecretShare share = new SecretShare(number, value);
+                    final String text = ShareCodec.encode(share, width);
+                    assertTrue(text.startsWith("A"), text);
+                    assertSameShare(share, ShareCodec.decode(text));
+                    assertSameShare(share, ShareCodec.decode(" \t" + text + "\n"));
+
+                    final byte[] binary = ShareCodec.toBinary(text);
+                    assertTrue(binary.length <= ShareCodec.MAX_BINARY_LENGTH);
+                    assertEquals(text, ShareCodec.fromBinary(binary));
+                    assertSameShare(share, ShareCodec.decode(ShareCodec.fromBinary(binary)));
+                }
+            }
+        }
+    }
+
+    @Test
+    void sharesOfTheSameWidthHaveTheSameLength() {
+        final BigInteger prime = BigInteger.probablePrime(257, new Random(2));
+        final int width = ShareCodec.width(prime);
+        assertEquals(ShareCodec.encode(new SecretShare(3, BigInteger.ONE), width).length(),
+                ShareCodec.encode(new SecretShare(3, prime.subtract(BigInteger.ONE)), width).length());
+    }
+
+    @Test
+    void legacyDecimalSharesAreRead() {
+        final SecretShare share = new SecretShare(12, new BigInteger("98765432109876543210"));
+        assertSameShare(share, ShareCodec.decode(share.toString()));
+        assertSameShare(share, ShareCodec.decode("  12-98765432109876543210 "));
+        assertSameShare(new SecretShare(1, BigInteger.ZERO), ShareCodec.decode("1-0"));
+
+        final byte[] binary = ShareCodec.toBinary(share.toString());
+        assertSameShare(share, ShareCodec.decode(ShareCodec.fromBinary(binary)));
+    }
+
+    @Test
+    void malformedDecimalSharesAreRejected() {
+        for (String text : new String[]{"", "   ", "1-", "1", "1-12a", "1-+5", "1--5", "99999999999-1", "1 -5"}) {
+            assertThrows(NoSuchElementException.class, () -> ShareCodec.decode(text), text);
+        }
+    }
+
+    @Test
+    void malformedCompactSharesAreRejected() {
+        final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        final String[] texts = {
+                // a zero-length value
+                "AQE",
+                encoder.encodeToString(new byte[]{1, (byte) 0x80, 1}),
+                // a wrong version
+                encoder.encodeToString(new byte[]{2, 1, 5}),
+                encoder.encodeToString(new byte[]{0, 1, 5}),
+                // a truncated varint
+                encoder.encodeToString(new byte[]{1}),
+                encoder.encodeToString(new byte[]{1, (byte) 0x80}),
+                encoder.encodeToString(new byte[]{1, (byte) 0xFF, (byte) 0xFF}),
+                // a varint longer than an int
+                encoder.encodeToString(new byte[]{1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 1, 5}),
+                encoder.encodeToString(new byte[]{1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F, 5}),
+                // not base64url
+                "AQEF=", "AQE+", "AQ", "A",
+                // over-long input
+                "AQE" + "A".repeat(ShareCodec.MAX_TEXT_LENGTH),
+                "1-" + "9".repeat(ShareCodec.MAX_TEXT_LENGTH)
+        };
+        for (String text : texts) {
+            assertThrows(NoSuchElementException.class, () -> ShareCodec.decode(text),
+                    text.length() > 40 ? text.substring(0, 40) + "..." : text);
+        }
+    }
+
+    @Test
+    void encodeRejectsWhatCantBeRead() {
+        assertThrows(IllegalArgumentException.class, () -> ShareCodec.encode(new SecretShare(1, BigInteger.ONE), 0));
+        assertThrows(IllegalArgumentException.class, () -> ShareCodec.encode(new SecretShare(1, BigInteger.valueOf(256)), 1));
+        assertThrows(IllegalArgumentException.class, () -> ShareCodec.encode(new SecretShare(-1, BigInteger.ONE), 1));
+        assertThrows(IllegalArgumentException.class, () -> ShareCodec.encode(new SecretShare(1, BigInteger.ONE.negate()), 1));
+    }
+
+    @Test
+    void binaryBytesAreTheCompactBytes() {
+        final SecretShare share = new SecretShare(2, BigInteger.valueOf(0x1234));
+        assertArrayEquals(new byte[]{1, 2, 0, 0x12, 0x34}, ShareCodec.toBinary(ShareCodec.encode(share, 3)));
+    }
+
+    private static void assertSameShare(SecretShare expected, SecretShare actual) {
+        assertEquals(expected.getNumber(), actual.getNumber());
+        assertEquals(expected.getShare(), actual.getShare());
+    }
+}
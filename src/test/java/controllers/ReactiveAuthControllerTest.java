@@ -0,0 +1,191 @@
+package controllers;
+
+import MFA.SecretShare;
+import MFA.ShareCodec;
+import exceptions.RegistrationException;
+import io.r2dbc.h2.H2ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.r2dbc.convert.MappingR2dbcConverter;
+import org.springframework.data.r2dbc.convert.R2dbcCustomConversions;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.data.r2dbc.dialect.H2Dialect;
+import org.springframework.data.r2dbc.mapping.R2dbcMappingContext;
+import org.springframework.data.r2dbc.repository.support.R2dbcRepositoryFactory;
+import org.springframework.data.relational.core.mapping.Table;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import org.springframework.r2dbc.core.DatabaseClient;
+import pojo.AuthenticationResult;
+import pojo.LoginClass;
+import pojo.UserBase;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Mono;
+import services.ShareSenderService;
+import services.user.ReactiveUserService;
+import services.user.UserStorage;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Registers and logs in users through {@link ReactiveAuthController}
+ * against an in-memory H2 database over R2DBC.
+ *
+ * @author Igor Sytnik
+ */
+class ReactiveAuthControllerTest {
+
+    @Table("users")
+    public static final class User extends UserBase<Long> {
+    }
+
+    interface UserRepository extends ReactiveCrudRepository<User, Long> {
+        Mono<User> findByUsername(String username);
+    }
+
+    private static final class UserService extends ReactiveUserService<User, Long> {
+        private final UserRepository repository;
+
+        UserService(UserRepository repository) {
+            this.repository = repository;
+        }
+
+        @Override
+        protected ReactiveCrudRepository<User, Long> getRepository() {
+            return repository;
+        }
+
+        @Override
+        public Mono<User> findByUsername(String username) {
+            return repository.findByUsername(username);
+        }
+    }
+
+    private static final class Controller extends ReactiveAuthController<User> {
+        private final UserService userService;
+
+        Controller(UserService userService) {
+            this.userService = userService;
+        }
+
+        @Override
+        protected ReactiveUserService<User, ?> getUserService() {
+            return userService;
+        }
+
+        @Override
+        protected ShareSenderService getShareSenderService() {
+            return null;
+        }
+    }
+
+    /** A user type {@link ReactiveAuthController} can't instantiate. */
+    public static final class UserWithoutDefaultConstructor extends UserBase<Long> {
+        public UserWithoutDefaultConstructor(String username) {
+            setUsername(username);
+        }
+    }
+
+    private Controller controller;
+    private UserService userService;
+
+    @BeforeEach
+    void createDatabase() {
+        final ConnectionFactory connectionFactory = H2ConnectionFactory.inMemory(UUID.randomUUID().toString());
+        final DatabaseClient databaseClient = DatabaseClient.create(connectionFactory);
+        databaseClient
+                .sql("create table users (" +
+                        "id bigint auto_increment primary key, " +
+                        "username varchar(255) not null unique, " +
+                        "password varchar(255), " +
+                        "password_bin varbinary(255), " +
+                        "email varchar(255), " +
+                        "prime numeric(1300), " +
+                        "prime_bin varbinary(1024), " +
+                        "scheme varchar(32), " +
+                        "commitments varbinary(65536), " +
+                        "shares_needed int not null, " +
+                        "shares_available int not null, " +
+                        "share_for_email varchar(2048), " +
+                        "share_for_email_bin varbinary(2048), " +
+                        "emailing_enabled boolean not null)")
+                .then()
+                .block();
+        final R2dbcCustomConversions conversions = R2dbcCustomConversions.of(H2Dialect.INSTANCE,
+                ReactiveUserService.CONVERTERS);
+        final R2dbcMappingContext mappingContext = new R2dbcMappingContext();
+        mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+        final R2dbcEntityTemplate template = new R2dbcEntityTemplate(databaseClient, H2Dialect.INSTANCE,
+                new MappingR2dbcConverter(mappingContext, conversions));
+        final UserRepository repository = new R2dbcRepositoryFactory(template).getRepository(UserRepository.class);
+        userService = new UserService(repository);
+        controller = new Controller(userService);
+    }
+
+    @Test
+    void registeredUserLogsInWithEnoughShares() {
+        final SecretShare[] shares = controller.register("alice", new BigInteger("123456789123456789"), 3, 5)
+                .block();
+        assertEquals(5, shares.length);
+
+        final AuthenticationResult result = controller.loginShares(login("alice", shares, 0, 2, 4)).block();
+        assertTrue(result.isAuthorised());
+        assertEquals("alice", result.getUsername());
+        assertEquals("alice", controller.getUser(result).block().getUsername());
+        assertEquals(3, controller.checkAndGetNumberOfPasswordsNeeded(controller.getUser(result).block()).block());
+    }
+
+    @Test
+    void tooFewOrForeignSharesAreDenied() {
+        final SecretShare[] alice = controller.register("alice", BigInteger.valueOf(424242), 3, 5).block();
+        final SecretShare[] bob = controller.register("bob", BigInteger.valueOf(171717), 3, 5).block();
+
+        assertFalse(controller.loginShares(login("alice", alice, 0, 1)).block().isAuthorised());
+        assertFalse(controller.loginShares(login("alice", bob, 0, 1, 2)).block().isAuthorised());
+        assertTrue(controller.loginShares(login("bob", bob, 1, 2, 3)).block().isAuthorised());
+    }
+
+    @Test
+    void takenUsernameIsRejected() {
+        controller.register("alice", BigInteger.TEN, 2, 3).block();
+
+        final Throwable error = assertThrows(RuntimeException.class,
+                () -> controller.register("alice", BigInteger.ONE, 2, 3).block());
+        assertTrue(Exceptions.unwrap(error) instanceof RegistrationException);
+    }
+
+    @Test
+    void userTypeWithoutDefaultConstructorIsRejected() {
+        assertThrows(IllegalStateException.class, () -> new ReactiveAuthController<UserWithoutDefaultConstructor>() {
+            @Override
+            protected ReactiveUserService<UserWithoutDefaultConstructor, ?> getUserService() {
+                return null;
+            }
+
+            @Override
+            protected ShareSenderService getShareSenderService() {
+                return null;
+            }
+        });
+    }
+
+    private LoginClass login(String username, SecretShare[] shares, int... indices) {
+        final int width = ShareCodec.width(UserStorage.getPrime(userService.findByUsername(username).block()));
+        final List<String> fields = Arrays.stream(indices)
+                .mapToObj(i -> ShareCodec.encode(shares[i], width))
+                .collect(Collectors.toList());
+        final LoginClass loginClass = new LoginClass();
+        loginClass.setUsername(username);
+        loginClass.setPasswordFields(fields);
+        return loginClass;
+    }
+}
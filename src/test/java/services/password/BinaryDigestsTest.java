@@ -0,0 +1,67 @@
+package services.password;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks {@link BinaryDigests} against the text digests of the known hashers.
+ *
+ * @author Igor Sytnik
+ */
+class BinaryDigestsTest {
+
+    private static final Pbkdf2PasswordHasher HASHER = new Pbkdf2PasswordHasher(1000);
+
+    @Test
+    void digestsRoundTripAndVerify() {
+        for (PasswordHasher hasher : new PasswordHasher[]{HASHER, PasswordHashers.SHA1}) {
+            final String digest = hasher.hash("secret");
+            final byte[] binary = BinaryDigests.encode(digest);
+
+            assertTrue(BinaryDigests.supports(digest));
+            assertEquals(digest, BinaryDigests.decode(binary));
+            assertTrue(BinaryDigests.verify("secret", binary));
+            assertFalse(BinaryDigests.verify("Secret", binary));
+        }
+    }
+
+    @Test
+    void iterationCountsBelowOneAreRejected() {
+        final String digest = HASHER.hash("secret");
+        final String rest = digest.substring(digest.indexOf('$', Pbkdf2PasswordHasher.PREFIX.length()));
+        for (String iterations : new String[]{"0", "-1"}) {
+            final String malformed = Pbkdf2PasswordHasher.PREFIX + iterations + rest;
+            assertFalse(BinaryDigests.supports(malformed));
+            assertThrows(IllegalArgumentException.class, () -> BinaryDigests.encode(malformed));
+        }
+
+        for (int iterations : new int[]{0, -1, Integer.MIN_VALUE}) {
+            final byte[] binary = BinaryDigests.encode(digest);
+            binary[1] = (byte) (iterations >>> 24);
+            binary[2] = (byte) (iterations >>> 16);
+            binary[3] = (byte) (iterations >>> 8);
+            binary[4] = (byte) iterations;
+
+            assertFalse(BinaryDigests.verify("secret", binary));
+            assertTrue(BinaryDigests.needsRehash(binary, HASHER));
+            assertThrows(IllegalArgumentException.class, () -> BinaryDigests.decode(binary));
+        }
+    }
+
+    @Test
+    void truncatedDigestsAreMalformed() {
+        final byte[] binary = BinaryDigests.encode(HASHER.hash("secret"));
+        final byte[] truncated = new byte[binary.length - 1];
+        System.arraycopy(binary, 0, truncated, 0, truncated.length);
+
+        assertFalse(BinaryDigests.verify("secret", truncated));
+        assertFalse(BinaryDigests.verify("secret", new byte[0]));
+        assertFalse(BinaryDigests.verify("secret", null));
+        assertArrayEquals(binary, BinaryDigests.encode(BinaryDigests.decode(binary)));
+    }
+}
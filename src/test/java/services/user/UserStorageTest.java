@@ -0,0 +1,83 @@
+package services.user;
+
+import MFA.FeldmanScheme;
+import MFA.SchemeType;
+import org.junit.jupiter.api.Test;
+import pojo.UserBase;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks how {@link UserStorage} reads and migrates stored Feldman commitments.
+ *
+ * @author Igor Sytnik
+ */
+class UserStorageTest {
+
+    private static final class User extends UserBase<Long> {
+    }
+
+    @Test
+    void legacyCommitmentToTheSecretIsDropped() {
+        final BigInteger secret = BigInteger.valueOf(123456789);
+        final FeldmanScheme.VerifiableShares split = FeldmanScheme.INSTANCE.splitVerifiable(
+                secret, 3, 5, new Random(1));
+        final BigInteger[] legacy = new BigInteger[3];
+        legacy[0] = FeldmanScheme.G.modPow(secret, FeldmanScheme.P);
+        System.arraycopy(split.getCommitments(), 0, legacy, 1, 2);
+        final User user = feldmanUser(3);
+        user.setCommitments(FeldmanScheme.encodeCommitments(legacy));
+
+        assertArrayEquals(split.getCommitments(), UserStorage.getCommitments(user));
+        assertTrue(FeldmanScheme.verify(split.getShares(), UserStorage.getCommitments(user)));
+
+        assertTrue(UserStorage.migrateStorage(user));
+        assertArrayEquals(FeldmanScheme.encodeCommitments(split.getCommitments()), user.getCommitments());
+        assertFalse(UserStorage.migrateStorage(user));
+    }
+
+    @Test
+    void legacyCommitmentOfASingleShareIsDropped() {
+        final User user = feldmanUser(1);
+        user.setCommitments(FeldmanScheme.encodeCommitments(
+                new BigInteger[]{FeldmanScheme.G.modPow(BigInteger.TEN, FeldmanScheme.P)}));
+        assertNull(UserStorage.getCommitments(user));
+    }
+
+    @Test
+    void currentCommitmentsAreKept() {
+        final FeldmanScheme.VerifiableShares split = FeldmanScheme.INSTANCE.splitVerifiable(
+                BigInteger.TEN, 4, 6, new Random(2));
+        final User user = feldmanUser(4);
+        UserStorage.setCommitments(user, split.getCommitments());
+        assertArrayEquals(split.getCommitments(), UserStorage.getCommitments(user));
+        assertFalse(UserStorage.migrateStorage(user));
+    }
+
+    @Test
+    void commitmentsNextToAnEmailedShareAreDropped() {
+        final FeldmanScheme.VerifiableShares split = FeldmanScheme.INSTANCE.splitVerifiable(
+                BigInteger.TEN, 3, 4, new Random(3));
+        final User user = feldmanUser(3);
+        UserStorage.setCommitments(user, split.getCommitments());
+        UserStorage.setShareForEmail(user, "1-" + split.getShares()[0].getShare());
+        assertTrue(UserStorage.migrateStorage(user));
+        assertNull(user.getCommitments());
+        assertNull(UserStorage.getCommitments(user));
+        assertFalse(UserStorage.migrateStorage(user));
+    }
+
+    private static User feldmanUser(int needed) {
+        final User user = new User();
+        user.setScheme(SchemeType.FELDMAN_2048);
+        user.setSharesNeeded(needed);
+        user.setSharesAvailable(needed + 2);
+        return user;
+    }
+}